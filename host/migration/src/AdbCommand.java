@@ -14,24 +14,23 @@
  * limitations under the License.
  */
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 /**
  * Created by adnan on 11/29/15.
  */
 public class AdbCommand extends Command {
-    private static final int MAX_RETRIES = 20;
+    // Polling starts fast and slows down, giving up after about as long as a slow boot takes
+    private static final long POLL_INITIAL_DELAY_MS = 250;
+    private static final long POLL_MAX_DELAY_MS = 8000;
+    private static final long POLL_TIMEOUT_MS = 200000;
+
     private static final String[] ADB_REBOOT_BOOTLOADER = new String[] {
-            "adb", "reboot", "bootloader"
+            ADB, "reboot", "bootloader"
     };
     private static final String[] ADB_CHECK_BOOT_COMPLETE = new String[] {
-            "adb", "shell", "getprop", "sys.boot_completed"
+            ADB, "shell", "getprop", "sys.boot_completed"
     };
 
     private String[] baseCommand;
@@ -51,77 +50,39 @@ public class AdbCommand extends Command {
 
     @Override
     public void run() {
-        List<String> commandList = new ArrayList<String>(
-                baseCommand.length + 1);
-        commandList.addAll(Arrays.asList(baseCommand));
-        String[] commands = commandList.toArray(new String[0]);
-
         if (MigrationTest.DEBUG) {
-            System.out.println("Using commands: " + Arrays.toString(commands));
+            System.out.println("Using commands: " + Arrays.toString(baseCommand));
         }
-        try {
-            Process process = Runtime.getRuntime().exec(commands);
-            final InputStream err = process.getErrorStream();
-            // Send error output to stderr.
-            Thread errThread = new Thread() {
-                @Override
-                public void run() {
-                    copy(err, System.err);
-                }
-            };
-            errThread.setDaemon(true);
-            errThread.start();
-
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()));
-            String rx = in.readLine();
-            if (!baseCommand.equals(ADB_CHECK_BOOT_COMPLETE)) {
-                if (rx != null) {
-                    if (MigrationTest.DEBUG) {
-                        System.out.println("Received response " + rx);
-                    }
-                }
-
-                try {
-                    Thread.sleep(10000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+        if (baseCommand != ADB_CHECK_BOOT_COMPLETE) {
+            // The next command waits for the bootloader, see FastbootCommand
+            try {
+                String rx = exec(baseCommand, null);
+                if (MigrationTest.DEBUG && !rx.isEmpty()) {
+                    System.out.println("Received response " + rx.trim());
                 }
+            } catch (IOException e) {
+                System.err.println("Error ");
+                e.printStackTrace();
+            }
+            return;
+        }
 
-                in.close();
-                err.close();
-                process.destroy();
-            } else {
-                for (int i = 1; i < MAX_RETRIES; i++) {
-                    process = Runtime.getRuntime().exec(commands);
-                    in = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                    if ((rx = in.readLine()) != null) {
-                        if (rx.equals("1")) {
-                            in.close();
-                            process.destroy();
-                            try {
-                                System.out.println("Device up detected...");
-                                Thread.sleep(10000);
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
-                            break;
-                        }
-                    }
-                    try {
-                        System.out.println("Waiting for device to come up...");
-                        Thread.sleep(10000);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    in.close();
-                    process.destroy();
+        Backoff backoff = new Backoff(POLL_INITIAL_DELAY_MS, POLL_MAX_DELAY_MS, POLL_TIMEOUT_MS);
+        do {
+            try {
+                // Fails while the device is still away, that's just another retry
+                if ("1".equals(exec(baseCommand, null).trim())) {
+                    System.out.println("Device up detected...");
+                    return;
                 }
+            } catch (IOException e) {
+                System.err.println("Error ");
+                e.printStackTrace();
+                return;
             }
-        } catch (IOException e) {
-            System.err.println("Error ");
-            e.printStackTrace();
-        }
+            System.out.println("Waiting for device to come up...");
+        } while (backoff.waitForRetry());
+        System.err.println("Device did not come up");
     }
 
     public final class Types {
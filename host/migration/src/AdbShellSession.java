@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Runs several commands in a single adb shell session, one round trip instead of one adb
+ * process per command. The commands run in order, each one's output is handed to its
+ * {@link Command#onShellOutput(String)}. Essentially:
+ * adb shell sh < [script]
+ */
+public class AdbShellSession {
+    private final List<Command> commands;
+    private final String marker = "@@migration-" + System.nanoTime() + "@@";
+
+    /**
+     * @param commands Commands that all have a {@link Command#getShellCommand()}.
+     */
+    public AdbShellSession(List<Command> commands) {
+        this.commands = commands;
+    }
+
+    public void run() {
+        // Each command is announced by a marker line, so the output can be split again
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < commands.size(); i++) {
+            script.append("echo '").append(marker).append(' ').append(i).append("'\n");
+            script.append(commands.get(i).getShellCommand()).append(" 2>&1\n");
+        }
+        script.append("exit\n");
+        if (MigrationTest.DEBUG) {
+            System.out.println("Running " + commands.size() + " commands in one adb shell");
+        }
+
+        String output;
+        try {
+            output = Command.exec(new String[] { Command.ADB, "shell", "sh" }, script.toString());
+        } catch (IOException e) {
+            System.err.println("Error ");
+            e.printStackTrace();
+            return;
+        }
+
+        int index = -1;
+        int start = 0;
+        int pos = 0;
+        while ((pos = output.indexOf(marker, pos)) >= 0) {
+            if (index >= 0) {
+                commands.get(index).onShellOutput(output.substring(start, pos));
+            }
+            int end = output.indexOf('\n', pos);
+            if (end < 0) {
+                end = output.length();
+            }
+            index = Integer.parseInt(output.substring(pos + marker.length() + 1, end).trim());
+            start = Math.min(end + 1, output.length());
+            pos = end;
+        }
+        if (index >= 0) {
+            commands.get(index).onShellOutput(output.substring(start));
+        }
+        if (index != commands.size() - 1) {
+            System.err.println("adb shell session ended after " + (index + 1) + " of "
+                    + commands.size() + " commands");
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Exponential backoff for polling the device, starting with short waits so a device that is
+ * already there is noticed quickly, without polling a slow one too often.
+ */
+public class Backoff {
+    private final long maxDelayMs;
+    private final long deadline;
+    private long delayMs;
+
+    /**
+     * @param initialDelayMs The wait before the second attempt, doubled after each attempt.
+     * @param maxDelayMs The longest wait between two attempts.
+     * @param timeoutMs How long to keep trying for.
+     */
+    public Backoff(long initialDelayMs, long maxDelayMs, long timeoutMs) {
+        this.delayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.deadline = System.currentTimeMillis() + timeoutMs;
+    }
+
+    /**
+     * Waits before the next attempt. Returns false, without waiting, once the timeout would
+     * pass.
+     */
+    public boolean waitForRetry() {
+        long now = System.currentTimeMillis();
+        if (now >= deadline) {
+            return false;
+        }
+        try {
+            Thread.sleep(Math.min(delayMs, deadline - now));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        delayMs = Math.min(delayMs * 2, maxDelayMs);
+        return true;
+    }
+}
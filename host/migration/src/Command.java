@@ -14,14 +14,26 @@
  * limitations under the License.
  */
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Created by adnan on 11/13/15.
  */
 public class Command implements Runnable {
+    // Overridable so the tool can run against a stand-in, see fake-adb
+    protected static final String ADB = System.getProperty("migration.adb", "adb");
+    protected static final String FASTBOOT =
+            System.getProperty("migration.fastboot", "fastboot");
+
     private String authority;
 
     /**
@@ -31,6 +43,116 @@ public class Command implements Runnable {
     public void run() {
     }
 
+    /**
+     * Whether the command only reads settings, so it may run alongside other reads.
+     */
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * Returns the command line to run on the device within an adb shell session shared with
+     * other commands, or null if the command has to run on its own, see AdbShellSession.
+     */
+    public String getShellCommand() {
+        return null;
+    }
+
+    /**
+     * Receives what the command printed when it ran within an adb shell session, instead of
+     * {@link #run()}.
+     */
+    public void onShellOutput(String output) {
+    }
+
+    /**
+     * Quotes an argument for the device shell.
+     */
+    protected static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * Starts a host command, its error output is sent to stderr.
+     */
+    protected static Process start(String[] commands) throws IOException {
+        final Process process = Runtime.getRuntime().exec(commands);
+        final InputStream err = process.getErrorStream();
+
+        // Send error output to stderr.
+        Thread errThread = new Thread() {
+            @Override
+            public void run() {
+                copy(err, System.err);
+            }
+        };
+        errThread.setDaemon(true);
+        errThread.start();
+        return process;
+    }
+
+    /**
+     * Returns a consumer adding the settings that pass {@link #filter(String, Setting)} to a
+     * list.
+     */
+    protected static Consumer<Setting> filtered(final String uri, final List<Setting> settings) {
+        return new Consumer<Setting>() {
+            @Override
+            public void accept(Setting setting) {
+                if (MigrationTest.DEBUG) {
+                    System.out.println("SETTING: " + setting.getKey() + "=" + setting.getValue());
+                }
+                if (!filter(uri, setting)) {
+                    settings.add(setting);
+                }
+            }
+        };
+    }
+
+    /**
+     * Runs a host command to completion and returns what it printed, error output is sent to
+     * stderr.
+     * @param input Written to the command's stdin if not null.
+     */
+    protected static String exec(String[] commands, final String input) throws IOException {
+        final Process process = start(commands);
+
+        // Written while the output is read, so neither side can fill its pipe and stall
+        final OutputStream stdin = process.getOutputStream();
+        Thread inThread = new Thread() {
+            @Override
+            public void run() {
+                try (Writer out = new OutputStreamWriter(stdin, StandardCharsets.UTF_8)) {
+                    if (input != null) {
+                        out.write(input);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        inThread.setDaemon(true);
+        inThread.start();
+
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        StringBuilder output = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = in.read(buffer)) > -1) {
+            output.append(buffer, 0, read);
+        }
+        in.close();
+        try {
+            process.waitFor();
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted running " + commands[0], e);
+        }
+        return output.toString();
+    }
+
     /**
      * Copies from one stream to another.
      */
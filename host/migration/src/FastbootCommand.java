@@ -14,10 +14,7 @@
  * limitations under the License.
  */
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -26,7 +23,11 @@ import java.util.List;
  * Created by adnan on 11/17/15.
  */
 public class FastbootCommand extends Command {
-    private static final String FASTBOOT_COMMAND = "fastboot";
+    // See AdbCommand, the bootloader usually shows up within seconds
+    private static final long POLL_INITIAL_DELAY_MS = 250;
+    private static final long POLL_MAX_DELAY_MS = 4000;
+    private static final long POLL_TIMEOUT_MS = 120000;
+
     private static final String REBOOT = "reboot";
     private static final String DEVICES = "devices";
     private static final String FLASH = "flash";
@@ -39,17 +40,17 @@ public class FastbootCommand extends Command {
     public FastbootCommand(int command, String[] args) {
         switch (command) {
             case Types.FASTBOOT_FLASH:
-                baseCommand = new String[] { FASTBOOT_COMMAND };
+                baseCommand = new String[] { FASTBOOT };
                 baseArg = FLASH;
                 image = args[0];
                 targetImage = args[1];
                 break;
             case Types.FASTBOOT_DEVICES:
-                baseCommand = new String[] { FASTBOOT_COMMAND };
+                baseCommand = new String[] { FASTBOOT };
                 baseArg = DEVICES;
                 break;
             case Types.FASTBOOT_REBOOT:
-                baseCommand = new String[] { FASTBOOT_COMMAND };
+                baseCommand = new String[] { FASTBOOT };
                 baseArg = REBOOT;
                 break;
             default:
@@ -76,39 +77,22 @@ public class FastbootCommand extends Command {
         if (MigrationTest.DEBUG) {
             System.out.println("Using commands: " + Arrays.toString(commands));
         }
-        try {
-            final Process process = Runtime.getRuntime().exec(commands);
-            final InputStream err = process.getErrorStream();
-
-            // Send error output to stderr.
-            Thread errThread = new Thread() {
-                @Override
-                public void run() {
-                    copy(err, System.err);
-                }
-            };
-            errThread.setDaemon(true);
-            errThread.start();
 
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()));
-            String rx = in.readLine();
-            if (rx != null) {
-                if (MigrationTest.DEBUG) {
+        // Flashing and rebooting are done when fastboot exits, listing devices is polled
+        // until the device is in the bootloader
+        Backoff backoff = new Backoff(POLL_INITIAL_DELAY_MS, POLL_MAX_DELAY_MS, POLL_TIMEOUT_MS);
+        try {
+            do {
+                String rx = exec(commands, null).trim();
+                if (MigrationTest.DEBUG && !rx.isEmpty()) {
                     System.out.println("Received response " + rx);
                 }
-            }
-
-            try {
-                Thread.sleep(10000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-
-            in.close();
-            err.close();
-            //Gross
-            process.destroy();
+                if (!DEVICES.equals(baseArg) || !rx.isEmpty()) {
+                    return;
+                }
+                System.out.println("Waiting for bootloader...");
+            } while (backoff.waitForRetry());
+            System.err.println("No device in bootloader");
         } catch (IOException e) {
             System.err.println("Error ");
             e.printStackTrace();
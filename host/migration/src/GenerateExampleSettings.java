@@ -27,6 +27,7 @@ import java.util.ArrayList;
  * This is to be run on a live Ouvrir 12.1 device.
  */
 public class GenerateExampleSettings {
+    private static final String ARGUMENT_PACKED = "--packed";
 
     private static ArrayList<Setting> androidSystemSettingList = new ArrayList<Setting>();
     private static ArrayList<Setting> androidSecureSettingList = new ArrayList<Setting>();
@@ -34,12 +35,13 @@ public class GenerateExampleSettings {
     private static ArrayList<Setting> defaultSettings = new ArrayList<Setting>();
 
     public static void main(String[] args) throws IOException, ClassNotFoundException {
-        if (args.length != 1) {
-            System.err.println("Usage: GenerateExampleSettings [target file]");
+        boolean packed = args.length == 2 && ARGUMENT_PACKED.equals(args[0]);
+        if (args.length != 1 && !packed) {
+            System.err.println("Usage: GenerateExampleSettings [--packed] [target file]");
             System.exit(-1);
         }
 
-        String rootFile = args[0];
+        String rootFile = args[args.length - 1];
         SettingImageCommands androidSettingImage =
                 new SettingImageCommands(SettingsConstants.SETTINGS_AUTHORITY);
         androidSettingImage.addQuery(SettingsConstants.SYSTEM, androidSystemSettingList);
@@ -69,6 +71,15 @@ public class GenerateExampleSettings {
                 new FileOutputStream(rootFile),
                 Charset.forName("US-ASCII")));
 
+        if (packed) {
+            // Keeps values containing ',' or newlines intact, see PackedList
+            out.write(PackedList.FILE_HEADER + "\n");
+            out.write(PackedList.write(defaultSettings));
+            out.close();
+            System.out.println("Settings written: " + rootFile.toString());
+            return;
+        }
+
         out.write("# Settings which are to be moved to OuvrirSettings\n");
         out.write("# Automatically generated by " +
                 "ouvrir-sdk/host/migration/src/GenerateExampleSettings"
@@ -76,10 +87,11 @@ public class GenerateExampleSettings {
         // Write settings to file for output.
         for (int i = 0; i < defaultSettings.size(); i++) {
             Setting defaultSetting = defaultSettings.get(i);
-            // This is the same format as what is spit out by system/bin/content
-            out.write("Row: " + i + " name=" + defaultSetting.getKey()
+            // This is the same format as what is spit out by system/bin/content, with ',' and
+            // newlines escaped, see RowParser
+            out.write("Row: " + i + " name=" + RowParser.escape(defaultSetting.getKey())
                     + ", type=" + defaultSetting.getKeyType()
-                    + ", value=" + defaultSetting.getValue()
+                    + ", value=" + RowParser.escape(defaultSetting.getValue())
                     + ", type=" + defaultSetting.getValueType() + "\n");
         }
         out.close();
@@ -29,7 +29,7 @@ import java.util.List;
  */
 public class InsertCommand extends Command {
     private static final String[] INSERT_SETTINGS = {
-            "adb", "shell", "content", "insert", "--uri" };
+            ADB, "shell", "content", "insert", "--uri" };
 
     private String targetUri;
     private Setting targetSetting;
@@ -49,6 +49,26 @@ public class InsertCommand extends Command {
         }
     }
 
+    @Override
+    public String getShellCommand() {
+        return "content insert --uri " + SettingsConstants.CONTENT_URI + getAuthority() + targetUri
+                + " --bind " + quote("name:" + targetSetting.getKeyType() + ":"
+                        + targetSetting.getKey())
+                + " --bind " + quote("value:" + targetSetting.getValueType() + ":"
+                        + targetSetting.getValue());
+    }
+
+    @Override
+    public void onShellOutput(String output) {
+        if (MigrationTest.DEBUG) {
+            System.out.println("Wrote setting " + targetSetting.getKey() + " for authority "
+                    + getAuthority() + " for target uri " + targetUri);
+            if (!output.isEmpty()) {
+                System.out.println("Received response " + output.trim());
+            }
+        }
+    }
+
     private void insert(String uri, Setting setting) {
         String[] commands = INSERT_SETTINGS;
         List<String> commandList = new ArrayList<String>(
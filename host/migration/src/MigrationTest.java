@@ -15,9 +15,14 @@
  */
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * A verbose settings migration test
@@ -26,6 +31,7 @@ class MigrationTest {
     private static final String ARGUMENT_SETTINGS = "--settings";
     private static final String ARGUMENT_BOOT_IMG = "--bootimg";
     private static final String ARGUMENT_SYSTEM_IMG = "--systemimg";
+    private static final String ARGUMENT_REPORT = "--report";
     private static final String ARGUMENT_PREFIX = "--";
 
     public static final boolean DEBUG = true;
@@ -50,6 +56,7 @@ class MigrationTest {
         String settingFileName = null;
         String bootImage = null;
         String systemImage = null;
+        String reportFileName = null;
         for (String argument; (argument = tokenizer.nextArg())!= null;) {
             if (ARGUMENT_SETTINGS.equals(argument)) {
                 settingFileName = argumentValueRequired(argument);
@@ -57,6 +64,8 @@ class MigrationTest {
                 bootImage = argumentValueRequired(argument);
             } else if (ARGUMENT_SYSTEM_IMG.equals(argument)) {
                 systemImage = argumentValueRequired(argument);
+            } else if (ARGUMENT_REPORT.equals(argument)) {
+                reportFileName = argumentValueRequired(argument);
             }
         }
 
@@ -104,25 +113,37 @@ class MigrationTest {
         //Requery
         SettingImageCommands ouvrirSettingImage =
                 new SettingImageCommands(SettingsConstants.OUVRIRSETTINGS_AUTHORITY);
-        ouvrirSettingImage.addQuery(SettingsConstants.SYSTEM, ouvrirSystemSettingList);
-        ouvrirSettingImage.addQuery(SettingsConstants.SECURE, ouvrirSecureSettingList);
-        ouvrirSettingImage.addQuery(SettingsConstants.GLOBAL, ouvrirGlobalSettingList);
+        Map<String, ArrayList<Setting>> ouvrirSettingLists =
+                new LinkedHashMap<String, ArrayList<Setting>>();
+        ouvrirSettingLists.put(SettingsConstants.SYSTEM, ouvrirSystemSettingList);
+        ouvrirSettingLists.put(SettingsConstants.SECURE, ouvrirSecureSettingList);
+        ouvrirSettingLists.put(SettingsConstants.GLOBAL, ouvrirGlobalSettingList);
+        ouvrirSettingImage.addSnapshotQuery(ouvrirSettingLists);
         ouvrirSettingImage.execute();
 
         //Validate
-        System.out.println("\n\nValidating " + SettingsConstants.SYSTEM + "...");
-        validate(legacySystemSettings, ouvrirSystemSettingList);
-        System.out.println("\n\nValidating " + SettingsConstants.SECURE + "...");
-        validate(legacySecureSettings, ouvrirSecureSettingList);
-        System.out.println("\n\nValidating " + SettingsConstants.GLOBAL + "...");
-        validate(legacyGlobalSettings, ouvrirGlobalSettingList);
-        System.exit(0);
+        SettingsDiff diff = new SettingsDiff();
+        diff.compare(SettingsConstants.SYSTEM, legacySystemSettings, ouvrirSystemSettingList);
+        diff.compare(SettingsConstants.SECURE, legacySecureSettings, ouvrirSecureSettingList);
+        diff.compare(SettingsConstants.GLOBAL, legacyGlobalSettings, ouvrirGlobalSettingList);
+        if (reportFileName != null) {
+            Writer report = new OutputStreamWriter(new FileOutputStream(reportFileName),
+                    StandardCharsets.UTF_8);
+            diff.write(report);
+            report.close();
+        } else {
+            diff.write(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        }
+        System.out.println("\n\nValidation " + (diff.isEmpty() ? "passed" : "failed") + ": "
+                + diff.getSummary());
+        System.exit(diff.isEmpty() ? 0 : -1);
     }
 
     private static void showUsage() {
         System.err.println("Usage: MigrationTest --settings [example setting file] "
                 + "--bootimg [image]"
-                + "--systemimg [image]");
+                + "--systemimg [image] "
+                + "[--report [differences file]]");
     }
 
     private static class Tokenizer {
@@ -149,52 +170,4 @@ class MigrationTest {
         }
         return value;
     }
-
-    private static void validate(ArrayList<Setting> legacySettings, ArrayList<Setting> ouvrirSettings) {
-        Collections.sort(legacySettings);
-        Collections.sort(ouvrirSettings);
-
-        if (legacySettings.size() != ouvrirSettings.size()) {
-            System.err.println("Warning: Size mismatch: " + " legacy "
-                    + legacySettings.size() + " ouvrir " + ouvrirSettings.size());
-        }
-
-        for (int i = 0; i < legacySettings.size(); i++) {
-            Setting legacySetting = legacySettings.get(i);
-            Setting ouvrirSetting = ouvrirSettings.get(i);
-            int error = 0;
-
-            System.out.println("Comparing: legacy " + legacySetting.getKey() + " and ouvrirsetting "
-                    + ouvrirSetting.getKey());
-
-            if (!legacySetting.getKey().equals(ouvrirSetting.getKey())) {
-                System.err.println("    Key mismatch: " + legacySetting.getKey() + " and "
-                        + ouvrirSetting.getKey());
-                error = 1;
-            }
-            if (!legacySetting.getKeyType().equals(ouvrirSetting.getKeyType())) {
-                System.err.println("    Key type mismatch: " + legacySetting.getKeyType() + " and "
-                        + ouvrirSetting.getKeyType());
-                error = 1;
-            }
-            if (legacySetting.getValue().length() > 0) {
-                if (!legacySetting.getValue().equals(ouvrirSetting.getValue())) {
-                    System.err.println("    Value mismatch: " + legacySetting.getValue() + " and "
-                            + ouvrirSetting.getValue());
-                    error = 1;
-                }
-            }
-            if (!legacySetting.getValueType().equals(ouvrirSetting.getValueType())) {
-                System.err.println("    Value type mismatch: " + legacySetting.getValueType()
-                        + " and " + ouvrirSetting.getValueType());
-                error = 1;
-            }
-
-            if (error > 0) {
-                System.exit(-1);
-            } else {
-                System.out.println("...OK");
-            }
-        }
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the packed settings list returned by the LIST_* call() methods of the
+ * OuvrirSettings provider. The row count is followed by ';', then each name and value is
+ * written as its length, ':' and its characters, with "-1:" standing for null.
+ */
+public class PackedList {
+    public static final String FILE_HEADER = "# Packed settings list";
+
+    // What content query prints for a null column, kept so settings compare the same
+    private static final String NULL_VALUE = "NULL";
+
+    /**
+     * Parses a packed list starting at the given offset, anything after the list is ignored.
+     */
+    public static ArrayList<Setting> parse(String packed, int offset) throws IOException {
+        int[] pos = new int[] { offset };
+        int count = readNumber(packed, pos, ';');
+        ArrayList<Setting> settings = new ArrayList<Setting>(count);
+        for (int i = 0; i < count; i++) {
+            String key = readString(packed, pos);
+            String value = readString(packed, pos);
+            Setting setting = new Setting();
+            setting.setKey(key);
+            setting.setKeyType(Setting.SettingType.mapNumericToType(
+                    Setting.SettingType.FIELD_TYPE_STRING));
+            setting.setValue(value != null ? value : NULL_VALUE);
+            setting.setValueType(Setting.SettingType.mapNumericToType(value != null
+                    ? Setting.SettingType.FIELD_TYPE_STRING
+                    : Setting.SettingType.FIELD_TYPE_NULL));
+            settings.add(setting);
+        }
+        return settings;
+    }
+
+    public static String write(List<Setting> settings) {
+        StringBuilder packed = new StringBuilder().append(settings.size()).append(';');
+        for (Setting setting : settings) {
+            append(packed, setting.getKey());
+            append(packed, NULL_VALUE.equals(setting.getValue()) ? null : setting.getValue());
+        }
+        return packed.toString();
+    }
+
+    private static void append(StringBuilder packed, String s) {
+        if (s == null) {
+            packed.append("-1:");
+        } else {
+            packed.append(s.length()).append(':').append(s);
+        }
+    }
+
+    private static String readString(String packed, int[] pos) throws IOException {
+        int length = readNumber(packed, pos, ':');
+        if (length < 0) {
+            return null;
+        }
+        int start = pos[0];
+        if (start + length > packed.length()) {
+            throw new IOException("Truncated packed list at " + start);
+        }
+        pos[0] = start + length;
+        return packed.substring(start, start + length);
+    }
+
+    private static int readNumber(String packed, int[] pos, char terminator)
+            throws IOException {
+        int end = packed.indexOf(terminator, pos[0]);
+        if (end < 0) {
+            throw new IOException("Malformed packed list at " + pos[0]);
+        }
+        try {
+            int number = Integer.parseInt(packed.substring(pos[0], end));
+            pos[0] = end + 1;
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed packed list at " + pos[0], e);
+        }
+    }
+}
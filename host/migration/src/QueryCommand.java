@@ -14,10 +14,11 @@
  * limitations under the License.
  */
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -26,10 +27,16 @@ import java.util.List;
  * Essentially:
  * adb shell content query --uri content://settings/secure --projection name:value
  * --where \"name=\'new_setting\'\" --sort \"name ASC\"\n"
+ *
+ * For the OuvrirSettings provider the whole table is fetched as a packed list instead:
+ * adb shell content call --uri content://ouvrirsettings --method LIST_secure
+ * --extra _list_format:i:2
  */
 public class QueryCommand extends Command {
     private static final String[] QUERY_SETTINGS = {
-            "adb", "shell", "content", "query", "--uri" };
+            ADB, "shell", "content", "query", "--uri" };
+    private static final String[] CALL_SETTINGS = {
+            ADB, "shell", "content", "call", "--uri" };
     private static final String PROJECTION = "name:value";
 
     private ArrayList<Setting> targetList;
@@ -45,64 +52,133 @@ public class QueryCommand extends Command {
     public void run() {
         System.out.println("\nQuerying settings for authority "
                 + getAuthority() + " for target uri " + targetUri + "...");
-        query(targetUri, targetList);
+        if (!isPacked() || !queryPacked(targetUri, targetList)) {
+            query(targetUri, targetList);
+        }
         synchronized (this) {
             notifyAll();
         }
     }
 
-    private void query(String uri, ArrayList<Setting> arrayList) {
-        String[] commands = QUERY_SETTINGS;
-        List<String> commandList = new ArrayList<String>(
-                QUERY_SETTINGS.length + 1);
-        commandList.addAll(Arrays.asList(commands));
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public String getShellCommand() {
+        List<String> commandList = isPacked() ? getPackedCommand(targetUri)
+                : getQueryCommand(targetUri);
+        // Drop "adb shell"
+        StringBuilder command = new StringBuilder();
+        for (String argument : commandList.subList(2, commandList.size())) {
+            if (command.length() > 0) {
+                command.append(' ');
+            }
+            command.append(quote(argument));
+        }
+        return command.toString();
+    }
+
+    @Override
+    public void onShellOutput(String output) {
+        System.out.println("\nQueried settings for authority "
+                + getAuthority() + " for target uri " + targetUri + "...");
+        try {
+            if (isPacked()) {
+                if (!parsePacked(output, targetUri, targetList)) {
+                    query(targetUri, targetList);
+                }
+            } else {
+                RowParser.parse(true, new StringReader(output),
+                        filtered(targetUri, targetList));
+            }
+        } catch (IOException e) {
+            System.err.println("Error ");
+            e.printStackTrace();
+        }
+    }
+
+    // The OuvrirSettings provider lists whole tables as packed lists
+    private boolean isPacked() {
+        return SettingsConstants.OUVRIRSETTINGS_AUTHORITY.equals(getAuthority());
+    }
+
+    private List<String> getQueryCommand(String uri) {
+        List<String> commandList = new ArrayList<String>(Arrays.asList(QUERY_SETTINGS));
         commandList.add(SettingsConstants.CONTENT_URI + getAuthority() + uri);
         commandList.add("--projection");
         commandList.add(PROJECTION);
         commandList.add("--show-type"); //this is totally awesomely ouvrir specific
         commandList.add("true");
-        commands = commandList.toArray(new String[0]);
+        return commandList;
+    }
+
+    private List<String> getPackedCommand(String uri) {
+        List<String> commandList = new ArrayList<String>(Arrays.asList(CALL_SETTINGS));
+        commandList.add(SettingsConstants.CONTENT_URI + getAuthority());
+        commandList.add("--method");
+        commandList.add(SettingsConstants.CALL_METHOD_LIST_PREFIX + uri.substring(1));
+        commandList.add("--extra");
+        commandList.add(SettingsConstants.CALL_METHOD_LIST_FORMAT_PACKED);
+        return commandList;
+    }
+
+    private void query(String uri, ArrayList<Setting> arrayList) {
+        String[] commands = getQueryCommand(uri).toArray(new String[0]);
         if (MigrationTest.DEBUG) {
             System.out.println("Using commands: " + Arrays.toString(commands));
         }
 
         try {
-            final Process process = Runtime.getRuntime().exec(commands);
-            final InputStream err = process.getErrorStream();
-
-            // Send error output to stderr.
-            Thread errThread = new Thread() {
-                @Override
-                public void run() {
-                    copy(err, System.err);
-                }
-            };
-            errThread.setDaemon(true);
-            errThread.start();
-
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()));
-
-            String line;
-            while ((line = in.readLine()) != null) {
-                if (!line.startsWith("Row: ")) {
-                    throw new IOException("Unable to read settings");
-                }
-                if (MigrationTest.DEBUG) {
-                    System.out.println("LINE: " + line);
-                }
-                Setting setting = RowParser.parseAndPopulate(true, line);
-                if (filter(uri, setting)) {
-                    continue;
-                }
-                arrayList.add(setting);
-            }
+            final Process process = start(commands);
+            // Rows are parsed as they arrive, the output is never held as a whole
+            Reader in = new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8);
+            RowParser.parse(true, in, filtered(uri, arrayList));
             in.close();
-            err.close();
             process.destroy();
         } catch (IOException e) {
             System.err.println("Error ");
             e.printStackTrace();
         }
     }
+
+    /**
+     * Fetches the table with a single LIST_* call, this keeps values containing ',' or '='
+     * intact. Returns false if the provider did not return a packed list.
+     */
+    private boolean queryPacked(String uri, ArrayList<Setting> arrayList) {
+        String[] commands = getPackedCommand(uri).toArray(new String[0]);
+        if (MigrationTest.DEBUG) {
+            System.out.println("Using commands: " + Arrays.toString(commands));
+        }
+
+        try {
+            // Values may span lines, so the output is parsed as a whole
+            return parsePacked(exec(commands, null), uri, arrayList);
+        } catch (IOException e) {
+            System.err.println("Error ");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private boolean parsePacked(String output, String uri, ArrayList<Setting> arrayList)
+            throws IOException {
+        String key = SettingsConstants.CALL_METHOD_LIST_PACKED_KEY + "=";
+        int start = output.indexOf(key);
+        if (start < 0) {
+            if (MigrationTest.DEBUG) {
+                System.out.println("No packed list, falling back to query: " + output);
+            }
+            return false;
+        }
+        for (Setting setting : PackedList.parse(output, start + key.length())) {
+            if (filter(uri, setting)) {
+                continue;
+            }
+            arrayList.add(setting);
+        }
+        return true;
+    }
 }
@@ -44,33 +44,49 @@ public class ReadCommand extends Command {
         }
     }
 
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
     private void read(String fileName, String uri, ArrayList<Setting> arrayList) {
         try {
             BufferedReader in = new BufferedReader(
                     new FileReader(fileName));
-            String line;
-            //Skip first two lines of header
-            for (int i = 0; i < 2; i++) {
-                in.readLine();
-            }
-            while ((line = in.readLine()) != null) {
-                if (!line.startsWith("Row: ")) {
-                    throw new IOException("Unable to read settings");
-                }
-                if (MigrationTest.DEBUG) {
-                    System.out.println("LINE: " + line);
-                }
-                Setting setting = RowParser.parseAndPopulate(false, line);
-                //Sanitize
-                if (filter(uri, setting)) {
-                    continue;
-                }
-                arrayList.add(setting);
+            String line = in.readLine();
+            if (PackedList.FILE_HEADER.equals(line)) {
+                readPacked(in, uri, arrayList);
+                in.close();
+                return;
             }
+            //Skip second line of header
+            in.readLine();
+            //Sanitize
+            RowParser.parse(false, in, filtered(uri, arrayList));
             in.close();
         } catch (IOException e) {
             System.err.println("Error ");
             e.printStackTrace();
         }
     }
+
+    private void readPacked(BufferedReader in, String uri, ArrayList<Setting> arrayList)
+            throws IOException {
+        StringBuilder packed = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = in.read(buffer)) > -1) {
+            packed.append(buffer, 0, read);
+        }
+        for (Setting setting : PackedList.parse(packed.toString(), 0)) {
+            if (MigrationTest.DEBUG) {
+                System.out.println("SETTING: " + setting.getKey() + "=" + setting.getValue());
+            }
+            //Sanitize
+            if (filter(uri, setting)) {
+                continue;
+            }
+            arrayList.add(setting);
+        }
+    }
 }
@@ -1,50 +1,186 @@
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.Consumer;
 
 /**
  * Created by adnan on 11/17/15.
+ *
+ * Parses the rows printed by content query, and the settings files written in the same
+ * format, as they are read:
+ * Row: [n] name=[key], type=[type], value=[value], type=[type]
+ *
+ * The key ends at the first ", type=" and the value at the last one, so values may contain
+ * ", " and, in content query output, span lines. Settings files escape '\', ',' and newlines
+ * with a '\', see {@link #escape(String)}.
  */
 public class RowParser {
-    private static final String REGEX = "=(.+)";
-    private static Pattern p = Pattern.compile(REGEX);
+    private static final String ROW_PREFIX = "Row: ";
+    private static final String NAME_FIELD = " name=";
+    private static final String TYPE_FIELD = ", type=";
+    private static final String VALUE_FIELD = ", value=";
+    private static final char ESCAPE = '\\';
 
-    public static Setting parseAndPopulate(boolean fromCursor, String line) {
-        Setting setting = new Setting();
-        String[] splitStrings = line.split(",");
-        for (int i = 0; i < 4; i++) {
-            Matcher matcher = p.matcher(splitStrings[i]);
-            while (matcher.find()) {
-                String value = matcher.group(0).replace("=", "").trim();
-                switch (i) {
-                    case 0:
-                        setting.setKey(value);
-                        break;
-                    case 1:
-                        //Seriously?
-                        if (fromCursor) {
-                            setting.setKeyType(
-                                    Setting.SettingType.mapNumericToType(
-                                            Integer.parseInt(value)));
-                        } else {
-                            setting.setKeyType(value);
-                        }
-                        break;
-                    case 2:
-                        setting.setValue(value);
-                        break;
-                    case 3:
-                        //Who the fuck decided to do this?
-                        if (fromCursor) {
-                            setting.setValueType(
-                                    Setting.SettingType.mapNumericToType(
-                                            Integer.parseInt(value)));
-                        } else {
-                            setting.setValueType(value);
-                        }
-                        break;
+    private RowParser() {
+    }
+
+    /**
+     * Parses rows until the end of the input, handing each one to the consumer once it is
+     * complete. Lines starting with '#' before the first row are skipped.
+     * @param fromCursor Whether the input is content query output, with numeric types and
+     *     unescaped values, or a settings file.
+     * @return The number of rows parsed.
+     */
+    public static int parse(boolean fromCursor, Reader in, Consumer<Setting> consumer)
+            throws IOException {
+        BufferedReader reader = in instanceof BufferedReader
+                ? (BufferedReader) in : new BufferedReader(in);
+        // The row being read, only copied into the builder if it spans lines
+        String row = null;
+        StringBuilder rowLines = new StringBuilder();
+        int rows = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(ROW_PREFIX)) {
+                if (row != null) {
+                    consumer.accept(parseRow(fromCursor, row, rowLines));
+                    rows++;
                 }
+                row = line;
+            } else if (row != null && fromCursor) {
+                // A value holding a newline
+                if (rowLines.length() == 0) {
+                    rowLines.append(row);
+                }
+                rowLines.append('\n').append(line);
+            } else if (row == null && (line.startsWith("#") || line.isEmpty())) {
+                continue;
+            } else {
+                throw new IOException("Unable to read settings: " + line);
+            }
+        }
+        if (row != null) {
+            consumer.accept(parseRow(fromCursor, row, rowLines));
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * Escapes a key or value for a settings file.
+     */
+    public static String escape(String s) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String replacement;
+            switch (c) {
+                case ESCAPE:
+                    replacement = "\\\\";
+                    break;
+                case ',':
+                    replacement = "\\,";
+                    break;
+                case '\n':
+                    replacement = "\\n";
+                    break;
+                case '\r':
+                    replacement = "\\r";
+                    break;
+                default:
+                    if (escaped != null) {
+                        escaped.append(c);
+                    }
+                    continue;
             }
+            if (escaped == null) {
+                escaped = new StringBuilder(s.length() + 8).append(s, 0, i);
+            }
+            escaped.append(replacement);
+        }
+        return escaped != null ? escaped.toString() : s;
+    }
+
+    private static Setting parseRow(boolean fromCursor, String row, StringBuilder rowLines)
+            throws IOException {
+        String line = row;
+        if (rowLines.length() > 0) {
+            line = rowLines.toString();
+            rowLines.setLength(0);
+        }
+        boolean escaped = !fromCursor;
+        int name = line.indexOf(NAME_FIELD, ROW_PREFIX.length());
+        int keyType = name < 0 ? -1 : indexOf(line, TYPE_FIELD, name, escaped);
+        int value = keyType < 0 ? -1 : indexOf(line, VALUE_FIELD, keyType, escaped);
+        int valueType = value < 0 ? -1 : lastIndexOf(line, TYPE_FIELD, escaped);
+        if (value < 0 || valueType < value) {
+            throw new IOException("Unable to read settings: " + line);
         }
+
+        Setting setting = new Setting();
+        setting.setKey(field(line, name + NAME_FIELD.length(), keyType, escaped).trim());
+        setting.setKeyType(type(fromCursor,
+                line.substring(keyType + TYPE_FIELD.length(), value).trim()));
+        setting.setValue(field(line, value + VALUE_FIELD.length(), valueType, escaped));
+        setting.setValueType(type(fromCursor,
+                line.substring(valueType + TYPE_FIELD.length()).trim()));
         return setting;
     }
+
+    private static String type(boolean fromCursor, String type) throws IOException {
+        if (!fromCursor) {
+            return type;
+        }
+        //Seriously?
+        try {
+            return Setting.SettingType.mapNumericToType(Integer.parseInt(type));
+        } catch (NumberFormatException e) {
+            throw new IOException("Unable to read setting type: " + type, e);
+        }
+    }
+
+    private static String field(String line, int start, int end, boolean escaped) {
+        if (!escaped || line.indexOf(ESCAPE, start) < 0) {
+            return line.substring(start, end);
+        }
+        StringBuilder field = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c == ESCAPE && i + 1 < end) {
+                c = line.charAt(++i);
+                if (c == 'n') {
+                    c = '\n';
+                } else if (c == 'r') {
+                    c = '\r';
+                }
+            }
+            field.append(c);
+        }
+        return field.toString();
+    }
+
+    private static int indexOf(String line, String delimiter, int from, boolean escaped) {
+        int index = line.indexOf(delimiter, from);
+        while (index >= 0 && escaped && isEscaped(line, index)) {
+            index = line.indexOf(delimiter, index + 1);
+        }
+        return index;
+    }
+
+    private static int lastIndexOf(String line, String delimiter, boolean escaped) {
+        int index = line.lastIndexOf(delimiter);
+        while (index > 0 && escaped && isEscaped(line, index)) {
+            index = line.lastIndexOf(delimiter, index - 1);
+        }
+        return index;
+    }
+
+    // Whether the character at the index follows an odd number of escapes
+    private static boolean isEscaped(String line, int index) {
+        int escapes = 0;
+        while (index - escapes > 0 && line.charAt(index - escapes - 1) == ESCAPE) {
+            escapes++;
+        }
+        return (escapes & 1) == 1;
+    }
 }
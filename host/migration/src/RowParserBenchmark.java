@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Measures {@link RowParser} on recorded content query output, for example:
+ * adb shell content query --uri content://settings/secure --projection name:value
+ * --show-type true > secure.txt
+ *
+ * Each recording is parsed as it is read from the file, and after reading it as a whole the
+ * way the output used to be handled. --generate writes a large recording with values holding
+ * ", " and newlines, for when no device with many settings is at hand.
+ */
+class RowParserBenchmark {
+    private static final String ARGUMENT_GENERATE = "--generate";
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int ITERATIONS = 20;
+
+    private static int sRows;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            showUsage();
+            System.exit(-1);
+        }
+        if (ARGUMENT_GENERATE.equals(args[0])) {
+            if (args.length != 3) {
+                showUsage();
+                System.exit(-1);
+            }
+            generate(Integer.parseInt(args[1]), args[2]);
+            return;
+        }
+
+        for (String fileName : args) {
+            run(fileName, "streaming", false);
+            run(fileName, "whole output", true);
+        }
+    }
+
+    private static void showUsage() {
+        System.err.println("Usage: RowParserBenchmark [recorded content query output...]");
+        System.err.println("       RowParserBenchmark --generate [rows] [output file]");
+    }
+
+    private static void run(String fileName, String name, boolean whole) throws IOException {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            parse(fileName, whole);
+        }
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parse(fileName, whole);
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = getAllocatedBytes() - allocated;
+
+        System.out.println(String.format("%s %s: %d rows, %.2f ms, %d KB allocated per parse",
+                fileName, name, sRows, elapsed / 1e6 / ITERATIONS,
+                allocated / 1024 / ITERATIONS));
+    }
+
+    private static void parse(String fileName, boolean whole) throws IOException {
+        Consumer<Setting> consumer = new Consumer<Setting>() {
+            @Override
+            public void accept(Setting setting) {
+                // Nothing, only the parsing is measured
+            }
+        };
+        try (Reader file = new InputStreamReader(new FileInputStream(fileName),
+                StandardCharsets.UTF_8)) {
+            Reader in = file;
+            if (whole) {
+                StringBuilder output = new StringBuilder();
+                char[] buffer = new char[8192];
+                int read;
+                while ((read = file.read(buffer)) > -1) {
+                    output.append(buffer, 0, read);
+                }
+                in = new StringReader(output.toString());
+            }
+            sRows = RowParser.parse(true, new BufferedReader(in), consumer);
+        }
+    }
+
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static void generate(int rows, String fileName) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(fileName), StandardCharsets.UTF_8))) {
+            for (int i = 0; i < rows; i++) {
+                String value;
+                switch (i % 4) {
+                    case 0:
+                        value = Integer.toString(i);
+                        break;
+                    case 1:
+                        value = "home|back|recent, type=" + i;
+                        break;
+                    case 2:
+                        value = "line one\nline two, " + i;
+                        break;
+                    default:
+                        value = "NULL";
+                        break;
+                }
+                out.write("Row: " + i + " name=generated_setting_" + i + ", type=3, value="
+                        + value + ", type=" + ("NULL".equals(value) ? 0 : 3) + "\n");
+            }
+        }
+        System.out.println("Recording written: " + fileName);
+    }
+}
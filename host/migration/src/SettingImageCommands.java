@@ -15,11 +15,20 @@
  */
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by adnan on 11/16/15.
  */
 public class SettingImageCommands implements CommandExecutor {
+    // Reads run at the same time, each in its own adb process
+    private static final int MAX_PARALLEL_READS = 4;
+
     private ArrayList<Command> commandHistory = new ArrayList<Command>();
     private String authority;
 
@@ -29,8 +38,87 @@ public class SettingImageCommands implements CommandExecutor {
 
     @Override
     public void execute() {
-        for (Command commandWithTimeout : commandHistory) {
-            commandWithTimeout.run();
+        // Consecutive commands of the same kind run as a group: writes in order, sharing an
+        // adb shell session, reads at the same time
+        int start = 0;
+        while (start < commandHistory.size()) {
+            boolean readOnly = commandHistory.get(start).isReadOnly();
+            int end = start + 1;
+            while (end < commandHistory.size()
+                    && commandHistory.get(end).isReadOnly() == readOnly) {
+                end++;
+            }
+            if (readOnly) {
+                executeReads(commandHistory.subList(start, end));
+            } else {
+                executeWrites(commandHistory.subList(start, end));
+            }
+            start = end;
+        }
+    }
+
+    private static void executeWrites(List<Command> commands) {
+        ArrayList<Command> session = new ArrayList<Command>();
+        for (Command command : commands) {
+            if (command.getShellCommand() != null) {
+                session.add(command);
+                continue;
+            }
+            runSession(session);
+            session = new ArrayList<Command>();
+            command.run();
+        }
+        runSession(session);
+    }
+
+    private static void executeReads(List<Command> commands) {
+        // Reads that can share a session are spread over a few, the rest run on their own
+        ArrayList<List<Command>> sessions = new ArrayList<List<Command>>(MAX_PARALLEL_READS);
+        ArrayList<Command> others = new ArrayList<Command>();
+        int shellCommands = 0;
+        for (Command command : commands) {
+            if (command.getShellCommand() == null) {
+                others.add(command);
+                continue;
+            }
+            if (sessions.size() < MAX_PARALLEL_READS) {
+                sessions.add(new ArrayList<Command>());
+            }
+            sessions.get(shellCommands++ % MAX_PARALLEL_READS).add(command);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(MAX_PARALLEL_READS);
+        ArrayList<Future<?>> results = new ArrayList<Future<?>>();
+        for (final List<Command> session : sessions) {
+            results.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    runSession(session);
+                }
+            }));
+        }
+        for (Command command : others) {
+            results.add(executor.submit(command));
+        }
+        executor.shutdown();
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                System.err.println("Error ");
+                e.getCause().printStackTrace();
+            }
+        }
+    }
+
+    private static void runSession(List<Command> session) {
+        if (session.size() == 1) {
+            session.get(0).run();
+        } else if (session.size() > 1) {
+            new AdbShellSession(session).run();
         }
     }
 
@@ -49,6 +137,24 @@ public class SettingImageCommands implements CommandExecutor {
         addCommand(insertCommand);
     }
 
+    /**
+     * Pulls several tables in one round trip, the lists are keyed by the uri of their table.
+     */
+    public void addSnapshotQuery(Map<String, ArrayList<Setting>> settings) {
+        SnapshotCommand snapshotCommand = new SnapshotCommand(SnapshotCommand.Types.PULL,
+                settings);
+        addCommand(snapshotCommand);
+    }
+
+    /**
+     * Writes several tables in one round trip, the lists are keyed by the uri of their table.
+     */
+    public void addSnapshotInsert(Map<String, ArrayList<Setting>> settings) {
+        SnapshotCommand snapshotCommand = new SnapshotCommand(SnapshotCommand.Types.PUSH,
+                settings);
+        addCommand(snapshotCommand);
+    }
+
     public void addRead(String fileName, String uri, ArrayList<Setting> settings) {
         ReadCommand readCommand = new ReadCommand(fileName, uri, settings);
         addCommand(readCommand);
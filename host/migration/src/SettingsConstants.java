@@ -26,4 +26,15 @@ public class SettingsConstants {
     public static final String SYSTEM = "/system";
     public static final String SECURE = "/secure";
     public static final String GLOBAL = "/global";
+
+    // See CALL_METHOD_LIST_* in ouvriros.providers.OuvrirSettings
+    public static final String CALL_METHOD_LIST_PREFIX = "LIST_";
+    public static final String CALL_METHOD_LIST_FORMAT_PACKED = "_list_format:i:2";
+    public static final String CALL_METHOD_LIST_PACKED_KEY = "_list_packed";
+
+    // See CALL_METHOD_*_SNAPSHOT in ouvriros.providers.OuvrirSettings
+    public static final String CALL_METHOD_EXPORT_SNAPSHOT = "EXPORT_SNAPSHOT";
+    public static final String CALL_METHOD_IMPORT_SNAPSHOT = "IMPORT_SNAPSHOT";
+    public static final String CALL_METHOD_SNAPSHOT_BASE64_KEY = "_snapshot_base64";
+    public static final String CALL_METHOD_SNAPSHOT_ROWS_KEY = "_snapshot_rows";
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compares expected settings with the ones found, table by table. Both sides are indexed by
+ * key, so the order of the lists doesn't matter and each comparison takes linear time.
+ *
+ * The differences are written one per line, tab separated, with tabs, newlines and '\'
+ * escaped by a '\', and a missing value written as \N so that it can't be taken for an empty
+ * one:
+ * [kind] [table] [key] [expected] [found]
+ */
+public class SettingsDiff {
+    public enum Kind {
+        /** Expected but not found. */
+        MISSING,
+        /** Found but not expected. */
+        EXTRA,
+        /** Found with another value. Expected empty values match any value. */
+        VALUE_MISMATCH,
+        /** Found with another key or value type, written as [key type]/[value type]. */
+        TYPE_MISMATCH,
+    }
+
+    public static class Entry {
+        public final Kind kind;
+        public final String table;
+        public final String key;
+        public final String expected;
+        public final String actual;
+
+        Entry(Kind kind, String table, String key, String expected, String actual) {
+            this.kind = kind;
+            this.table = table;
+            this.key = key;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        @Override
+        public String toString() {
+            return kind + "\t" + escape(table) + "\t" + escape(key) + "\t" + escape(expected)
+                    + "\t" + escape(actual);
+        }
+    }
+
+    // Can't result from escaping a value, as every '\' in one is doubled
+    private static final String NULL_VALUE = "\\N";
+
+    private final ArrayList<Entry> entries = new ArrayList<Entry>();
+    private final int[] counts = new int[Kind.values().length];
+    private int compared;
+    private int matched;
+
+    /**
+     * Compares one table, adding its differences to the ones of the tables compared before.
+     */
+    public void compare(String table, List<Setting> expected, List<Setting> actual) {
+        HashMap<String, Setting> found = new HashMap<String, Setting>(actual.size() * 2);
+        for (Setting setting : actual) {
+            found.put(setting.getKey(), setting);
+        }
+
+        for (Setting setting : expected) {
+            compared++;
+            Setting other = found.remove(setting.getKey());
+            if (other == null) {
+                add(Kind.MISSING, table, setting.getKey(), setting.getValue(), null);
+                continue;
+            }
+            boolean match = true;
+            if (setting.getValue().length() > 0
+                    && !setting.getValue().equals(other.getValue())) {
+                add(Kind.VALUE_MISMATCH, table, setting.getKey(), setting.getValue(),
+                        other.getValue());
+                match = false;
+            }
+            if (!setting.getKeyType().equals(other.getKeyType())
+                    || !setting.getValueType().equals(other.getValueType())) {
+                add(Kind.TYPE_MISMATCH, table, setting.getKey(),
+                        setting.getKeyType() + "/" + setting.getValueType(),
+                        other.getKeyType() + "/" + other.getValueType());
+                match = false;
+            }
+            if (match) {
+                matched++;
+            }
+        }
+
+        // Whatever is left wasn't expected, sorted to keep the output stable
+        ArrayList<String> extra = new ArrayList<String>(found.keySet());
+        Collections.sort(extra);
+        for (String key : extra) {
+            add(Kind.EXTRA, table, key, null, found.get(key).getValue());
+        }
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Writes the differences, one per line.
+     */
+    public void write(Writer out) throws IOException {
+        for (Entry entry : entries) {
+            out.write(entry.toString());
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns a one line summary, as space separated name=count pairs.
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder()
+                .append("compared=").append(compared)
+                .append(" matched=").append(matched);
+        for (Kind kind : Kind.values()) {
+            summary.append(' ').append(kind.name().toLowerCase()).append('=')
+                    .append(counts[kind.ordinal()]);
+        }
+        return summary.toString();
+    }
+
+    private void add(Kind kind, String table, String key, String expected, String actual) {
+        entries.add(new Entry(kind, table, key, expected, actual));
+        counts[kind.ordinal()]++;
+    }
+
+    private static String escape(String s) {
+        if (s == null) {
+            return NULL_VALUE;
+        }
+        StringBuilder escaped = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                default:
+                    escaped.append(c);
+                    break;
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the binary settings snapshots of the EXPORT_SNAPSHOT and IMPORT_SNAPSHOT
+ * call() methods of the OuvrirSettings provider, see SettingsSnapshot in the provider for the
+ * format. Tables are keyed by their uri, e.g. {@link SettingsConstants#SYSTEM}.
+ */
+public class SettingsSnapshot {
+    private static final int MAGIC = 0x4f534e50;
+    private static final int FORMAT_VERSION = 1;
+
+    // What content query prints for a null column, kept so settings compare the same
+    private static final String NULL_VALUE = "NULL";
+
+    public static byte[] write(Map<String, ? extends List<Setting>> tables) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(tables.size());
+            for (Map.Entry<String, ? extends List<Setting>> table : tables.entrySet()) {
+                writeString(out, table.getKey().substring(1));
+                out.writeInt(table.getValue().size());
+                for (Setting setting : table.getValue()) {
+                    writeString(out, setting.getKey());
+                    writeString(out, NULL_VALUE.equals(setting.getValue())
+                            ? null : setting.getValue());
+                }
+            }
+            out.flush();
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Can't happen writing to memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static LinkedHashMap<String, ArrayList<Setting>> read(byte[] snapshot)
+            throws IOException {
+        if (snapshot.length < 20) {
+            throw new IOException("Snapshot too short");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(snapshot, 0, snapshot.length - 8);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a settings snapshot");
+        }
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+
+        int tableCount = in.readInt();
+        LinkedHashMap<String, ArrayList<Setting>> tables =
+                new LinkedHashMap<String, ArrayList<Setting>>();
+        for (int i = 0; i < tableCount; i++) {
+            String table = "/" + readString(in);
+            int rows = in.readInt();
+            if (rows < 0 || rows > in.available() / 8) {
+                throw new IOException("Bad row count " + rows + " for " + table);
+            }
+            ArrayList<Setting> settings = new ArrayList<Setting>(rows);
+            for (int j = 0; j < rows; j++) {
+                String key = readString(in);
+                String value = readString(in);
+                Setting setting = new Setting();
+                setting.setKey(key);
+                setting.setKeyType(Setting.SettingType.mapNumericToType(
+                        Setting.SettingType.FIELD_TYPE_STRING));
+                setting.setValue(value != null ? value : NULL_VALUE);
+                setting.setValueType(Setting.SettingType.mapNumericToType(value != null
+                        ? Setting.SettingType.FIELD_TYPE_STRING
+                        : Setting.SettingType.FIELD_TYPE_NULL));
+                settings.add(setting);
+            }
+            tables.put(table, settings);
+        }
+        if (in.readLong() != crc.getValue() || in.available() != 0) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+        return tables;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IOException("Truncated snapshot");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves whole settings tables of the OuvrirSettings provider in a single adb round trip.
+ *
+ * Pulling is essentially:
+ * adb shell content call --uri content://ouvrirsettings --method EXPORT_SNAPSHOT
+ * --extra _snapshot_base64:b:true
+ *
+ * Pushing is essentially:
+ * adb shell content call --uri content://ouvrirsettings --method IMPORT_SNAPSHOT
+ * --extra _snapshot_base64:s:[snapshot]
+ */
+public class SnapshotCommand extends Command {
+    private static final String[] CALL_SETTINGS = {
+            ADB, "shell", "content", "call", "--uri" };
+
+    private final int command;
+    private final Map<String, ArrayList<Setting>> tables;
+    private byte[] snapshot;
+    private boolean succeeded;
+
+    /**
+     * @param command One of {@link Types}.
+     * @param tables The lists to pull each table into, or the tables to push, keyed by uri.
+     */
+    public SnapshotCommand(int command, Map<String, ArrayList<Setting>> tables) {
+        switch (command) {
+            case Types.PULL:
+            case Types.PUSH:
+                break;
+            default:
+                throw new UnsupportedOperationException("Unsupported operation " + command);
+        }
+        this.command = command;
+        this.tables = tables;
+    }
+
+    @Override
+    public void run() {
+        if (command == Types.PULL) {
+            System.out.println("\nPulling snapshot of " + tables.keySet()
+                    + " for authority " + getAuthority() + "...");
+            succeeded = pull();
+            if (!succeeded) {
+                // Older providers don't export snapshots, query table by table
+                for (Map.Entry<String, ArrayList<Setting>> table : tables.entrySet()) {
+                    QueryCommand queryCommand =
+                            new QueryCommand(table.getKey(), table.getValue());
+                    queryCommand.prepend(getAuthority());
+                    queryCommand.run();
+                }
+            }
+        } else {
+            System.out.println("\nPushing snapshot of " + tables.keySet()
+                    + " for authority " + getAuthority() + "...");
+            succeeded = push();
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return command == Types.PULL;
+    }
+
+    /**
+     * Returns whether the snapshot was moved in one round trip.
+     */
+    public boolean succeeded() {
+        return succeeded;
+    }
+
+    /**
+     * Returns the snapshot as it was pulled, or null.
+     */
+    public byte[] getSnapshot() {
+        return snapshot;
+    }
+
+    private boolean pull() {
+        // A single table is exported on its own, anything else as all tables
+        String request = tables.size() == 1 ? tables.keySet().iterator().next().substring(1)
+                : null;
+        String output = call(SettingsConstants.CALL_METHOD_EXPORT_SNAPSHOT, request,
+                SettingsConstants.CALL_METHOD_SNAPSHOT_BASE64_KEY + ":b:true");
+        String encoded = getResult(output, SettingsConstants.CALL_METHOD_SNAPSHOT_BASE64_KEY);
+        if (encoded == null) {
+            if (MigrationTest.DEBUG) {
+                System.out.println("No snapshot, falling back to query: " + output);
+            }
+            return false;
+        }
+
+        try {
+            snapshot = Base64.getDecoder().decode(encoded);
+            Map<String, ArrayList<Setting>> pulled = SettingsSnapshot.read(snapshot);
+            for (Map.Entry<String, ArrayList<Setting>> table : tables.entrySet()) {
+                ArrayList<Setting> settings = pulled.get(table.getKey());
+                if (settings == null) {
+                    continue;
+                }
+                for (Setting setting : settings) {
+                    if (filter(table.getKey(), setting)) {
+                        continue;
+                    }
+                    table.getValue().add(setting);
+                }
+            }
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error ");
+            e.printStackTrace();
+            snapshot = null;
+            return false;
+        }
+    }
+
+    private boolean push() {
+        String encoded = Base64.getEncoder().encodeToString(SettingsSnapshot.write(tables));
+        String output = call(SettingsConstants.CALL_METHOD_IMPORT_SNAPSHOT, null,
+                SettingsConstants.CALL_METHOD_SNAPSHOT_BASE64_KEY + ":s:" + encoded);
+        String rows = getResult(output, SettingsConstants.CALL_METHOD_SNAPSHOT_ROWS_KEY);
+        if (rows == null) {
+            System.err.println("Snapshot not imported: " + output);
+            return false;
+        }
+        System.out.println("Imported " + rows + " settings");
+        return true;
+    }
+
+    /**
+     * Runs content call and returns everything it printed.
+     */
+    private String call(String method, String request, String extra) {
+        List<String> commandList = new ArrayList<String>(Arrays.asList(CALL_SETTINGS));
+        commandList.add(SettingsConstants.CONTENT_URI + getAuthority());
+        commandList.add("--method");
+        commandList.add(method);
+        if (request != null) {
+            commandList.add("--arg");
+            commandList.add(request);
+        }
+        commandList.add("--extra");
+        commandList.add(extra);
+        String[] commands = commandList.toArray(new String[0]);
+        if (MigrationTest.DEBUG) {
+            System.out.println("Using commands: " + method + " " + request);
+        }
+
+        try {
+            return exec(commands, null);
+        } catch (IOException e) {
+            System.err.println("Error ");
+            e.printStackTrace();
+            return "";
+        }
+    }
+
+    /**
+     * Returns the value of a key in a printed Bundle, the values looked up here never
+     * contain ',' or '}'.
+     */
+    private static String getResult(String output, String key) {
+        int start = output.indexOf(key + "=");
+        if (start < 0) {
+            return null;
+        }
+        start += key.length() + 1;
+        int end = start;
+        while (end < output.length() && ",} \n".indexOf(output.charAt(end)) < 0) {
+            end++;
+        }
+        return output.substring(start, end);
+    }
+
+    public final class Types {
+        public static final int PULL = 0;
+        public static final int PUSH = 1;
+    }
+}
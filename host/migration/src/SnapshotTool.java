@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Saves the OuvrirSettings tables of a device to a snapshot file, or writes one back.
+ */
+class SnapshotTool {
+    private static final String ACTION_PULL = "pull";
+    private static final String ACTION_PUSH = "push";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            showUsage();
+            System.exit(-1);
+        }
+
+        SettingImageCommands commands =
+                new SettingImageCommands(SettingsConstants.OUVRIRSETTINGS_AUTHORITY);
+        if (ACTION_PULL.equals(args[0])) {
+            Map<String, ArrayList<Setting>> tables = new LinkedHashMap<String, ArrayList<Setting>>();
+            if (args.length > 2) {
+                tables.put(args[2], new ArrayList<Setting>());
+            } else {
+                tables.put(SettingsConstants.SYSTEM, new ArrayList<Setting>());
+                tables.put(SettingsConstants.SECURE, new ArrayList<Setting>());
+                tables.put(SettingsConstants.GLOBAL, new ArrayList<Setting>());
+            }
+            commands.addSnapshotQuery(tables);
+            commands.execute();
+            // Written from the lists, which also works when the tables had to be queried
+            Files.write(Paths.get(args[1]), SettingsSnapshot.write(tables));
+            for (Map.Entry<String, ArrayList<Setting>> table : tables.entrySet()) {
+                System.out.println(table.getKey() + ": " + table.getValue().size() + " settings");
+            }
+        } else if (ACTION_PUSH.equals(args[0])) {
+            commands.addSnapshotInsert(
+                    SettingsSnapshot.read(Files.readAllBytes(Paths.get(args[1]))));
+            commands.execute();
+        } else {
+            showUsage();
+            System.exit(-1);
+        }
+        System.exit(0);
+    }
+
+    private static void showUsage() {
+        System.err.println("Usage: SnapshotTool pull [snapshot file] [/system|/secure|/global]");
+        System.err.println("       SnapshotTool push [snapshot file]");
+    }
+}
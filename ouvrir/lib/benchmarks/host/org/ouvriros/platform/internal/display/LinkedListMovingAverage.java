@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ouvriros.platform.internal.display;
+
+import java.util.LinkedList;
+
+/**
+ * The LinkedList based moving average AmbientLuxObserver used before
+ * {@link TimedMovingAverageRingBuffer}, kept as a baseline. Timestamps are
+ * passed in instead of read from System.currentTimeMillis() so both see the
+ * same streams.
+ */
+final class LinkedListMovingAverage {
+
+    private final LinkedList<Sample> mRing = new LinkedList<Sample>();
+
+    private final int mPeriod;
+
+    private float mTotal = 0.0f;
+
+    private static class Sample {
+        public final long mTimestamp;
+        public final float mValue;
+        public Sample (long timestamp, float value) {
+            mTimestamp = timestamp;
+            mValue = value;
+        }
+    }
+
+    LinkedListMovingAverage(int period) {
+        mPeriod = period;
+    }
+
+    synchronized void add(long now, float sample) {
+        expire(now);
+        if (sample == 0.0f && mRing.size() == 0) {
+            return;
+        }
+        mRing.offer(new Sample(now, sample));
+        mTotal += sample;
+    }
+
+    synchronized float getAverage(long now) {
+        expire(now);
+        return mRing.size() == 0 ? 0.0f : (mTotal / mRing.size());
+    }
+
+    private void expire(long now) {
+        while (mRing.size() > 1 &&
+                ((now - mRing.peek().mTimestamp) > mPeriod)) {
+            mTotal -= mRing.pop().mValue;
+        }
+    }
+}
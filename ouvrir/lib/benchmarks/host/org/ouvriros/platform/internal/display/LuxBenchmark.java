@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ouvriros.platform.internal.display;
+
+import org.ouvriros.ouvrirsettings.benchmarks.BenchmarkResult;
+import org.ouvriros.ouvrirsettings.benchmarks.BenchmarkRunner;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Feeds synthetic light sensor streams through the moving average of
+ * AmbientLuxObserver, one add and average per sample like the sensor path.
+ * Each stream also runs through {@link LinkedListMovingAverage}, boxing the
+ * sample the way the old sensor path posted it in a Message.
+ *
+ * Usage: ouvrir-livedisplay-benchmark-host [iterations]
+ */
+public class LuxBenchmark {
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int DEFAULT_ITERATIONS = 500000;
+
+    // same window as OutdoorModeController
+    private static final int WINDOW_MS = 3000;
+    private static final int RING_CAPACITY = WINDOW_MS * 100 / 1000 + 1;
+
+    private static final BenchmarkRunner.AllocationCounter ALLOCATION_COUNTER;
+    static {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            ALLOCATION_COUNTER = new BenchmarkRunner.AllocationCounter() {
+                @Override
+                public void start() {
+                }
+
+                @Override
+                public long get() {
+                    return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                }
+
+                @Override
+                public void stop() {
+                }
+
+                @Override
+                public String unit() {
+                    return "bytes";
+                }
+            };
+        } else {
+            ALLOCATION_COUNTER = BenchmarkRunner.NO_ALLOCATION_COUNTER;
+        }
+    }
+
+    /**
+     * A synthetic sensor stream, generated up front so that feeding it doesn't allocate.
+     */
+    private static final class Stream {
+        final String mName;
+        final long[] mTimestamps;
+        final float[] mLux;
+
+        Stream(String name, int samples, int intervalMs) {
+            mName = name;
+            mTimestamps = new long[samples];
+            mLux = new float[samples];
+            for (int i = 0; i < samples; i++) {
+                mTimestamps[i] = (long) i * intervalMs;
+            }
+        }
+    }
+
+    private static Stream indoor(int samples, int intervalMs, Random random) {
+        final Stream stream = new Stream("indoor " + intervalMs + "ms", samples, intervalMs);
+        for (int i = 0; i < samples; i++) {
+            stream.mLux[i] = 300.0f + (float) random.nextGaussian() * 20.0f;
+        }
+        return stream;
+    }
+
+    private static Stream sunlight(int samples, int intervalMs, Random random) {
+        // alternating between shade and direct sunlight every 10 seconds
+        final Stream stream = new Stream("sunlight " + intervalMs + "ms", samples, intervalMs);
+        for (int i = 0; i < samples; i++) {
+            final boolean sun = (stream.mTimestamps[i] / 10000) % 2 == 1;
+            stream.mLux[i] = (sun ? 20000.0f : 2000.0f) *
+                    (1.0f + (float) random.nextGaussian() * 0.05f);
+        }
+        return stream;
+    }
+
+    private static Stream flicker(int samples, int intervalMs) {
+        // a PWM light source aliased by the sensor
+        final Stream stream = new Stream("flicker " + intervalMs + "ms", samples, intervalMs);
+        for (int i = 0; i < samples; i++) {
+            stream.mLux[i] = i % 3 == 0 ? 15000.0f : 500.0f;
+        }
+        return stream;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+        final BenchmarkRunner runner =
+                new BenchmarkRunner(WARMUP_ITERATIONS, iterations, ALLOCATION_COUNTER);
+        final int samples = runner.getTotalIterations();
+        final Random random = new Random(0);
+
+        final Stream[] streams = {
+                indoor(samples, 250, random),
+                indoor(samples, 10, random),
+                sunlight(samples, 10, random),
+                flicker(samples, 10),
+        };
+
+        final ArrayList<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+        for (Stream stream : streams) {
+            final long[] timestamps = stream.mTimestamps;
+            final float[] lux = stream.mLux;
+            final float[] averages = new float[2];
+
+            final TimedMovingAverageRingBuffer ring =
+                    new TimedMovingAverageRingBuffer(WINDOW_MS, RING_CAPACITY);
+            results.add(runner.run("ring " + stream.mName, i -> {
+                ring.add(timestamps[i], lux[i]);
+                averages[0] = ring.getAverage(timestamps[i]);
+            }));
+
+            final LinkedListMovingAverage list = new LinkedListMovingAverage(WINDOW_MS);
+            final Object[] message = new Object[1];
+            results.add(runner.run("list " + stream.mName, i -> {
+                message[0] = Float.valueOf(lux[i]);
+                list.add(timestamps[i], (Float) message[0]);
+                averages[1] = list.getAverage(timestamps[i]);
+            }));
+
+            // both keep the same window, so they should agree up to float rounding
+            if (Math.abs(averages[0] - averages[1]) > Math.abs(averages[1]) * 1e-3f) {
+                throw new IllegalStateException(stream.mName + ": ring average " + averages[0] +
+                        " differs from list average " + averages[1]);
+            }
+        }
+
+        for (BenchmarkResult result : results) {
+            System.out.println(result);
+        }
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ouvriros.platform.internal.display;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Replays light sensor traces through each {@link LuxFilter} and the
+ * threshold and hysteresis of AmbientLuxObserver, including its recheck when
+ * the sensor settles, and reports how quickly outdoor mode follows real
+ * changes and how often it switches when it shouldn't.
+ *
+ * Traces are CSV files of "timestamp_ms,lux[,expected_state]" lines, where
+ * expected_state is 1 for outdoor and 0 otherwise. Lines starting with '#'
+ * are ignored. Without expected states only transitions and flaps, i.e.
+ * transitions reverted within {@link #FLAP_MS}, are reported. Without any
+ * trace, a set of synthetic scenarios is replayed.
+ *
+ * Usage: ouvrir-livedisplay-lux-replay [--threshold=lux] [--hysteresis=lux]
+ *        [--window=ms] [trace.csv ...]
+ */
+public class LuxReplay {
+    // defaults of config_outdoorAmbientLux, config_outdoorAmbientLuxHysteresis
+    // and the window of OutdoorModeController
+    private static final int DEFAULT_THRESHOLD = 12000;
+    private static final int DEFAULT_HYSTERESIS = 1500;
+    private static final int DEFAULT_WINDOW_MS = 3000;
+
+    // same as AmbientLuxObserver
+    private static final int MAX_SENSOR_RATE_HZ = 100;
+
+    private static final long FLAP_MS = 10000;
+
+    private static final int LOW = 0;
+    private static final int HIGH = 1;
+    private static final int UNKNOWN = -1;
+
+    private static final String[] FILTERS = { "mean", "ema", "median", "debounce" };
+    private static final int[] FILTER_TYPES = {
+            LuxFilter.MEAN, LuxFilter.EMA, LuxFilter.MEDIAN, LuxFilter.DEBOUNCE };
+
+    private static final class Trace {
+        final String mName;
+        final long[] mTimestamps;
+        final float[] mLux;
+        // UNKNOWN if the trace isn't labelled
+        final int[] mExpected;
+
+        Trace(String name, long[] timestamps, float[] lux, int[] expected) {
+            mName = name;
+            mTimestamps = timestamps;
+            mLux = lux;
+            mExpected = expected;
+        }
+
+        boolean isLabelled() {
+            return mExpected.length > 0 && mExpected[0] != UNKNOWN;
+        }
+    }
+
+    private static final class Result {
+        int mTransitions;
+        int mExpectedTransitions;
+        int mMissed;
+        int mFalseTransitions;
+        int mFlaps;
+        long mTotalLatency;
+        long mMaxLatency;
+        int mReactions;
+
+        void add(Result other) {
+            mTransitions += other.mTransitions;
+            mExpectedTransitions += other.mExpectedTransitions;
+            mMissed += other.mMissed;
+            mFalseTransitions += other.mFalseTransitions;
+            mFlaps += other.mFlaps;
+            mTotalLatency += other.mTotalLatency;
+            mMaxLatency = Math.max(mMaxLatency, other.mMaxLatency);
+            mReactions += other.mReactions;
+        }
+    }
+
+    private final float mThreshold;
+    private final float mHysteresis;
+    private final int mWindow;
+
+    private LuxReplay(float threshold, float hysteresis, int window) {
+        mThreshold = threshold;
+        mHysteresis = hysteresis;
+        mWindow = window;
+    }
+
+    private int nextState(int state, float lux) {
+        final float threshold = state == HIGH ? mThreshold - mHysteresis : mThreshold;
+        return lux >= threshold ? HIGH : LOW;
+    }
+
+    /**
+     * Expected states of a trace without sensor noise: the threshold and
+     * hysteresis applied to the underlying light level without any delay.
+     */
+    private int[] idealStates(float[] level) {
+        final int[] states = new int[level.length];
+        int state = LOW;
+        for (int i = 0; i < level.length; i++) {
+            state = nextState(state, level[i]);
+            states[i] = state;
+        }
+        return states;
+    }
+
+    private Result replay(Trace trace, LuxFilter filter) {
+        final long[] timestamps = trace.mTimestamps;
+        final float[] lux = trace.mLux;
+        final ArrayList<long[]> transitions = new ArrayList<long[]>();
+
+        int state = LOW;
+        long recheckAt = -1;
+        // long enough for the last samples to expire from the window
+        final long end = timestamps.length == 0 ? 0 :
+                timestamps[timestamps.length - 1] + 2 * mWindow;
+        for (int i = 0; i <= timestamps.length; i++) {
+            final long next = i < timestamps.length ? timestamps[i] : end;
+            // MSG_TRANSITION, if the sensor settled before the next event
+            while (recheckAt >= 0 && recheckAt < next) {
+                final long now = recheckAt;
+                final int newState = nextState(state, filter.getLux(now));
+                if (newState != state) {
+                    state = newState;
+                    transitions.add(new long[] { now, state });
+                }
+                recheckAt = filter.isSettling() ? now + mWindow / 2 : -1;
+            }
+            if (i == timestamps.length) {
+                break;
+            }
+            filter.add(next, lux[i]);
+            final int newState = nextState(state, filter.getLux(next));
+            if (newState != state) {
+                state = newState;
+                transitions.add(new long[] { next, state });
+            }
+            recheckAt = filter.isSettling() ? next + mWindow / 2 : -1;
+        }
+
+        final Result result = new Result();
+        result.mTransitions = transitions.size();
+        for (int t = 0; t < transitions.size(); t++) {
+            if (t + 1 < transitions.size() &&
+                    transitions.get(t + 1)[0] - transitions.get(t)[0] <= FLAP_MS) {
+                result.mFlaps++;
+            }
+        }
+        if (!trace.isLabelled()) {
+            return result;
+        }
+
+        final int[] expected = trace.mExpected;
+        for (long[] transition : transitions) {
+            if (transition[1] != expectedAt(trace, transition[0])) {
+                result.mFalseTransitions++;
+            }
+        }
+        int previous = LOW;
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] == previous) {
+                continue;
+            }
+            previous = expected[i];
+            result.mExpectedTransitions++;
+            final long start = timestamps[i];
+            long until = end;
+            for (int j = i + 1; j < expected.length; j++) {
+                if (expected[j] != expected[i]) {
+                    until = timestamps[j];
+                    break;
+                }
+            }
+            // state when the change happened, then the first transition after it
+            long reaction = stateAt(transitions, start) == expected[i] ? start : -1;
+            for (int t = 0; reaction < 0 && t < transitions.size(); t++) {
+                final long[] transition = transitions.get(t);
+                if (transition[0] >= start && transition[0] < until &&
+                        transition[1] == expected[i]) {
+                    reaction = transition[0];
+                }
+            }
+            if (reaction < 0) {
+                result.mMissed++;
+            } else {
+                result.mReactions++;
+                result.mTotalLatency += reaction - start;
+                result.mMaxLatency = Math.max(result.mMaxLatency, reaction - start);
+            }
+        }
+        return result;
+    }
+
+    private static int expectedAt(Trace trace, long time) {
+        int state = LOW;
+        for (int i = 0; i < trace.mTimestamps.length && trace.mTimestamps[i] <= time; i++) {
+            state = trace.mExpected[i];
+        }
+        return state;
+    }
+
+    private static int stateAt(ArrayList<long[]> transitions, long time) {
+        int state = LOW;
+        for (long[] transition : transitions) {
+            if (transition[0] > time) {
+                break;
+            }
+            state = (int) transition[1];
+        }
+        return state;
+    }
+
+    private static Trace readTrace(String path) throws IOException {
+        final ArrayList<String[]> rows = new ArrayList<String[]>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                rows.add(line.split(","));
+            }
+        }
+
+        final long[] timestamps = new long[rows.size()];
+        final float[] lux = new float[rows.size()];
+        final int[] expected = new int[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            final String[] row = rows.get(i);
+            if (row.length < 2) {
+                throw new IOException(path + ":" + (i + 1) + ": expected timestamp_ms,lux");
+            }
+            timestamps[i] = Long.parseLong(row[0].trim());
+            lux[i] = Float.parseFloat(row[1].trim());
+            expected[i] = row.length > 2 ? Integer.parseInt(row[2].trim()) : UNKNOWN;
+            if (i > 0 && timestamps[i] < timestamps[i - 1]) {
+                throw new IOException(path + ":" + (i + 1) + ": timestamps go backwards");
+            }
+        }
+        return new Trace(path, timestamps, lux, expected);
+    }
+
+    /**
+     * Builds a synthetic trace sampled every intervalMs from segments of
+     * { duration ms, light level } pairs. The level is the expected ambient
+     * light, noise and interference are added on top of it.
+     */
+    private abstract class Scenario {
+        final String mName;
+        final int mInterval;
+        final int[][] mSegments;
+        final Random mRandom = new Random(0);
+
+        Scenario(String name, int intervalMs, int[][] segments) {
+            mName = name;
+            mInterval = intervalMs;
+            mSegments = segments;
+        }
+
+        abstract float sample(int index, long timestamp, float level);
+
+        Trace build() {
+            int duration = 0;
+            for (int[] segment : mSegments) {
+                duration += segment[0];
+            }
+            final int samples = duration / mInterval;
+            final long[] timestamps = new long[samples];
+            final float[] lux = new float[samples];
+            final float[] level = new float[samples];
+            int segment = 0;
+            long segmentEnd = mSegments[0][0];
+            for (int i = 0; i < samples; i++) {
+                timestamps[i] = (long) i * mInterval;
+                while (timestamps[i] >= segmentEnd) {
+                    segment++;
+                    segmentEnd += mSegments[segment][0];
+                }
+                level[i] = mSegments[segment][1];
+                lux[i] = Math.max(0.0f, sample(i, timestamps[i], level[i]));
+            }
+            return new Trace(mName, timestamps, lux, idealStates(level));
+        }
+    }
+
+    private Trace[] syntheticTraces() {
+        final int[][] steps = {
+                { 20000, 500 }, { 30000, 25000 }, { 30000, 3000 },
+                { 30000, 25000 }, { 20000, 500 } };
+        return new Trace[] {
+                // walking in and out of sunlight, 5% sensor noise
+                new Scenario("sunlight steps", 250, steps) {
+                    @Override
+                    float sample(int index, long timestamp, float level) {
+                        return level * (1.0f + (float) mRandom.nextGaussian() * 0.05f);
+                    }
+                }.build(),
+                // direct sunlight, with shadows of about half a second every few seconds
+                new Scenario("passing shadows", 100, new int[][] { { 120000, 25000 } }) {
+                    private long mShadowEnd;
+
+                    @Override
+                    float sample(int index, long timestamp, float level) {
+                        if (timestamp >= mShadowEnd + 2000 && mRandom.nextInt(20) == 0) {
+                            mShadowEnd = timestamp + 300 + mRandom.nextInt(500);
+                        }
+                        return timestamp < mShadowEnd ? 4000.0f : level;
+                    }
+                }.build(),
+                // a PWM light source aliased by the sensor, bright one sample in three
+                new Scenario("flicker 1:2", 100, new int[][] { { 60000, 5333 } }) {
+                    @Override
+                    float sample(int index, long timestamp, float level) {
+                        return index % 3 == 0 ? 15000.0f : 500.0f;
+                    }
+                }.build(),
+                // bright two samples in three, still below the threshold on average
+                new Scenario("flicker 2:1", 100, new int[][] { { 60000, 10166 } }) {
+                    @Override
+                    float sample(int index, long timestamp, float level) {
+                        return index % 3 != 2 ? 15000.0f : 500.0f;
+                    }
+                }.build(),
+                // overcast sky close to the threshold, 15% sensor noise
+                new Scenario("threshold noise", 250, new int[][] {
+                        { 60000, 11000 }, { 60000, 13500 }, { 60000, 11000 }, { 60000, 9500 } }) {
+                    @Override
+                    float sample(int index, long timestamp, float level) {
+                        return level * (1.0f + (float) mRandom.nextGaussian() * 0.15f);
+                    }
+                }.build(),
+                // a sensor reporting on change only, then settling
+                new Trace("sparse step",
+                        new long[] { 0, 10000, 20000, 60000, 61000, 100000 },
+                        new float[] { 500, 500, 25000, 25000, 500, 500 },
+                        idealStates(new float[] { 500, 500, 25000, 25000, 500, 500 })),
+        };
+    }
+
+    private void run(Trace[] traces) {
+        final Result[] totals = new Result[FILTERS.length];
+        for (int f = 0; f < FILTERS.length; f++) {
+            totals[f] = new Result();
+        }
+        final int capacity = mWindow * MAX_SENSOR_RATE_HZ / 1000 + 1;
+        System.out.println(String.format("threshold=%.0f hysteresis=%.0f window=%dms",
+                mThreshold, mHysteresis, mWindow));
+        for (Trace trace : traces) {
+            System.out.println();
+            System.out.println(trace.mName + " (" + trace.mTimestamps.length + " samples)");
+            for (int f = 0; f < FILTERS.length; f++) {
+                final Result result = replay(trace,
+                        LuxFilter.create(FILTER_TYPES[f], mWindow, capacity));
+                totals[f].add(result);
+                print(FILTERS[f], result, trace.isLabelled());
+            }
+        }
+        System.out.println();
+        System.out.println("total");
+        for (int f = 0; f < FILTERS.length; f++) {
+            print(FILTERS[f], totals[f], totals[f].mExpectedTransitions > 0);
+        }
+    }
+
+    private static void print(String filter, Result result, boolean labelled) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("  %-10s transitions=%-3d flaps=%-3d",
+                filter, result.mTransitions, result.mFlaps));
+        if (labelled) {
+            sb.append(String.format(" false=%-3d missed=%d/%-3d reaction mean=%dms max=%dms",
+                    result.mFalseTransitions, result.mMissed, result.mExpectedTransitions,
+                    result.mReactions == 0 ? 0 : result.mTotalLatency / result.mReactions,
+                    result.mMaxLatency));
+        }
+        System.out.println(sb.toString().replaceAll("\\s+$", ""));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threshold = DEFAULT_THRESHOLD;
+        int hysteresis = DEFAULT_HYSTERESIS;
+        int window = DEFAULT_WINDOW_MS;
+        final ArrayList<String> paths = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.startsWith("--threshold=")) {
+                threshold = Integer.parseInt(arg.substring("--threshold=".length()));
+            } else if (arg.startsWith("--hysteresis=")) {
+                hysteresis = Integer.parseInt(arg.substring("--hysteresis=".length()));
+            } else if (arg.startsWith("--window=")) {
+                window = Integer.parseInt(arg.substring("--window=".length()));
+            } else {
+                paths.add(arg);
+            }
+        }
+
+        final LuxReplay replay = new LuxReplay(threshold, hysteresis, window);
+        final Trace[] traces;
+        if (paths.isEmpty()) {
+            traces = replay.syntheticTraces();
+        } else {
+            traces = new Trace[paths.size()];
+            for (int i = 0; i < traces.length; i++) {
+                traces[i] = readTrace(paths.get(i));
+            }
+        }
+        replay.run(traces);
+    }
+}
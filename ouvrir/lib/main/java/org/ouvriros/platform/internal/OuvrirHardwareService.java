@@ -159,7 +159,8 @@ public class OuvrirHardwareService extends OuvrirSystemService {
 
         public boolean setDisplayColorCalibration(int[] rgb) {
             if (mAcceleratedTransform) {
-                mCurColors = rgb;
+                // the caller may reuse the array
+                System.arraycopy(rgb, 0, mCurColors, 0, 3);
                 mDTMService.setColorMatrix(LEVEL_COLOR_MATRIX_CALIB, rgbToMatrix(rgb));
                 return true;
             }
@@ -23,11 +23,10 @@ import android.hardware.SensorManager;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.PrintWriter;
-import java.util.Iterator;
-import java.util.LinkedList;
 
 public class AmbientLuxObserver {
 
@@ -46,6 +45,9 @@ public class AmbientLuxObserver {
 
     private float mAmbientLux = 0.0f;
 
+    // the filters hold a full window of samples up to this rate
+    private static final int MAX_SENSOR_RATE_HZ = 100;
+
     private static final int LOW = 0;
     private static final int HIGH = 1;
 
@@ -55,29 +57,34 @@ public class AmbientLuxObserver {
 
     private TransitionListener mCallback;
 
-    private final TimedMovingAverageRingBuffer mRingBuffer;
+    private final LuxFilter mFilter;
 
     public interface TransitionListener {
         public void onTransition(int state, float ambientLux);
     }
 
+    /**
+     * @param filter the type of LuxFilter smoothing the sensor, see config_outdoorLuxFilter
+     */
     public AmbientLuxObserver(Context context, Looper looper,
-            float thresholdLux, float hysteresisLux, int thresholdDuration) {
+            float thresholdLux, float hysteresisLux, int thresholdDuration, int filter) {
         mLuxHandler = new AmbientLuxHandler(looper);
         mThresholdLux = thresholdLux;
         mHysteresisLux = hysteresisLux;
         mThresholdDuration = thresholdDuration;
-        mRingBuffer = new TimedMovingAverageRingBuffer(thresholdDuration);
 
         mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
         mLightSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
         mLightSensorRate = context.getResources().getInteger(
                 com.android.internal.R.integer.config_autoBrightnessLightSensorRate);
+
+        // sensors may report faster than requested, leave room for that
+        mFilter = LuxFilter.create(filter, thresholdDuration,
+                thresholdDuration * MAX_SENSOR_RATE_HZ / 1000 + 1);
     }
 
     private class AmbientLuxHandler extends Handler {
 
-        private static final int MSG_UPDATE_LUX = 0;
         private static final int MSG_TRANSITION = 1;
 
         AmbientLuxHandler(Looper looper) {
@@ -86,43 +93,10 @@ public class AmbientLuxObserver {
 
         @Override
         public void handleMessage(Message msg) {
-            int direction = 0;
-            float lux = 0.0f;
-
-            synchronized (AmbientLuxObserver.this) {
-                switch (msg.what) {
-                    case MSG_UPDATE_LUX:
-                        lux = (Float) msg.obj;
-                        mRingBuffer.add(lux);
-
-                        // FALL THRU
-
-                    case MSG_TRANSITION:
-                        mAmbientLux = mRingBuffer.getAverage();
-
-                        if (DEBUG) {
-                            Log.d(TAG, "lux= " + lux + " mState=" + mState +
-                                       " mAmbientLux=" + mAmbientLux);
-                        }
-
-                        final float threshold = mState == HIGH
-                                ? mThresholdLux - mHysteresisLux : mThresholdLux;
-                        direction = mAmbientLux >= threshold ? HIGH : LOW;
-                        if (mState != direction) {
-                            mState = direction;
-                            if (mCallback != null) {
-                                mCallback.onTransition(mState, mAmbientLux);
-                            }
-                        }
-
-                        // check again in case we didn't get any
-                        // more readings because the sensor settled
-                        if (mRingBuffer.size() > 1) {
-                            removeMessages(MSG_TRANSITION);
-                            sendEmptyMessageDelayed(MSG_TRANSITION, mThresholdDuration / 2);
-                        }
-                        break;
-                }
+            switch (msg.what) {
+                case MSG_TRANSITION:
+                    updateAmbientLux(SystemClock.elapsedRealtime(), 0.0f);
+                    break;
             }
         }
 
@@ -131,12 +105,49 @@ public class AmbientLuxObserver {
         }
     };
 
+    /**
+     * Called on the looper of mLuxHandler, with the timestamp of the
+     * last sensor event or the current time if the sensor settled.
+     */
+    private synchronized void updateAmbientLux(long now, float lux) {
+        mAmbientLux = mFilter.getLux(now);
+
+        if (DEBUG) {
+            Log.d(TAG, "lux= " + lux + " mState=" + mState +
+                       " mAmbientLux=" + mAmbientLux);
+        }
+
+        final float threshold = mState == HIGH
+                ? mThresholdLux - mHysteresisLux : mThresholdLux;
+        final int direction = mAmbientLux >= threshold ? HIGH : LOW;
+        if (mState != direction) {
+            mState = direction;
+            if (mCallback != null) {
+                mCallback.onTransition(mState, mAmbientLux);
+            }
+        }
+
+        // check again in case we didn't get any
+        // more readings because the sensor settled
+        if (mFilter.isSettling()) {
+            mLuxHandler.removeMessages(AmbientLuxHandler.MSG_TRANSITION);
+            mLuxHandler.sendEmptyMessageDelayed(AmbientLuxHandler.MSG_TRANSITION,
+                    mThresholdDuration / 2);
+        }
+    }
+
     private final SensorEventListener mListener = new SensorEventListener() {
         @Override
         public void onSensorChanged(SensorEvent event) {
-            if (mLightSensorEnabled) {
-                Message.obtain(mLuxHandler, AmbientLuxHandler.MSG_UPDATE_LUX,
-                               event.values[0]).sendToTarget();
+            // delivered on the looper of mLuxHandler, see enableLightSensor()
+            synchronized (AmbientLuxObserver.this) {
+                if (mLightSensorEnabled) {
+                    // event timestamps are in the elapsedRealtimeNanos() time base
+                    final long now = event.timestamp / 1000000L;
+                    final float lux = event.values[0];
+                    mFilter.add(now, lux);
+                    updateAmbientLux(now, lux);
+                }
             }
         }
 
@@ -166,7 +177,7 @@ public class AmbientLuxObserver {
             mAmbientLux = 0.0f;
             mState = LOW;
             mLightSensorEnabled = false;
-            mRingBuffer.clear();
+            mFilter.clear();
         }
     }
 
@@ -176,84 +187,6 @@ public class AmbientLuxObserver {
         pw.println("    mLightSensorEnabled=" + mLightSensorEnabled);
         pw.println("    mState=" + mState);
         pw.println("    mAmbientLux=" + mAmbientLux);
-        pw.println("    mRingBuffer=" + mRingBuffer.toString());
-    }
-
-    /**
-     * Calculates a simple moving average based on a fixed
-     * duration sliding window. This is useful for dampening
-     * erratic sensors and rolling thru transitional periods
-     * smoothly.
-     */
-    private static class TimedMovingAverageRingBuffer {
-
-        private final LinkedList<Sample> mRing = new LinkedList<Sample>();
-
-        private final int mPeriod;
-
-        private float mTotal = 0.0f;
-
-        private static class Sample {
-            public final long mTimestamp;
-            public final float mValue;
-            public Sample (long timestamp, float value) {
-                mTimestamp = timestamp;
-                mValue = value;
-            }
-
-            @Override
-            public String toString() {
-                return "(" + mValue + ", " + mTimestamp + ")";
-            }
-        }
-
-        public TimedMovingAverageRingBuffer(int period) {
-            mPeriod = period;
-        }
-
-        public synchronized void add(float sample) {
-            expire();
-            if (sample == 0.0f && mRing.size() == 0) {
-                return;
-            }
-            mRing.offer(new Sample(System.currentTimeMillis(), sample));
-            mTotal += sample;
-        }
-
-        public synchronized int size() {
-            return mRing.size();
-        }
-
-        public synchronized float getAverage() {
-            expire();
-            return mRing.size() == 0 ? 0.0f : (mTotal / mRing.size());
-        }
-
-        public synchronized void clear() {
-            mRing.clear();
-            mTotal = 0.0f;
-        }
-
-        private void expire() {
-            long now = System.currentTimeMillis();
-            while (mRing.size() > 1 &&
-                    ((now - mRing.peek().mTimestamp) > mPeriod)) {
-                mTotal -= mRing.pop().mValue;
-            }
-        }
-
-        @Override
-        public synchronized String toString() {
-            expire();
-            StringBuilder sb = new StringBuilder();
-            for (Iterator<Sample> i = mRing.iterator(); i.hasNext();) {
-                if (sb.length() > 0) {
-                    sb.append(", ");
-                }
-                sb.append(i.next());
-            }
-            return "average=" + getAverage() + " length=" + mRing.size() +
-                   " mRing=[" + sb.toString() + "]";
-        }
+        pw.println("    mFilter=" + mFilter.toString());
     }
 }
@@ -16,11 +16,10 @@
  */
 package org.ouvriros.platform.internal.display;
 
-import android.animation.ValueAnimator;
-import android.animation.ValueAnimator.AnimatorUpdateListener;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.text.format.DateUtils;
 import android.util.MathUtils;
 import android.util.Range;
@@ -35,7 +34,7 @@ import java.util.BitSet;
 import ouvriros.hardware.OuvrirHardwareManager;
 import ouvriros.hardware.LiveDisplayManager;
 import ouvriros.providers.OuvrirSettings;
-import ouvriros.util.ColorUtils;
+import ouvriros.util.ColorTemperatureTable;
 
 import static ouvriros.hardware.LiveDisplayManager.MODE_AUTO;
 import static ouvriros.hardware.LiveDisplayManager.MODE_DAY;
@@ -51,6 +50,10 @@ public class ColorTemperatureController extends LiveDisplayFeature {
     private final Range<Integer> mColorBalanceRange;
     private final Range<Integer> mColorTemperatureRange;
     private final double[] mColorBalanceCurve;
+    private final ColorTemperatureTable mTemperatureTable;
+
+    // reused for the rgb values handed to the display hardware
+    private final float[] mTemperatureRGB = new float[3];
 
     private final int mDefaultDayTemperature;
     private final int mDefaultNightTemperature;
@@ -60,7 +63,16 @@ public class ColorTemperatureController extends LiveDisplayFeature {
     private int mNightTemperature;
 
     private AccelerateDecelerateInterpolator mInterpolator;
-    private ValueAnimator mAnimator;
+
+    // color balance transition, stepped on mHandler
+    private final long mMinBalanceStepInterval;
+    private boolean mBalanceAnimating;
+    private int mBalanceStart;
+    private int mBalanceTarget;
+    private int mBalanceValue;
+    private long mBalanceStartTime;
+    private long mBalanceDuration;
+    private long mBalanceStepInterval;
 
     private final OuvrirHardwareManager mHardware;
 
@@ -100,7 +112,18 @@ public class ColorTemperatureController extends LiveDisplayFeature {
                 mDefaultDayTemperature,
                 mColorTemperatureRange.getUpper());
 
+        mTemperatureTable = new ColorTemperatureTable(
+                mColorTemperatureRange.getLower(), mColorTemperatureRange.getUpper(),
+                mContext.getResources().getInteger(
+                        org.ouvriros.platform.internal.R.integer.config_colorTemperatureTableStep),
+                mUseColorBalance ? mColorBalanceCurve : null,
+                mColorBalanceRange.getLower(), mColorBalanceRange.getUpper());
+
         mInterpolator = new AccelerateDecelerateInterpolator();
+
+        final int maxRate = mContext.getResources().getInteger(
+                org.ouvriros.platform.internal.R.integer.config_displayColorTransitionMaxRate);
+        mMinBalanceStepInterval = maxRate > 0 ? 1000 / maxRate : 0;
     }
 
     @Override
@@ -134,9 +157,9 @@ public class ColorTemperatureController extends LiveDisplayFeature {
     }
 
     @Override
-    protected void onScreenStateChanged() {
-        if (mAnimator != null && mAnimator.isRunning() && !isScreenOn()) {
-            mAnimator.cancel();
+    protected synchronized void onScreenStateChanged() {
+        if (mBalanceAnimating && !isScreenOn()) {
+            cancelColorBalance();
         } else {
             updateColorTemperature();
         }
@@ -164,10 +187,13 @@ public class ColorTemperatureController extends LiveDisplayFeature {
         pw.println("ColorTemperatureController Configuration:");
         pw.println("  mDayTemperature=" + mDayTemperature);
         pw.println("  mNightTemperature=" + mNightTemperature);
+        pw.println("  mTemperatureTable=" + mTemperatureTable);
         pw.println();
         pw.println("  ColorTemperatureController State:");
         pw.println("    mColorTemperature=" + mColorTemperature);
         pw.println("    isTransitioning=" + isTransitioning());
+        pw.println("    mBalanceAnimating=" + mBalanceAnimating);
+        pw.println("    mBalanceValue=" + mBalanceValue + " mBalanceTarget=" + mBalanceTarget);
     }
 
     private final Runnable mTransitionRunnable = new Runnable() {
@@ -213,54 +239,95 @@ public class ColorTemperatureController extends LiveDisplayFeature {
 
     /**
      * Smoothly animate the current display color balance
+     *
+     * The transition is split into evenly spaced steps, at most one per
+     * mMinBalanceStepInterval, and only values that differ from the last one
+     * written reach the hardware. A new target while animating continues from
+     * the last written value instead of reading the hardware again.
      */
     private synchronized void animateColorBalance(int balance) {
-
-        // always start with the current values in the hardware
-        int current = mHardware.getColorBalance();
+        final int current;
+        if (mBalanceAnimating) {
+            if (balance == mBalanceTarget) {
+                return;
+            }
+            current = mBalanceValue;
+        } else {
+            // always start with the current values in the hardware
+            current = mHardware.getColorBalance();
+        }
 
         if (current == balance) {
+            cancelColorBalance();
             return;
         }
 
-        long duration = (long)(5 * Math.abs(current - balance));
-
+        final int delta = Math.abs(current - balance);
+        final long duration = 5L * delta;
+        final long steps = mMinBalanceStepInterval > 0
+                ? Math.max(1, Math.min(delta, duration / mMinBalanceStepInterval)) : delta;
 
         if (DEBUG) {
-            Slog.d(TAG, "animateDisplayColor current=" + current +
-                    " target=" + balance + " duration=" + duration);
+            Slog.d(TAG, "animateColorBalance current=" + current +
+                    " target=" + balance + " duration=" + duration + " steps=" + steps);
         }
 
-        if (mAnimator != null) {
-            mAnimator.cancel();
-            mAnimator.removeAllUpdateListeners();
-        }
+        mHandler.removeCallbacks(mBalanceStepRunnable);
+        mBalanceAnimating = true;
+        mBalanceStart = current;
+        mBalanceTarget = balance;
+        mBalanceValue = current;
+        mBalanceDuration = duration;
+        mBalanceStepInterval = duration / steps;
+        mBalanceStartTime = SystemClock.uptimeMillis();
+        mHandler.postAtTime(mBalanceStepRunnable, mBalanceStartTime + mBalanceStepInterval);
+    }
 
-        mAnimator = ValueAnimator.ofInt(current, balance);
-        mAnimator.setDuration(duration);
-        mAnimator.setInterpolator(mInterpolator);
-        mAnimator.addUpdateListener(new AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(final ValueAnimator animation) {
-                synchronized (ColorTemperatureController.this) {
-                    if (isScreenOn()) {
-                        int value = (int) animation.getAnimatedValue();
-                        mHardware.setColorBalance(value);
-                    }
+    private synchronized void cancelColorBalance() {
+        mHandler.removeCallbacks(mBalanceStepRunnable);
+        mBalanceAnimating = false;
+    }
+
+    private final Runnable mBalanceStepRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ColorTemperatureController.this) {
+                if (!mBalanceAnimating) {
+                    return;
+                }
+                if (!isScreenOn()) {
+                    mBalanceAnimating = false;
+                    return;
+                }
+
+                final long elapsed = SystemClock.uptimeMillis() - mBalanceStartTime;
+                final int value;
+                if (elapsed >= mBalanceDuration) {
+                    value = mBalanceTarget;
+                    mBalanceAnimating = false;
+                } else {
+                    value = Math.round(MathUtils.lerp((float) mBalanceStart,
+                            (float) mBalanceTarget, mInterpolator.getInterpolation(
+                                    (float) elapsed / mBalanceDuration)));
+                    // next step on the grid, skipping any that were missed
+                    mHandler.postAtTime(this, mBalanceStartTime +
+                            (elapsed / mBalanceStepInterval + 1) * mBalanceStepInterval);
+                }
+
+                if (value != mBalanceValue) {
+                    mHardware.setColorBalance(value);
+                    mBalanceValue = value;
                 }
             }
-        });
-        mAnimator.start();
-    }
+        }
+    };
 
     /*
      * Map the color temperature to a color balance value using a power curve. This assumes the
-     * correct configuration at the device level!
+     * correct configuration at the device level! The curve is sampled in mTemperatureTable.
      */
     private int mapColorTemperatureToBalance(int temperature) {
-        double z = org.ouvriros.internal.util.MathUtils.powerCurveToLinear(mColorBalanceCurve, temperature);
-        return Math.round(MathUtils.lerp((float)mColorBalanceRange.getLower(),
-                (float)mColorBalanceRange.getUpper(), (float)z));
+        return mTemperatureTable.getBalance(temperature);
     }
 
     private synchronized void setDisplayTemperature(int temperature) {
@@ -278,8 +345,9 @@ public class ColorTemperatureController extends LiveDisplayFeature {
             return;
         }
 
-        final float[] rgb = ColorUtils.temperatureToRGB(temperature);
-        if (mDisplayHardware.setAdditionalAdjustment(rgb)) {
+        // copied by the display hardware controller
+        mTemperatureTable.getRGB(temperature, mTemperatureRGB);
+        if (mDisplayHardware.setAdditionalAdjustment(mTemperatureRGB)) {
             if (DEBUG) {
                 Slog.d(TAG, "Adjust display temperature to " + temperature + "K");
             }
@@ -16,6 +16,8 @@
  */
 package org.ouvriros.platform.internal.display;
 
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
 import android.animation.FloatArrayEvaluator;
 import android.animation.ValueAnimator;
 import android.animation.ValueAnimator.AnimatorUpdateListener;
@@ -26,6 +28,7 @@ import android.os.IBinder;
 import android.os.Parcel;
 import android.os.RemoteException;
 import android.os.ServiceManager;
+import android.os.SystemClock;
 import android.util.MathUtils;
 import android.util.Slog;
 import android.view.animation.LinearInterpolator;
@@ -66,6 +69,24 @@ public class DisplayHardwareController extends LiveDisplayFeature {
 
     private final int mMaxColor;
 
+    // color transition state, reused across frames and transitions
+    private final float[] mStartColors = new float[3];
+    private final float[] mTargetColors = new float[3];
+    private final int[] mFrameColor = new int[3];
+    private final int[] mAppliedColor = new int[3];
+    private final long mMinColorWriteInterval;
+    private long mLastColorWriteTime;
+    private IBinder mSurfaceFlinger;
+
+    // transition statistics, for the last transition and since boot
+    private int mTransitionFrames;
+    private int mTransitionHalWrites;
+    private int mTransitionRefreshes;
+    private int mTotalTransitions;
+    private long mTotalFrames;
+    private long mTotalHalWrites;
+    private long mTotalRefreshes;
+
     // settings uris
     private static final Uri DISPLAY_AUTO_CONTRAST =
             OuvrirSettings.System.getUriFor(OuvrirSettings.System.DISPLAY_AUTO_CONTRAST);
@@ -113,6 +134,10 @@ public class DisplayHardwareController extends LiveDisplayFeature {
         mDefaultAntiFlicker = mContext.getResources().getBoolean(
                 org.ouvriros.platform.internal.R.bool.config_defaultAntiFlicker);
 
+        final int maxRate = mContext.getResources().getInteger(
+                org.ouvriros.platform.internal.R.integer.config_displayColorTransitionMaxRate);
+        mMinColorWriteInterval = maxRate > 0 ? 1000 / maxRate : 0;
+
         if (mUseColorAdjustment) {
             mMaxColor = mHardware.getDisplayColorCalibrationMax();
             copyColors(getColorAdjustment(), mColorAdjustment);
@@ -242,6 +267,11 @@ public class DisplayHardwareController extends LiveDisplayFeature {
         pw.println("    mColorAdjustment=" + Arrays.toString(mColorAdjustment));
         pw.println("    mAdditionalAdjustment=" + Arrays.toString(mAdditionalAdjustment));
         pw.println("    hardware setting=" + Arrays.toString(mHardware.getDisplayColorCalibration()));
+        pw.println("    mMinColorWriteInterval=" + mMinColorWriteInterval);
+        pw.println("    last transition: frames=" + mTransitionFrames +
+                " halWrites=" + mTransitionHalWrites + " refreshes=" + mTransitionRefreshes);
+        pw.println("    all transitions: count=" + mTotalTransitions + " frames=" + mTotalFrames +
+                " halWrites=" + mTotalHalWrites + " refreshes=" + mTotalRefreshes);
     }
 
     /**
@@ -308,75 +338,127 @@ public class DisplayHardwareController extends LiveDisplayFeature {
 
     /**
      * Smoothly animate the current display colors to the new value.
+     *
+     * Frames are quantized to the hardware range, and only written when the
+     * quantized color changed and at most once per mMinColorWriteInterval.
+     * The final frame is always written.
      */
     private synchronized void animateDisplayColor(float[] targetColors) {
 
         // always start with the current values in the hardware
         int[] currentInts = mHardware.getDisplayColorCalibration();
-        float[] currentColors = new float[] {
-                (float)currentInts[0] / (float)mMaxColor,
-                (float)currentInts[1] / (float)mMaxColor,
-                (float)currentInts[2] / (float)mMaxColor };
-
-        if (currentColors[0] == targetColors[0] &&
-                currentColors[1] == targetColors[1] &&
-                currentColors[2] == targetColors[2]) {
+        float red = (float) currentInts[0] / (float) mMaxColor;
+        float green = (float) currentInts[1] / (float) mMaxColor;
+        float blue = (float) currentInts[2] / (float) mMaxColor;
+
+        if (red == targetColors[0] && green == targetColors[1] && blue == targetColors[2]) {
             return;
         }
 
         // max 500 ms, scaled vs. the largest delta
         long duration = (long)(750 * (Math.max(Math.max(
-                Math.abs(currentColors[0] - targetColors[0]),
-                Math.abs(currentColors[1] - targetColors[1])),
-                Math.abs(currentColors[2] - targetColors[2]))));
+                Math.abs(red - targetColors[0]),
+                Math.abs(green - targetColors[1])),
+                Math.abs(blue - targetColors[2]))));
+
+        if (mAnimator == null) {
+            mAnimator = new ValueAnimator();
+            mAnimator.setEvaluator(new FloatArrayEvaluator(new float[3]));
+            mAnimator.setInterpolator(new LinearInterpolator());
+            mAnimator.addUpdateListener(mColorUpdateListener);
+            mAnimator.addListener(mColorTransitionListener);
+        } else {
+            mAnimator.cancel();
+        }
+
+        mStartColors[0] = red;
+        mStartColors[1] = green;
+        mStartColors[2] = blue;
+        copyColors(targetColors, mTargetColors);
+        System.arraycopy(currentInts, 0, mAppliedColor, 0, 3);
 
         if (DEBUG) {
-            Slog.d(TAG, "animateDisplayColor current=" + Arrays.toString(currentColors) +
+            Slog.d(TAG, "animateDisplayColor current=" + Arrays.toString(mStartColors) +
                     " targetColors=" + Arrays.toString(targetColors) + " duration=" + duration);
         }
 
-        if (mAnimator != null) {
-            mAnimator.cancel();
-            mAnimator.removeAllUpdateListeners();
-        }
+        mTransitionFrames = 0;
+        mTransitionHalWrites = 0;
+        mTransitionRefreshes = 0;
+        mLastColorWriteTime = 0;
 
-        mAnimator = ValueAnimator.ofObject(
-                new FloatArrayEvaluator(new float[3]), currentColors, targetColors);
+        mAnimator.setObjectValues(mStartColors, mTargetColors);
         mAnimator.setDuration(duration);
-        mAnimator.setInterpolator(new LinearInterpolator());
-        mAnimator.addUpdateListener(new AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(final ValueAnimator animation) {
-                synchronized (DisplayHardwareController.this) {
-                    if (isScreenOn()) {
-                        float[] value = (float[]) animation.getAnimatedValue();
-                        mHardware.setDisplayColorCalibration(new int[] {
-                                (int) (value[0] * mMaxColor),
-                                (int) (value[1] * mMaxColor),
-                                (int) (value[2] * mMaxColor)
-                        });
-                        screenRefresh();
-                    }
-                }
-            }
-        });
         mAnimator.start();
     }
 
+    private final AnimatorUpdateListener mColorUpdateListener = new AnimatorUpdateListener() {
+        @Override
+        public void onAnimationUpdate(final ValueAnimator animation) {
+            synchronized (DisplayHardwareController.this) {
+                mTransitionFrames++;
+                if (!isScreenOn()) {
+                    return;
+                }
+                final float[] value = (float[]) animation.getAnimatedValue();
+                for (int i = 0; i < 3; i++) {
+                    mFrameColor[i] = (int) (value[i] * mMaxColor);
+                }
+                if (Arrays.equals(mFrameColor, mAppliedColor)) {
+                    return;
+                }
+                final long now = SystemClock.uptimeMillis();
+                if (animation.getAnimatedFraction() < 1.0f &&
+                        now - mLastColorWriteTime < mMinColorWriteInterval) {
+                    return;
+                }
+                mLastColorWriteTime = now;
+                mTransitionHalWrites++;
+                if (mHardware.setDisplayColorCalibration(mFrameColor)) {
+                    System.arraycopy(mFrameColor, 0, mAppliedColor, 0, 3);
+                    screenRefresh();
+                }
+            }
+        }
+    };
+
+    private final AnimatorListenerAdapter mColorTransitionListener =
+            new AnimatorListenerAdapter() {
+        @Override
+        public void onAnimationEnd(Animator animation) {
+            synchronized (DisplayHardwareController.this) {
+                mTotalTransitions++;
+                mTotalFrames += mTransitionFrames;
+                mTotalHalWrites += mTransitionHalWrites;
+                mTotalRefreshes += mTransitionRefreshes;
+                if (DEBUG) {
+                    Slog.d(TAG, "Color transition done: frames=" + mTransitionFrames +
+                            " halWrites=" + mTransitionHalWrites +
+                            " refreshes=" + mTransitionRefreshes);
+                }
+            }
+        }
+    };
+
     /**
      * Tell SurfaceFlinger to repaint the screen. This is called after updating
      * hardware registers for display calibration to have an immediate effect.
      */
     private void screenRefresh() {
         try {
-            final IBinder flinger = ServiceManager.getService("SurfaceFlinger");
+            if (mSurfaceFlinger == null || !mSurfaceFlinger.isBinderAlive()) {
+                mSurfaceFlinger = ServiceManager.getService("SurfaceFlinger");
+            }
+            final IBinder flinger = mSurfaceFlinger;
             if (flinger != null) {
                 final Parcel data = Parcel.obtain();
                 data.writeInterfaceToken("android.ui.ISurfaceComposer");
                 flinger.transact(1004, data, null, 0);
                 data.recycle();
+                mTransitionRefreshes++;
             }
         } catch (RemoteException ex) {
+            mSurfaceFlinger = null;
             Slog.e(TAG, "Failed to refresh screen", ex);
         }
     }
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ouvriros.platform.internal.display;
+
+/**
+ * Smooths light sensor samples into the ambient lux that AmbientLuxObserver
+ * compares against its threshold. Implementations don't allocate once
+ * created, and take monotonic timestamps in milliseconds from the caller.
+ */
+abstract class LuxFilter {
+
+    // values of config_outdoorLuxFilter
+    static final int MEAN = 0;
+    static final int EMA = 1;
+    static final int MEDIAN = 2;
+    static final int DEBOUNCE = 3;
+
+    // fractions of the window used as EMA time constant, fast debounce window
+    // and debounce time
+    private static final int EMA_TIME_CONSTANT_DIVISOR = 3;
+    private static final int FAST_WINDOW_DIVISOR = 6;
+    private static final int DEBOUNCE_DIVISOR = 3;
+
+    /**
+     * @param type one of the filter types above, anything else is a mean
+     */
+    static LuxFilter create(int type, long window, int capacity) {
+        switch (type) {
+            case EMA:
+                return ema(window);
+            case MEDIAN:
+                return median(window, capacity);
+            case DEBOUNCE:
+                return debounce(window, capacity);
+            default:
+                return mean(window, capacity);
+        }
+    }
+
+    static LuxFilter mean(long window, int capacity) {
+        return new Mean(window, capacity);
+    }
+
+    static LuxFilter ema(long window) {
+        return new Ema(window / EMA_TIME_CONSTANT_DIVISOR);
+    }
+
+    static LuxFilter median(long window, int capacity) {
+        return new Median(window, capacity);
+    }
+
+    static LuxFilter debounce(long window, int capacity) {
+        return new Debounce(window / FAST_WINDOW_DIVISOR, window,
+                window / DEBOUNCE_DIVISOR, capacity);
+    }
+
+    abstract void add(long now, float lux);
+
+    /**
+     * @return the filtered ambient lux at the given time
+     */
+    abstract float getLux(long now);
+
+    /**
+     * @return true if {@link #getLux(long)} may change with time alone, so it
+     *         should be checked again if the sensor settles
+     */
+    abstract boolean isSettling();
+
+    abstract void clear();
+
+    /**
+     * Mean over a sliding time window, what AmbientLuxObserver always used.
+     * Steady, but reacts to a step change only as the window fills up.
+     */
+    static final class Mean extends LuxFilter {
+        private final TimedMovingAverageRingBuffer mRing;
+
+        Mean(long window, int capacity) {
+            mRing = new TimedMovingAverageRingBuffer(window, capacity);
+        }
+
+        @Override
+        void add(long now, float lux) {
+            mRing.add(now, lux);
+        }
+
+        @Override
+        float getLux(long now) {
+            return mRing.getAverage(now);
+        }
+
+        @Override
+        boolean isSettling() {
+            return mRing.size() > 1;
+        }
+
+        @Override
+        void clear() {
+            mRing.clear();
+        }
+
+        @Override
+        public String toString() {
+            return "Mean[" + mRing + "]";
+        }
+    }
+
+    /**
+     * Exponential moving average with a time constant, weighting each sample
+     * by the time since the previous one so irregular sensor rates don't skew it.
+     */
+    static final class Ema extends LuxFilter {
+        private final long mTimeConstant;
+        private float mLux;
+        private long mLastTime;
+        private boolean mEmpty = true;
+
+        Ema(long timeConstant) {
+            mTimeConstant = Math.max(1, timeConstant);
+        }
+
+        @Override
+        void add(long now, float lux) {
+            if (mEmpty) {
+                if (lux == 0.0f) {
+                    return;
+                }
+                mLux = lux;
+                mEmpty = false;
+            } else {
+                final long elapsed = Math.max(0, now - mLastTime);
+                final float alpha = (float) (1.0 - Math.exp(-(double) elapsed / mTimeConstant));
+                mLux += alpha * (lux - mLux);
+            }
+            mLastTime = now;
+        }
+
+        @Override
+        float getLux(long now) {
+            return mEmpty ? 0.0f : mLux;
+        }
+
+        @Override
+        boolean isSettling() {
+            return false;
+        }
+
+        @Override
+        void clear() {
+            mEmpty = true;
+            mLux = 0.0f;
+        }
+
+        @Override
+        public String toString() {
+            return "Ema[lux=" + mLux + " timeConstant=" + mTimeConstant + "]";
+        }
+    }
+
+    /**
+     * Median over a sliding time window. Ignores spikes and flicker covering
+     * less than half of the window.
+     */
+    static final class Median extends LuxFilter {
+        private final TimedMovingAverageRingBuffer mRing;
+        private final float[] mScratch;
+
+        Median(long window, int capacity) {
+            mRing = new TimedMovingAverageRingBuffer(window, capacity);
+            mScratch = new float[capacity];
+        }
+
+        @Override
+        void add(long now, float lux) {
+            mRing.add(now, lux);
+        }
+
+        @Override
+        float getLux(long now) {
+            final int size = mRing.getValues(now, mScratch);
+            if (size == 0) {
+                return 0.0f;
+            }
+            final float upper = select(mScratch, size, size / 2);
+            if ((size & 1) == 1) {
+                return upper;
+            }
+            // select() left the lower half in front
+            float lower = mScratch[0];
+            for (int i = 1; i < size / 2; i++) {
+                lower = Math.max(lower, mScratch[i]);
+            }
+            return (lower + upper) / 2.0f;
+        }
+
+        @Override
+        boolean isSettling() {
+            return mRing.size() > 1;
+        }
+
+        @Override
+        void clear() {
+            mRing.clear();
+        }
+
+        @Override
+        public String toString() {
+            return "Median[" + mRing + "]";
+        }
+
+        /**
+         * Quickselect the k-th smallest of the first size values, partially
+         * sorting them in place.
+         */
+        private static float select(float[] values, int size, int k) {
+            int left = 0;
+            int right = size - 1;
+            while (left < right) {
+                final float pivot = values[(left + right) >>> 1];
+                int i = left;
+                int j = right;
+                while (i <= j) {
+                    while (values[i] < pivot) {
+                        i++;
+                    }
+                    while (values[j] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        final float tmp = values[i];
+                        values[i] = values[j];
+                        values[j] = tmp;
+                        i++;
+                        j--;
+                    }
+                }
+                if (k <= j) {
+                    right = j;
+                } else if (k >= i) {
+                    left = i;
+                } else {
+                    break;
+                }
+            }
+            return values[k];
+        }
+    }
+
+    /**
+     * Two stage debounce: a slow mean over the full window is the output,
+     * unless a fast mean over a short window has stayed well above or below
+     * it for the debounce time, in which case the output follows the fast
+     * mean until the slow one catches up. Real changes show up after about
+     * the debounce time, shorter excursions like shadows and flicker are
+     * smoothed like the mean.
+     */
+    static final class Debounce extends LuxFilter {
+        // how far apart the fast and slow means must be, relative to the slow one
+        private static final float BAND = 0.2f;
+
+        private final TimedMovingAverageRingBuffer mFast;
+        private final TimedMovingAverageRingBuffer mSlow;
+        private final long mDebounce;
+
+        // direction in which the fast mean is apart, and since when
+        private int mPendingDirection;
+        private long mPendingSince;
+        // direction of a confirmed change the output follows the fast mean in
+        private int mFollowDirection;
+
+        Debounce(long fastWindow, long slowWindow, long debounce, int capacity) {
+            mFast = new TimedMovingAverageRingBuffer(fastWindow, capacity);
+            mSlow = new TimedMovingAverageRingBuffer(slowWindow, capacity);
+            mDebounce = debounce;
+        }
+
+        @Override
+        void add(long now, float lux) {
+            mFast.add(now, lux);
+            mSlow.add(now, lux);
+        }
+
+        @Override
+        float getLux(long now) {
+            final float fast = mFast.getAverage(now);
+            final float slow = mSlow.getAverage(now);
+            final int direction;
+            if (fast > slow * (1.0f + BAND)) {
+                direction = 1;
+            } else if (fast < slow * (1.0f - BAND)) {
+                direction = -1;
+            } else {
+                direction = 0;
+            }
+
+            if (direction != mPendingDirection) {
+                mPendingDirection = direction;
+                mPendingSince = now;
+                mFollowDirection = 0;
+            } else if (direction != 0 && now - mPendingSince >= mDebounce) {
+                mFollowDirection = direction;
+            }
+            return mFollowDirection != 0 ? fast : slow;
+        }
+
+        @Override
+        boolean isSettling() {
+            return mSlow.size() > 1;
+        }
+
+        @Override
+        void clear() {
+            mFast.clear();
+            mSlow.clear();
+            mPendingDirection = 0;
+            mFollowDirection = 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Debounce[pending=" + mPendingDirection + " follow=" + mFollowDirection +
+                    " fast=" + mFast + " slow=" + mSlow + "]";
+        }
+    }
+}
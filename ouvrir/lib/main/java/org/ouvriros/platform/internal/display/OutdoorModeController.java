@@ -42,6 +42,7 @@ public class OutdoorModeController extends LiveDisplayFeature {
     // default values
     private final int mDefaultOutdoorLux;
     private final int mOutdoorLuxHysteresis;
+    private final int mOutdoorLuxFilter;
     private final boolean mDefaultAutoOutdoorMode;
 
     // internal state
@@ -61,6 +62,8 @@ public class OutdoorModeController extends LiveDisplayFeature {
                 org.ouvriros.platform.internal.R.integer.config_outdoorAmbientLux);
         mOutdoorLuxHysteresis = mContext.getResources().getInteger(
                 org.ouvriros.platform.internal.R.integer.config_outdoorAmbientLuxHysteresis);
+        mOutdoorLuxFilter = mContext.getResources().getInteger(
+                org.ouvriros.platform.internal.R.integer.config_outdoorLuxFilter);
         mDefaultAutoOutdoorMode = mContext.getResources().getBoolean(
                 org.ouvriros.platform.internal.R.bool.config_defaultAutoOutdoorMode);
     }
@@ -72,7 +75,8 @@ public class OutdoorModeController extends LiveDisplayFeature {
         }
 
         mLuxObserver = new AmbientLuxObserver(mContext, mHandler.getLooper(),
-                mDefaultOutdoorLux, mOutdoorLuxHysteresis, SENSOR_WINDOW_MS);
+                mDefaultOutdoorLux, mOutdoorLuxHysteresis, SENSOR_WINDOW_MS,
+                mOutdoorLuxFilter);
 
         registerSettings(
                 OuvrirSettings.System.getUriFor(OuvrirSettings.System.DISPLAY_AUTO_OUTDOOR_MODE));
@@ -125,6 +129,7 @@ public class OutdoorModeController extends LiveDisplayFeature {
         pw.println("OutdoorModeController Configuration:");
         pw.println("  mDefaultOutdoorLux=" + mDefaultOutdoorLux);
         pw.println("  mOutdoorLuxHysteresis=" + mOutdoorLuxHysteresis);
+        pw.println("  mOutdoorLuxFilter=" + mOutdoorLuxFilter);
         pw.println();
         pw.println("  OutdoorModeController State:");
         pw.println("    mAutoOutdoorMode=" + isAutomaticOutdoorModeEnabled());
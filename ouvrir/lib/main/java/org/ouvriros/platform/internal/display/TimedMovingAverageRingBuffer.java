@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ouvriros.platform.internal.display;
+
+/**
+ * Calculates a simple moving average based on a fixed
+ * duration sliding window. This is useful for dampening
+ * erratic sensors and rolling thru transitional periods
+ * smoothly.
+ *
+ * Samples are kept in parallel primitive arrays of a fixed capacity with a
+ * running total, so adding a sample and reading the average don't allocate.
+ * If samples arrive faster than the capacity allows for the period, the
+ * oldest ones are dropped early. Timestamps are supplied by the caller and
+ * must be monotonic, e.g. SystemClock.elapsedRealtime().
+ */
+final class TimedMovingAverageRingBuffer {
+
+    private final long[] mTimestamps;
+    private final float[] mValues;
+    private final long mPeriod;
+
+    // index of the oldest sample
+    private int mHead;
+    private int mSize;
+
+    // double so adding and removing samples doesn't drift
+    private double mTotal;
+
+    TimedMovingAverageRingBuffer(long period, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        mPeriod = period;
+        mTimestamps = new long[capacity];
+        mValues = new float[capacity];
+    }
+
+    synchronized void add(long now, float sample) {
+        expire(now);
+        if (sample == 0.0f && mSize == 0) {
+            return;
+        }
+        if (mSize == mValues.length) {
+            removeOldest();
+        }
+        final int tail = (mHead + mSize) % mValues.length;
+        mTimestamps[tail] = now;
+        mValues[tail] = sample;
+        mSize++;
+        mTotal += sample;
+    }
+
+    synchronized int size() {
+        return mSize;
+    }
+
+    synchronized int capacity() {
+        return mValues.length;
+    }
+
+    synchronized float getAverage(long now) {
+        expire(now);
+        return mSize == 0 ? 0.0f : (float) (mTotal / mSize);
+    }
+
+    /**
+     * Copy the samples within the window, oldest first.
+     *
+     * @param out array of at least {@link #capacity()} floats
+     * @return the number of samples copied
+     */
+    synchronized int getValues(long now, float[] out) {
+        expire(now);
+        for (int i = 0; i < mSize; i++) {
+            out[i] = mValues[(mHead + i) % mValues.length];
+        }
+        return mSize;
+    }
+
+    synchronized void clear() {
+        mHead = 0;
+        mSize = 0;
+        mTotal = 0.0;
+    }
+
+    private void expire(long now) {
+        while (mSize > 1 && (now - mTimestamps[mHead]) > mPeriod) {
+            removeOldest();
+        }
+    }
+
+    private void removeOldest() {
+        mTotal -= mValues[mHead];
+        mHead = (mHead + 1) % mValues.length;
+        mSize--;
+        if (mSize == 0) {
+            mTotal = 0.0;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mSize; i++) {
+            final int index = (mHead + i) % mValues.length;
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append('(').append(mValues[index]).append(", ")
+                    .append(mTimestamps[index]).append(')');
+        }
+        return "average=" + (mSize == 0 ? 0.0f : (float) (mTotal / mSize)) +
+                " length=" + mSize + " capacity=" + mValues.length +
+                " mRing=[" + sb.toString() + "]";
+    }
+}
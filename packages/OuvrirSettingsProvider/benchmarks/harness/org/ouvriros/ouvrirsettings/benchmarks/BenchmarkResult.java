@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ouvriros.ouvrirsettings.benchmarks;
+
+import java.util.Locale;
+
+/**
+ * Outcome of a {@link BenchmarkRunner} run.
+ */
+public final class BenchmarkResult {
+    private final String mName;
+    private final int mIterations;
+    private final long mElapsedNanos;
+    private final long mP50Nanos;
+    private final long mP99Nanos;
+    private final double mAllocationsPerOp;
+    private final String mAllocationUnit;
+
+    BenchmarkResult(String name, int iterations, long elapsedNanos, long p50Nanos,
+            long p99Nanos, double allocationsPerOp, String allocationUnit) {
+        mName = name;
+        mIterations = iterations;
+        mElapsedNanos = elapsedNanos;
+        mP50Nanos = p50Nanos;
+        mP99Nanos = p99Nanos;
+        mAllocationsPerOp = allocationsPerOp;
+        mAllocationUnit = allocationUnit;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public double getOpsPerSecond() {
+        return mElapsedNanos == 0 ? 0 : mIterations * 1e9 / mElapsedNanos;
+    }
+
+    public long getP50Nanos() {
+        return mP50Nanos;
+    }
+
+    public long getP99Nanos() {
+        return mP99Nanos;
+    }
+
+    public double getAllocationsPerOp() {
+        return mAllocationsPerOp;
+    }
+
+    public String getAllocationUnit() {
+        return mAllocationUnit;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%-28s %12.0f ops/s  p50 %8d ns  p99 %8d ns  %8.1f %s/op",
+                mName, getOpsPerSecond(), mP50Nanos, mP99Nanos, mAllocationsPerOp,
+                mAllocationUnit);
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ouvriros.ouvrirsettings.benchmarks;
+
+import java.util.Arrays;
+
+/**
+ * Minimal benchmark loop shared by the device and host benchmarks. Every operation is timed
+ * on its own so latency percentiles can be reported, after a warmup that lets the JIT and the
+ * caches under test settle.
+ */
+public final class BenchmarkRunner {
+    /**
+     * A single benchmarked operation.
+     */
+    public interface Operation {
+        /**
+         * @param iteration Index of the call, counting warmup calls, so operations can pick
+         *     distinct keys without allocating.
+         */
+        void run(int iteration) throws Exception;
+    }
+
+    /**
+     * Counts allocations made by the current thread.
+     */
+    public interface AllocationCounter {
+        void start();
+        long get();
+        void stop();
+        String unit();
+    }
+
+    /**
+     * Used when the platform has no way to count allocations.
+     */
+    public static final AllocationCounter NO_ALLOCATION_COUNTER = new AllocationCounter() {
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public long get() {
+            return 0;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public String unit() {
+            return "n/a";
+        }
+    };
+
+    private final int mWarmupIterations;
+    private final int mIterations;
+    private final AllocationCounter mAllocationCounter;
+
+    public BenchmarkRunner(int warmupIterations, int iterations,
+            AllocationCounter allocationCounter) {
+        mWarmupIterations = warmupIterations;
+        mIterations = iterations;
+        mAllocationCounter = allocationCounter;
+    }
+
+    /**
+     * Total number of times an operation is run, including warmup.
+     */
+    public int getTotalIterations() {
+        return mWarmupIterations + mIterations;
+    }
+
+    public BenchmarkResult run(String name, Operation operation) throws Exception {
+        for (int i = 0; i < mWarmupIterations; i++) {
+            operation.run(i);
+        }
+
+        final long[] samples = new long[mIterations];
+        mAllocationCounter.start();
+        final long allocationsBefore = mAllocationCounter.get();
+        final long start = System.nanoTime();
+        for (int i = 0; i < mIterations; i++) {
+            final long t0 = System.nanoTime();
+            operation.run(mWarmupIterations + i);
+            samples[i] = System.nanoTime() - t0;
+        }
+        final long elapsed = System.nanoTime() - start;
+        final long allocations = mAllocationCounter.get() - allocationsBefore;
+        mAllocationCounter.stop();
+
+        Arrays.sort(samples);
+        return new BenchmarkResult(name, mIterations, elapsed,
+                percentile(samples, 50), percentile(samples, 99),
+                (double) allocations / mIterations, mAllocationCounter.unit());
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        final int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ouvriros.ouvrirsettings.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Host variant of {@link OuvrirSettingsBenchmark}, run against {@link SettingsTableStandIn}
+ * instead of the provider. It is meant for checking the harness and comparing data structure
+ * changes quickly, the device numbers are the ones that matter.
+ *
+ * Usage: ouvrir-settings-benchmark-host [iterations]
+ */
+public class HostSettingsBenchmark {
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int DEFAULT_ITERATIONS = 200000;
+    private static final int TABLE_ROWS = 128;
+    private static final int BULK_ROWS = 16;
+
+    private static final BenchmarkRunner.AllocationCounter ALLOCATION_COUNTER;
+    static {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            ALLOCATION_COUNTER = new BenchmarkRunner.AllocationCounter() {
+                @Override
+                public void start() {
+                }
+
+                @Override
+                public long get() {
+                    return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                }
+
+                @Override
+                public void stop() {
+                }
+
+                @Override
+                public String unit() {
+                    return "bytes";
+                }
+            };
+        } else {
+            ALLOCATION_COUNTER = BenchmarkRunner.NO_ALLOCATION_COUNTER;
+        }
+    }
+
+    /**
+     * Client side cache with the same checks as NameValueCache, including negative caching.
+     */
+    private static final class StandInCache {
+        private final SettingsTableStandIn mTable;
+        private final HashMap<String, String> mValues = new HashMap<String, String>();
+        private long mValuesVersion;
+
+        StandInCache(SettingsTableStandIn table) {
+            mTable = table;
+        }
+
+        String get(String name) {
+            synchronized (this) {
+                final long version = mTable.getVersion();
+                if (mValuesVersion != version) {
+                    mValues.clear();
+                    mValuesVersion = version;
+                }
+                if (mValues.containsKey(name)) {
+                    return mValues.get(name);
+                }
+            }
+            final String value = mTable.get(name);
+            synchronized (this) {
+                mValues.put(name, value);
+            }
+            return value;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+        final BenchmarkRunner runner =
+                new BenchmarkRunner(WARMUP_ITERATIONS, iterations, ALLOCATION_COUNTER);
+
+        final String[] keys = new String[runner.getTotalIterations()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "benchmark_" + i;
+        }
+        final String[] bulkNames = new String[BULK_ROWS];
+        final String[] bulkValues = new String[BULK_ROWS];
+        for (int i = 0; i < BULK_ROWS; i++) {
+            bulkNames[i] = keys[i];
+            bulkValues[i] = Integer.toString(i);
+        }
+
+        final SettingsTableStandIn table = new SettingsTableStandIn();
+        for (int i = 0; i < TABLE_ROWS; i++) {
+            table.put(keys[i], Integer.toString(i));
+        }
+        final StandInCache cache = new StandInCache(table);
+        final String[][] listValues = new String[1][];
+
+        final ArrayList<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+        results.add(runner.run("cache hit", i -> cache.get(keys[0])));
+        results.add(runner.run("cache miss", i -> cache.get(keys[i])));
+        results.add(runner.run("table get", i -> table.get(keys[i % TABLE_ROWS])));
+        results.add(runner.run("table put", i -> table.put(keys[0], keys[i & 1])));
+        results.add(runner.run("table putAll x" + BULK_ROWS,
+                i -> table.putAll(bulkNames, bulkValues)));
+        results.add(runner.run("list lines", i -> table.listLines()));
+        results.add(runner.run("list arrays", i -> table.listArrays(listValues)));
+
+        for (BenchmarkResult result : results) {
+            System.out.println(result);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ouvriros.ouvrirsettings.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory stand-in for a settings table and its version property, with the same locking
+ * and result shapes as the provider, so the benchmark harness and the list formats can be
+ * measured on the host.
+ */
+final class SettingsTableStandIn {
+    private final Object mLock = new Object();
+    private final HashMap<String, String> mRows = new HashMap<String, String>();
+    private volatile long mVersion;
+
+    long getVersion() {
+        return mVersion;
+    }
+
+    String get(String name) {
+        synchronized (mLock) {
+            return mRows.get(name);
+        }
+    }
+
+    void put(String name, String value) {
+        synchronized (mLock) {
+            mRows.put(name, value);
+            mVersion++;
+        }
+    }
+
+    /**
+     * Writes all rows under one lock and bumps the version once, like PUT_BATCH_*.
+     */
+    void putAll(String[] names, String[] values) {
+        synchronized (mLock) {
+            for (int i = 0; i < names.length; i++) {
+                mRows.put(names[i], values[i]);
+            }
+            mVersion++;
+        }
+    }
+
+    /**
+     * The legacy "name=value" list format.
+     */
+    ArrayList<String> listLines() {
+        synchronized (mLock) {
+            final ArrayList<String> lines = new ArrayList<String>(mRows.size());
+            for (Map.Entry<String, String> row : mRows.entrySet()) {
+                lines.add(row.getKey() + "=" + row.getValue());
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * The parallel array list format, returns the names and fills values.
+     */
+    String[] listArrays(String[][] values) {
+        synchronized (mLock) {
+            final String[] names = new String[mRows.size()];
+            values[0] = new String[mRows.size()];
+            int i = 0;
+            for (Map.Entry<String, String> row : mRows.entrySet()) {
+                names[i] = row.getKey();
+                values[0][i++] = row.getValue();
+            }
+            return names;
+        }
+    }
+}
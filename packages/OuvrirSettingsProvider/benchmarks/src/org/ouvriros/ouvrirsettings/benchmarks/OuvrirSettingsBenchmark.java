@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ouvriros.ouvrirsettings.benchmarks;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import ouvriros.providers.OuvrirSettings;
+
+import java.util.Map;
+
+/**
+ * Benchmarks of the OuvrirSettings read and write paths against the installed provider.
+ * Results are written to the log under {@link #TAG}.
+ */
+@LargeTest
+public class OuvrirSettingsBenchmark extends AndroidTestCase {
+    private static final String TAG = "OuvrirSettingsBenchmark";
+
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int ITERATIONS = 2000;
+    private static final int BULK_ROWS = 16;
+
+    private static final String KEY_PREFIX = "benchmark_";
+    private static final Uri URI = OuvrirSettings.Secure.CONTENT_URI;
+
+    private static final BenchmarkRunner.AllocationCounter ALLOCATION_COUNTER =
+            new BenchmarkRunner.AllocationCounter() {
+                @Override
+                public void start() {
+                    Debug.resetThreadAllocCount();
+                    Debug.startAllocCounting();
+                }
+
+                @Override
+                public long get() {
+                    return Debug.getThreadAllocCount();
+                }
+
+                @Override
+                public void stop() {
+                    Debug.stopAllocCounting();
+                }
+
+                @Override
+                public String unit() {
+                    return "objects";
+                }
+            };
+
+    private final BenchmarkRunner mRunner =
+            new BenchmarkRunner(WARMUP_ITERATIONS, ITERATIONS, ALLOCATION_COUNTER);
+
+    private ContentResolver mContentResolver;
+    private int mUserId;
+    private String[] mKeys;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mContentResolver = mContext.getContentResolver();
+        mUserId = UserHandle.myUserId();
+        // Distinct keys, built up front so operations don't allocate them
+        mKeys = new String[mRunner.getTotalIterations()];
+        for (int i = 0; i < mKeys.length; i++) {
+            mKeys[i] = KEY_PREFIX + i;
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        for (int i = 0; i < mKeys.length; i++) {
+            mContentResolver.delete(URI, Settings.NameValueTable.NAME + " = ?",
+                    new String[]{ mKeys[i] });
+        }
+        super.tearDown();
+    }
+
+    public void testCacheHit() throws Exception {
+        OuvrirSettings.Secure.putStringForUser(mContentResolver, mKeys[0], "1", mUserId);
+        OuvrirSettings.Secure.getStringForUser(mContentResolver, mKeys[0], mUserId);
+        report(mRunner.run("NameValueCache hit", i ->
+                OuvrirSettings.Secure.getStringForUser(mContentResolver, mKeys[0], mUserId)));
+    }
+
+    public void testCacheHitInt() throws Exception {
+        OuvrirSettings.Secure.putIntForUser(mContentResolver, mKeys[0], 42, mUserId);
+        OuvrirSettings.Secure.getIntForUser(mContentResolver, mKeys[0], 0, mUserId);
+        // What getIntForUser used to cost, for comparison
+        report(mRunner.run("NameValueCache hit + parseInt", i -> Integer.parseInt(
+                OuvrirSettings.Secure.getStringForUser(mContentResolver, mKeys[0], mUserId))));
+        report(mRunner.run("NameValueCache hit getInt", i ->
+                OuvrirSettings.Secure.getIntForUser(mContentResolver, mKeys[0], 0, mUserId)));
+    }
+
+    public void testCacheHitFloat() throws Exception {
+        OuvrirSettings.Secure.putFloatForUser(mContentResolver, mKeys[0], 0.75f, mUserId);
+        OuvrirSettings.Secure.getFloatForUser(mContentResolver, mKeys[0], 0f, mUserId);
+        report(mRunner.run("NameValueCache hit + parseFloat", i -> Float.parseFloat(
+                OuvrirSettings.Secure.getStringForUser(mContentResolver, mKeys[0], mUserId))));
+        report(mRunner.run("NameValueCache hit getFloat", i ->
+                OuvrirSettings.Secure.getFloatForUser(mContentResolver, mKeys[0], 0f, mUserId)));
+    }
+
+    public void testCacheMiss() throws Exception {
+        // Every key is read once, so each read goes to the provider
+        report(mRunner.run("NameValueCache miss", i ->
+                OuvrirSettings.Secure.getStringForUser(mContentResolver, mKeys[i], mUserId)));
+    }
+
+    public void testProviderCallGet() throws Exception {
+        OuvrirSettings.Secure.putStringForUser(mContentResolver, mKeys[0], "1", mUserId);
+        report(mRunner.run("call GET", i -> mContentResolver.call(URI,
+                OuvrirSettings.CALL_METHOD_GET_SECURE, mKeys[0], null)));
+    }
+
+    public void testProviderCallPut() throws Exception {
+        final Bundle[] args = new Bundle[] {
+                Bundle.forPair(Settings.NameValueTable.VALUE, "0"),
+                Bundle.forPair(Settings.NameValueTable.VALUE, "1"),
+        };
+        report(mRunner.run("call PUT", i -> mContentResolver.call(URI,
+                OuvrirSettings.CALL_METHOD_PUT_SECURE, mKeys[0], args[i & 1])));
+    }
+
+    public void testProviderCallList() throws Exception {
+        final Bundle args = new Bundle();
+        args.putInt(OuvrirSettings.CALL_METHOD_LIST_FORMAT_KEY,
+                OuvrirSettings.CALL_METHOD_LIST_FORMAT_ARRAYS);
+        report(mRunner.run("call LIST", i -> mContentResolver.call(URI,
+                OuvrirSettings.CALL_METHOD_LIST_SECURE, null, args)));
+    }
+
+    public void testBulkInsert() throws Exception {
+        final ContentValues[] values = new ContentValues[BULK_ROWS];
+        for (int i = 0; i < BULK_ROWS; i++) {
+            values[i] = new ContentValues();
+            values[i].put(Settings.NameValueTable.NAME, mKeys[i]);
+            values[i].put(Settings.NameValueTable.VALUE, Integer.toString(i));
+        }
+        report(mRunner.run("bulkInsert x" + BULK_ROWS, i ->
+                mContentResolver.bulkInsert(URI, values)));
+    }
+
+    public void testValidators() throws Exception {
+        runValidators("validate System", OuvrirSettings.System.VALIDATORS);
+        runValidators("validate Secure", OuvrirSettings.Secure.VALIDATORS);
+        runValidators("validate Global", OuvrirSettings.Global.VALIDATORS);
+    }
+
+    /**
+     * Runs every validator of a table against valid and invalid numbers, floats and lists, so
+     * each kind of validator sees both outcomes.
+     */
+    private void runValidators(String name, Map<String, OuvrirSettings.Validator> validators)
+            throws Exception {
+        if (validators.isEmpty()) {
+            return;
+        }
+        final OuvrirSettings.Validator[] all =
+                validators.values().toArray(new OuvrirSettings.Validator[validators.size()]);
+        final String[] values = new String[] {
+                "0", "1", "-1", "42", "0.5", "invalid", "home|back|recent", "home|bogus", "" };
+        report(mRunner.run(name + " x" + all.length, i ->
+                all[i % all.length].validate(values[(i / all.length) % values.length])));
+    }
+
+    private static void report(BenchmarkResult result) {
+        Log.i(TAG, result.toString());
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ouvriros.ouvrirsettings;
+
+import android.os.Bundle;
+
+import com.android.internal.annotations.GuardedBy;
+
+import ouvriros.providers.OuvrirSettings;
+
+import java.io.PrintWriter;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Remembers the most recent changes made through {@link OuvrirSettingsProvider}, so clients
+ * that were notified can ask which keys changed instead of reading all of theirs again. Every
+ * change gets the next version number. Only the last changes are kept in a ring, a client that
+ * falls further behind is told to resync.
+ */
+final class ChangeJournal {
+    private final Object mLock = new Object();
+
+    // Tells journals of different provider runs apart, their versions overlap
+    private final long mId = ThreadLocalRandom.current().nextLong();
+
+    // Entry of version v is at index v % capacity
+    @GuardedBy("mLock")
+    private final int[] mUsers;
+    @GuardedBy("mLock")
+    private final String[] mTables;
+    @GuardedBy("mLock")
+    private final String[] mNames;
+
+    // Version of the last change, the first change is version 1
+    @GuardedBy("mLock")
+    private long mVersion = 0;
+
+    @GuardedBy("mLock")
+    private long mQueries = 0;
+    @GuardedBy("mLock")
+    private long mResyncs = 0;
+
+    ChangeJournal(int capacity) {
+        mUsers = new int[capacity];
+        mTables = new String[capacity];
+        mNames = new String[capacity];
+    }
+
+    /**
+     * Records a change to a single key.
+     * @param userId The user id owning the table, see OuvrirSettingsProvider#getUserIdForTable.
+     */
+    void recordKey(int userId, String tableName, String name) {
+        record(userId, tableName, name);
+    }
+
+    /**
+     * Records a change to a whole table, for writes that can't be mapped to individual keys.
+     */
+    void recordTable(int userId, String tableName) {
+        record(userId, tableName, null);
+    }
+
+    /**
+     * Records a change to every table of a user, for example after a migration.
+     */
+    void recordUser(int userId) {
+        record(userId, null, null);
+    }
+
+    private void record(int userId, String tableName, String name) {
+        synchronized (mLock) {
+            if (mUsers.length == 0) {
+                return;
+            }
+            mVersion++;
+            final int index = (int) (mVersion % mUsers.length);
+            mUsers[index] = userId;
+            mTables[index] = tableName;
+            mNames[index] = name;
+        }
+    }
+
+    /**
+     * Returns the changes visible to a user since a version, in the format of
+     * {@link OuvrirSettings#CALL_METHOD_GET_CHANGES}. These are the changes of the user's own
+     * tables and of the global table.
+     * @param journalId The journal the version belongs to.
+     * @param sinceVersion The version the caller is up to date with.
+     */
+    Bundle getChangesSince(long journalId, long sinceVersion, int userId) {
+        final Bundle ret = new Bundle();
+        ret.putLong(OuvrirSettings.CALL_METHOD_JOURNAL_ID_KEY, mId);
+        synchronized (mLock) {
+            mQueries++;
+            ret.putLong(OuvrirSettings.CALL_METHOD_JOURNAL_VERSION_KEY, mVersion);
+
+            // The entry after sinceVersion has to still be in the ring
+            final long oldest = Math.max(1, mVersion - mUsers.length + 1);
+            if (journalId != mId || sinceVersion > mVersion || sinceVersion < oldest - 1) {
+                mResyncs++;
+                ret.putBoolean(OuvrirSettings.CALL_METHOD_RESYNC_KEY, true);
+                return ret;
+            }
+
+            int count = 0;
+            for (long v = sinceVersion + 1; v <= mVersion; v++) {
+                if (isVisibleLocked((int) (v % mUsers.length), userId)) {
+                    count++;
+                }
+            }
+            final String[] tables = new String[count];
+            final String[] names = new String[count];
+            int i = 0;
+            for (long v = sinceVersion + 1; v <= mVersion; v++) {
+                final int index = (int) (v % mUsers.length);
+                if (isVisibleLocked(index, userId)) {
+                    tables[i] = mTables[index];
+                    names[i] = mNames[index];
+                    i++;
+                }
+            }
+            ret.putStringArray(OuvrirSettings.CALL_METHOD_CHANGED_TABLES_KEY, tables);
+            ret.putStringArray(OuvrirSettings.CALL_METHOD_CHANGED_NAMES_KEY, names);
+        }
+        return ret;
+    }
+
+    private boolean isVisibleLocked(int index, int userId) {
+        return mUsers[index] == userId
+                || OuvrirDatabaseHelper.OuvrirTableNames.TABLE_GLOBAL.equals(mTables[index]);
+    }
+
+    void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("  Change journal:");
+            pw.println("    capacity=" + mUsers.length + " version=" + mVersion
+                    + " queries=" + mQueries + " resyncs=" + mResyncs);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ouvriros.ouvrirsettings;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+
+/**
+ * Sends the content observer notifications of {@link OuvrirSettingsProvider}. With a debounce
+ * window configured, changes to the same table and user are collected for that long after the
+ * first one and then dispatched together, each uri once. The window is not extended by later
+ * changes, so a steady stream of writes still gets notified at a bounded delay.
+ */
+final class ChangeNotifier {
+    private static final String TAG = "OuvrirChangeNotifier";
+    private static final boolean LOCAL_LOGV = false;
+
+    private static final int MSG_DISPATCH = 1;
+
+    private final ContentResolver mResolver;
+    private final long mDebounceMs;
+    private final Handler mHandler;
+
+    private final Object mLock = new Object();
+
+    // Keyed by the user id that is notified, which is USER_ALL for the global table
+    @GuardedBy("mLock")
+    private final SparseArray<ArrayMap<String, ArraySet<Uri>>> mPending =
+            new SparseArray<ArrayMap<String, ArraySet<Uri>>>();
+
+    @GuardedBy("mLock")
+    private long mRequested = 0;
+    @GuardedBy("mLock")
+    private long mDispatched = 0;
+
+    ChangeNotifier(Context context, long debounceMs) {
+        mResolver = context.getContentResolver();
+        mDebounceMs = debounceMs;
+        if (debounceMs > 0) {
+            final HandlerThread thread = new HandlerThread(TAG,
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mHandler = new Handler(thread.getLooper()) {
+                @Override
+                public void handleMessage(Message msg) {
+                    if (msg.what == MSG_DISPATCH) {
+                        dispatchPending(msg.arg1, (String) msg.obj);
+                    }
+                }
+            };
+        } else {
+            mHandler = null;
+        }
+    }
+
+    /**
+     * Notifies observers of changed uris of a table. The setting version has to be bumped
+     * before this is called, as the dispatch may happen later.
+     * @param userId The user to notify, see {@link ContentResolver#notifyChange}.
+     */
+    void notifyChange(Uri[] uris, String tableName, int userId) {
+        if (mHandler == null) {
+            synchronized (mLock) {
+                mRequested++;
+                mDispatched++;
+            }
+            dispatch(uris, userId);
+            return;
+        }
+
+        synchronized (mLock) {
+            mRequested++;
+            ArrayMap<String, ArraySet<Uri>> tables = mPending.get(userId);
+            if (tables == null) {
+                tables = new ArrayMap<String, ArraySet<Uri>>(3);
+                mPending.put(userId, tables);
+            }
+            ArraySet<Uri> pending = tables.get(tableName);
+            if (pending == null) {
+                pending = new ArraySet<Uri>(uris.length);
+                tables.put(tableName, pending);
+                mHandler.sendMessageDelayed(
+                        mHandler.obtainMessage(MSG_DISPATCH, userId, 0, tableName),
+                        mDebounceMs);
+            }
+            for (Uri uri : uris) {
+                pending.add(uri);
+            }
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            int pending = 0;
+            for (int i = 0; i < mPending.size(); i++) {
+                pending += mPending.valueAt(i).size();
+            }
+            pw.println("  Notifications:");
+            pw.println("    debounceMs=" + mDebounceMs + " requested=" + mRequested
+                    + " dispatched=" + mDispatched + " pendingTables=" + pending);
+        }
+    }
+
+    private void dispatchPending(int userId, String tableName) {
+        final ArraySet<Uri> pending;
+        synchronized (mLock) {
+            final ArrayMap<String, ArraySet<Uri>> tables = mPending.get(userId);
+            pending = tables != null ? tables.remove(tableName) : null;
+            if (pending == null) {
+                return;
+            }
+            if (tables.isEmpty()) {
+                mPending.remove(userId);
+            }
+            mDispatched++;
+        }
+        dispatch(pending.toArray(new Uri[pending.size()]), userId);
+    }
+
+    private void dispatch(Uri[] uris, int userId) {
+        final long oldId = Binder.clearCallingIdentity();
+        try {
+            mResolver.notifyChange(uris, null, ContentResolver.NOTIFY_SYNC_TO_NETWORK, userId);
+        } finally {
+            Binder.restoreCallingIdentity(oldId);
+        }
+        if (LOCAL_LOGV) Log.v(TAG, "notifying for " + userId + ": " + uris.length + " uri(s)");
+    }
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ouvriros.ouvrirsettings;
+
+import android.os.Bundle;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.MemoryIntArray;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+import libcore.io.IoUtils;
+
+import ouvriros.providers.OuvrirSettings;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Publishes per-key generation numbers to clients through a shared memory array, so that
+ * client side caches only need to refetch the keys that actually changed. Keys are hashed
+ * into a fixed number of buckets per user and table; a write to a key bumps its bucket.
+ */
+final class GenerationRegistry {
+    private static final String TAG = "OuvrirGenerationRegistry";
+    private static final boolean LOCAL_LOGV = false;
+
+    private static final int NUM_BUCKETS = Math.min(256, MemoryIntArray.getMaxSize());
+
+    private final Object mLock = new Object();
+
+    // Keyed by the user id that owns the database, see OuvrirSettingsProvider#getUserIdForTable
+    @GuardedBy("mLock")
+    private final SparseArray<ArrayMap<String, MemoryIntArray>> mUsers =
+            new SparseArray<ArrayMap<String, MemoryIntArray>>();
+
+    /**
+     * Adds the bucket index and current generation of a key to a call() result. This must be
+     * called before the value itself is read, so that a concurrent write can only make the
+     * client refetch rather than cache a stale value.
+     * @param bundle The result to add the generation data to.
+     * @param includeArray Whether to include the backing array, which the client only needs
+     *     once per table.
+     */
+    void addGenerationData(Bundle bundle, int userId, String tableName, String name,
+            boolean includeArray) {
+        synchronized (mLock) {
+            final MemoryIntArray array = getBackingArrayLocked(userId, tableName);
+            if (array == null) {
+                return;
+            }
+            try {
+                final int index = getBucketIndex(name);
+                bundle.putInt(OuvrirSettings.CALL_METHOD_GENERATION_INDEX_KEY, index);
+                bundle.putInt(OuvrirSettings.CALL_METHOD_GENERATION_KEY, array.get(index));
+                if (includeArray) {
+                    bundle.putParcelable(OuvrirSettings.CALL_METHOD_TRACK_GENERATION_KEY, array);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading generation for " + tableName + "/" + name, e);
+                destroyBackingArrayLocked(userId, tableName);
+            }
+        }
+    }
+
+    /**
+     * Batch version of {@link #addGenerationData}, adding the bucket indices and generations
+     * as arrays in the same order as the names.
+     */
+    void addGenerationData(Bundle bundle, int userId, String tableName, String[] names,
+            boolean includeArray) {
+        synchronized (mLock) {
+            final MemoryIntArray array = getBackingArrayLocked(userId, tableName);
+            if (array == null) {
+                return;
+            }
+            try {
+                final int[] indices = new int[names.length];
+                final int[] generations = new int[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    indices[i] = getBucketIndex(names[i]);
+                    generations[i] = array.get(indices[i]);
+                }
+                bundle.putIntArray(OuvrirSettings.CALL_METHOD_GENERATION_INDICES_KEY, indices);
+                bundle.putIntArray(OuvrirSettings.CALL_METHOD_GENERATIONS_KEY, generations);
+                if (includeArray) {
+                    bundle.putParcelable(OuvrirSettings.CALL_METHOD_TRACK_GENERATION_KEY, array);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading generations for " + tableName, e);
+                destroyBackingArrayLocked(userId, tableName);
+            }
+        }
+    }
+
+    /**
+     * Copies the generations of a whole table, for results whose keys are only known after
+     * the values were read. Use {@link #getBucketIndex} to look up a key in the snapshot.
+     * @param bundle The result to add the backing array to, if includeArray is set.
+     * @return The generations, or null if they are not available.
+     */
+    int[] getGenerationSnapshot(Bundle bundle, int userId, String tableName,
+            boolean includeArray) {
+        synchronized (mLock) {
+            final MemoryIntArray array = getBackingArrayLocked(userId, tableName);
+            if (array == null) {
+                return null;
+            }
+            try {
+                final int[] generations = new int[NUM_BUCKETS];
+                for (int i = 0; i < NUM_BUCKETS; i++) {
+                    generations[i] = array.get(i);
+                }
+                if (includeArray) {
+                    bundle.putParcelable(OuvrirSettings.CALL_METHOD_TRACK_GENERATION_KEY, array);
+                }
+                return generations;
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading generations for " + tableName, e);
+                destroyBackingArrayLocked(userId, tableName);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Marks a single key as changed.
+     */
+    void incrementGeneration(int userId, String tableName, String name) {
+        synchronized (mLock) {
+            final MemoryIntArray array = getExistingBackingArrayLocked(userId, tableName);
+            if (array == null) {
+                // No client has been handed out a generation for this table yet
+                return;
+            }
+            try {
+                final int index = getBucketIndex(name);
+                array.set(index, array.get(index) + 1);
+            } catch (IOException e) {
+                Log.e(TAG, "Error updating generation for " + tableName + "/" + name, e);
+                destroyBackingArrayLocked(userId, tableName);
+            }
+        }
+    }
+
+    /**
+     * Marks every key of a table as changed, used when a write cannot be mapped to keys.
+     */
+    void incrementAllGenerations(int userId, String tableName) {
+        synchronized (mLock) {
+            final MemoryIntArray array = getExistingBackingArrayLocked(userId, tableName);
+            if (array != null) {
+                incrementAllLocked(userId, tableName, array);
+            }
+        }
+    }
+
+    /**
+     * Marks every key of every table of a user as changed.
+     */
+    void incrementAllGenerations(int userId) {
+        synchronized (mLock) {
+            final ArrayMap<String, MemoryIntArray> tables = mUsers.get(userId);
+            if (tables == null) {
+                return;
+            }
+            for (int i = tables.size() - 1; i >= 0; i--) {
+                incrementAllLocked(userId, tables.keyAt(i), tables.valueAt(i));
+            }
+        }
+    }
+
+    void onUserRemoved(int userId) {
+        synchronized (mLock) {
+            final ArrayMap<String, MemoryIntArray> tables = mUsers.get(userId);
+            if (tables == null) {
+                return;
+            }
+            for (int i = 0; i < tables.size(); i++) {
+                IoUtils.closeQuietly(tables.valueAt(i));
+            }
+            mUsers.delete(userId);
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("  Generations:");
+            pw.println("    buckets=" + NUM_BUCKETS);
+            for (int i = 0; i < mUsers.size(); i++) {
+                final ArrayMap<String, MemoryIntArray> tables = mUsers.valueAt(i);
+                for (int j = 0; j < tables.size(); j++) {
+                    long total = 0;
+                    try {
+                        final MemoryIntArray array = tables.valueAt(j);
+                        for (int k = 0; k < array.size(); k++) {
+                            total += array.get(k);
+                        }
+                    } catch (IOException e) {
+                        // Reported as a zero total
+                    }
+                    pw.println("    user " + mUsers.keyAt(i) + " " + tables.keyAt(j)
+                            + ": total=" + total);
+                }
+            }
+        }
+    }
+
+    static int getBucketIndex(String name) {
+        return name == null ? 0 : (name.hashCode() & Integer.MAX_VALUE) % NUM_BUCKETS;
+    }
+
+    @GuardedBy("mLock")
+    private void incrementAllLocked(int userId, String tableName, MemoryIntArray array) {
+        try {
+            for (int i = 0; i < array.size(); i++) {
+                array.set(i, array.get(i) + 1);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error updating generations for " + tableName, e);
+            destroyBackingArrayLocked(userId, tableName);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private MemoryIntArray getExistingBackingArrayLocked(int userId, String tableName) {
+        final ArrayMap<String, MemoryIntArray> tables = mUsers.get(userId);
+        return tables != null ? tables.get(tableName) : null;
+    }
+
+    @GuardedBy("mLock")
+    private MemoryIntArray getBackingArrayLocked(int userId, String tableName) {
+        MemoryIntArray array = getExistingBackingArrayLocked(userId, tableName);
+        if (array != null) {
+            return array;
+        }
+        try {
+            array = new MemoryIntArray(NUM_BUCKETS);
+        } catch (IOException e) {
+            Log.e(TAG, "Error creating generation tracker for " + tableName, e);
+            return null;
+        }
+        ArrayMap<String, MemoryIntArray> tables = mUsers.get(userId);
+        if (tables == null) {
+            tables = new ArrayMap<String, MemoryIntArray>(3);
+            mUsers.put(userId, tables);
+        }
+        tables.put(tableName, array);
+        if (LOCAL_LOGV) Log.v(TAG, "Created generation tracker for " + userId + "/" + tableName);
+        return array;
+    }
+
+    @GuardedBy("mLock")
+    private void destroyBackingArrayLocked(int userId, String tableName) {
+        // The array is unusable at this point, drop it so a fresh one gets handed out
+        final ArrayMap<String, MemoryIntArray> tables = mUsers.get(userId);
+        if (tables != null) {
+            IoUtils.closeQuietly(tables.remove(tableName));
+        }
+    }
+}
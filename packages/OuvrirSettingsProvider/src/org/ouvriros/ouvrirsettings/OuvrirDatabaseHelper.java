@@ -33,11 +33,13 @@ import android.database.sqlite.SQLiteStatement;
 import android.net.ConnectivitySettingsManager;
 import android.os.Environment;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.Settings;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.DisplayMetrics;
 import android.util.Log;
 
@@ -82,11 +84,119 @@ public class OuvrirDatabaseHelper extends SQLiteOpenHelper{
 
     private static final String DROP_INDEX_SQL_FORMAT = "DROP INDEX IF EXISTS %sIndex%d;";
 
+    private static final String GET_VALUE_SQL_FORMAT = "SELECT value FROM %s WHERE name = ?;";
+
+    private static final String PUT_VALUE_SQL_FORMAT = "INSERT INTO %s(name,value) VALUES(?,?)"
+            + " ON CONFLICT(name) DO UPDATE SET value = excluded.value;";
+
+    private static final String DELETE_VALUE_SQL_FORMAT = "DELETE FROM %s WHERE name = ?;";
+
+    // Indices into the SQL of the single key accessors, formatted once per table
+    private static final int GET_VALUE_SQL = 0;
+    private static final int PUT_VALUE_SQL = 1;
+    private static final int DELETE_VALUE_SQL = 2;
+    private static final ArrayMap<String, String[]> SINGLE_KEY_SQL =
+            new ArrayMap<String, String[]>(3);
+    static {
+        for (String tableName : new String[] { OuvrirTableNames.TABLE_SYSTEM,
+                OuvrirTableNames.TABLE_SECURE, OuvrirTableNames.TABLE_GLOBAL }) {
+            SINGLE_KEY_SQL.put(tableName, new String[] {
+                    String.format(GET_VALUE_SQL_FORMAT, tableName),
+                    String.format(PUT_VALUE_SQL_FORMAT, tableName),
+                    String.format(DELETE_VALUE_SQL_FORMAT, tableName) });
+        }
+    }
+
+    private static final String LOAD_DEFAULT_SQL_FORMAT =
+            "INSERT OR IGNORE INTO %s(name,value) VALUES(?,?);";
+
     private static final String MCC_PROP_NAME = "ro.prebundled.mcc";
 
+    private static final int DEFAULT_TYPE_BOOLEAN = 0;
+    private static final int DEFAULT_TYPE_INTEGER = 1;
+    private static final int DEFAULT_TYPE_STRING = 2;
+
+    /**
+     * A setting that is loaded into new databases. The value comes from a resource, so that
+     * devices can overlay it.
+     */
+    private static final class DefaultSetting {
+        final String mTable;
+        final String mName;
+        final int mType;
+        final int mResId;
+        // Boolean resource that has to be true for the default to be loaded, or 0
+        final int mEnabledResId;
+
+        DefaultSetting(String table, String name, int type, int resId) {
+            this(table, name, type, resId, 0);
+        }
+
+        DefaultSetting(String table, String name, int type, int resId, int enabledResId) {
+            mTable = table;
+            mName = name;
+            mType = type;
+            mResId = resId;
+            mEnabledResId = enabledResId;
+        }
+    }
+
+    private static final DefaultSetting[] DEFAULT_SETTINGS = new DefaultSetting[] {
+            // System
+            new DefaultSetting(OuvrirTableNames.TABLE_SYSTEM,
+                    OuvrirSettings.System.FORCE_SHOW_NAVBAR,
+                    DEFAULT_TYPE_INTEGER, R.integer.def_force_show_navbar),
+            new DefaultSetting(OuvrirTableNames.TABLE_SYSTEM,
+                    OuvrirSettings.System.STATUS_BAR_QUICK_QS_PULLDOWN,
+                    DEFAULT_TYPE_INTEGER, R.integer.def_qs_quick_pulldown),
+            new DefaultSetting(OuvrirTableNames.TABLE_SYSTEM,
+                    OuvrirSettings.System.BATTERY_LIGHT_BRIGHTNESS_LEVEL,
+                    DEFAULT_TYPE_INTEGER, R.integer.def_battery_brightness_level),
+            new DefaultSetting(OuvrirTableNames.TABLE_SYSTEM,
+                    OuvrirSettings.System.BATTERY_LIGHT_BRIGHTNESS_LEVEL_ZEN,
+                    DEFAULT_TYPE_INTEGER, R.integer.def_battery_brightness_level_zen),
+            new DefaultSetting(OuvrirTableNames.TABLE_SYSTEM,
+                    OuvrirSettings.System.NOTIFICATION_LIGHT_BRIGHTNESS_LEVEL,
+                    DEFAULT_TYPE_INTEGER, R.integer.def_notification_brightness_level),
+            new DefaultSetting(OuvrirTableNames.TABLE_SYSTEM,
+                    OuvrirSettings.System.NOTIFICATION_LIGHT_BRIGHTNESS_LEVEL_ZEN,
+                    DEFAULT_TYPE_INTEGER, R.integer.def_notification_brightness_level_zen),
+            new DefaultSetting(OuvrirTableNames.TABLE_SYSTEM,
+                    OuvrirSettings.System.SYSTEM_PROFILES_ENABLED,
+                    DEFAULT_TYPE_BOOLEAN, R.bool.def_profiles_enabled),
+            new DefaultSetting(OuvrirTableNames.TABLE_SYSTEM,
+                    OuvrirSettings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_ENABLE,
+                    DEFAULT_TYPE_BOOLEAN, R.bool.def_notification_pulse_custom_enable),
+            new DefaultSetting(OuvrirTableNames.TABLE_SYSTEM,
+                    OuvrirSettings.System.SWAP_VOLUME_KEYS_ON_ROTATION,
+                    DEFAULT_TYPE_BOOLEAN, R.bool.def_swap_volume_keys_on_rotation),
+            new DefaultSetting(OuvrirTableNames.TABLE_SYSTEM,
+                    OuvrirSettings.System.STATUS_BAR_BATTERY_STYLE,
+                    DEFAULT_TYPE_INTEGER, R.integer.def_battery_style),
+            new DefaultSetting(OuvrirTableNames.TABLE_SYSTEM,
+                    OuvrirSettings.System.STATUS_BAR_CLOCK,
+                    DEFAULT_TYPE_INTEGER, R.integer.def_clock_position),
+            new DefaultSetting(OuvrirTableNames.TABLE_SYSTEM,
+                    OuvrirSettings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES,
+                    DEFAULT_TYPE_STRING, R.string.def_notification_pulse_custom_value,
+                    R.bool.def_notification_pulse_custom_enable),
+
+            // Secure
+            new DefaultSetting(OuvrirTableNames.TABLE_SECURE,
+                    OuvrirSettings.Secure.STATS_COLLECTION,
+                    DEFAULT_TYPE_BOOLEAN, R.bool.def_stats_collection),
+            new DefaultSetting(OuvrirTableNames.TABLE_SECURE,
+                    OuvrirSettings.Secure.LOCKSCREEN_VISUALIZER_ENABLED,
+                    DEFAULT_TYPE_BOOLEAN, R.bool.def_lockscreen_visualizer),
+            new DefaultSetting(OuvrirTableNames.TABLE_SECURE,
+                    OuvrirSettings.Secure.VOLUME_PANEL_ON_LEFT,
+                    DEFAULT_TYPE_BOOLEAN, R.bool.def_volume_panel_on_left),
+    };
+
     private Context mContext;
     private int mUserHandle;
     private String mPublicSrcDir;
+    private long mCreateTimeMillis = -1;
 
     /**
      * Gets the appropriate database path for a specific user
@@ -155,6 +265,9 @@ public class OuvrirDatabaseHelper extends SQLiteOpenHelper{
         mContext = context;
         mUserHandle = userId;
 
+        // Lets lookups run alongside writes instead of waiting for them
+        setWriteAheadLoggingEnabled(true);
+
         try {
             String packageName = mContext.getPackageName();
             mPublicSrcDir = mContext.getPackageManager().getApplicationInfo(packageName, 0)
@@ -164,6 +277,90 @@ public class OuvrirDatabaseHelper extends SQLiteOpenHelper{
         }
     }
 
+    /**
+     * Reads the value of a single setting.
+     * @param tableName The table to read from.
+     * @param name The name of the setting.
+     * @return The value, or null if the setting is not set.
+     */
+    public String getValue(String tableName, String name) {
+        final SQLiteStatement stmt = compileStatement(GET_VALUE_SQL, tableName);
+        try {
+            stmt.bindString(1, name);
+            return stmt.simpleQueryForString();
+        } catch (SQLiteDoneException e) {
+            return null;
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Writes a single setting, replacing the value in place if the setting exists.
+     * When called inside a transaction, the write becomes part of it.
+     * @param tableName The table to write to.
+     * @param name The name of the setting.
+     * @param value The value, may be null.
+     * @return Whether a row was written.
+     */
+    public boolean putValue(String tableName, String name, String value) {
+        final SQLiteStatement stmt = compileStatement(PUT_VALUE_SQL, tableName);
+        try {
+            stmt.bindString(1, name);
+            if (value != null) {
+                stmt.bindString(2, value);
+            } else {
+                stmt.bindNull(2);
+            }
+            return stmt.executeUpdateDelete() > 0;
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Deletes a single setting.
+     * @param tableName The table to delete from.
+     * @param name The name of the setting.
+     * @return The number of rows deleted.
+     */
+    public int deleteValue(String tableName, String name) {
+        final SQLiteStatement stmt = compileStatement(DELETE_VALUE_SQL, tableName);
+        try {
+            stmt.bindString(1, name);
+            return stmt.executeUpdateDelete();
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Opens the database and prepares the lookup statements of its tables ahead of the first
+     * read. Looking up a name that doesn't exist also pages in the name index.
+     */
+    public void warmUp() {
+        getValue(OuvrirTableNames.TABLE_SYSTEM, "");
+        getValue(OuvrirTableNames.TABLE_SECURE, "");
+        // The global table only exists for the 'owner' user
+        if (mUserHandle == UserHandle.USER_SYSTEM) {
+            getValue(OuvrirTableNames.TABLE_GLOBAL, "");
+        }
+    }
+
+    /**
+     * Compiles a statement of the single key accessors for one call. Statements aren't shared
+     * between threads, as executing one would hold a lock while waiting for a database
+     * connection; each connection caches the prepared SQL so compiling it again is cheap.
+     * @param sql One of the *_VALUE_SQL indices.
+     */
+    private SQLiteStatement compileStatement(int sql, String tableName) {
+        final String[] tableSql = SINGLE_KEY_SQL.get(tableName);
+        if (tableSql == null) {
+            throw new IllegalArgumentException("Invalid table: " + tableName);
+        }
+        return getWritableDatabase().compileStatement(tableSql[sql]);
+    }
+
     /**
      * Creates System, Secure, and Global tables in the specified {@link SQLiteDatabase} and loads
      * default values into the created tables.
@@ -171,6 +368,8 @@ public class OuvrirDatabaseHelper extends SQLiteOpenHelper{
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        final long startTime = SystemClock.elapsedRealtime();
+        final int loaded;
         db.beginTransaction();
 
         try {
@@ -181,7 +380,7 @@ public class OuvrirDatabaseHelper extends SQLiteOpenHelper{
                 createDbTable(db, OuvrirTableNames.TABLE_GLOBAL);
             }
 
-            loadSettings(db);
+            loaded = loadSettings(db);
 
             db.setTransactionSuccessful();
 
@@ -189,6 +388,18 @@ public class OuvrirDatabaseHelper extends SQLiteOpenHelper{
         } finally {
             db.endTransaction();
         }
+
+        mCreateTimeMillis = SystemClock.elapsedRealtime() - startTime;
+        Log.i(TAG, "Created ouvrir settings db for user " + mUserHandle + " with " + loaded
+                + " defaults in " + mCreateTimeMillis + " ms");
+    }
+
+    /**
+     * Returns how long it took to create the database and load its defaults, or -1 if this
+     * helper opened an existing database.
+     */
+    public long getCreateTimeMillis() {
+        return mCreateTimeMillis;
     }
 
     /**
@@ -481,93 +692,71 @@ public class OuvrirDatabaseHelper extends SQLiteOpenHelper{
     /**
      * Loads default values for specific settings into the database.
      * @param db The {@link SQLiteDatabase} to insert into.
+     * @return The number of defaults that were loaded.
      */
-    private void loadSettings(SQLiteDatabase db) {
-        loadSystemSettings(db);
-        loadSecureSettings(db);
+    private int loadSettings(SQLiteDatabase db) {
+        final String[] values = getDefaultValues(mContext);
+        int loaded = loadDefaults(db, OuvrirTableNames.TABLE_SYSTEM, values);
+        loaded += loadDefaults(db, OuvrirTableNames.TABLE_SECURE, values);
         // The global table only exists for the 'owner' user
         if (mUserHandle == UserHandle.USER_SYSTEM) {
-            loadGlobalSettings(db);
-        }
-    }
-
-    private void loadSecureSettings(SQLiteDatabase db) {
-        SQLiteStatement stmt = null;
-        try {
-            stmt = db.compileStatement("INSERT OR IGNORE INTO secure(name,value)"
-                    + " VALUES(?,?);");
-            // Secure
-            loadBooleanSetting(stmt, OuvrirSettings.Secure.STATS_COLLECTION,
-                    R.bool.def_stats_collection);
-
-            loadBooleanSetting(stmt, OuvrirSettings.Secure.LOCKSCREEN_VISUALIZER_ENABLED,
-                    R.bool.def_lockscreen_visualizer);
-
-            loadBooleanSetting(stmt, OuvrirSettings.Secure.VOLUME_PANEL_ON_LEFT,
-                    R.bool.def_volume_panel_on_left);
-        } finally {
-            if (stmt != null) stmt.close();
+            loaded += loadDefaults(db, OuvrirTableNames.TABLE_GLOBAL, values);
+            loadRestrictedNetworkingModeSetting();
         }
+        return loaded;
     }
 
-    private void loadSystemSettings(SQLiteDatabase db) {
+    /**
+     * Inserts the defaults of one table with a single statement. Existing values are kept.
+     * @param values The default values, see {@link #getDefaultValues}.
+     * @return The number of defaults that were loaded.
+     */
+    private static int loadDefaults(SQLiteDatabase db, String tableName, String[] values) {
+        int loaded = 0;
         SQLiteStatement stmt = null;
         try {
-            stmt = db.compileStatement("INSERT OR IGNORE INTO system(name,value)"
-                    + " VALUES(?,?);");
-            // System
-            loadIntegerSetting(stmt, OuvrirSettings.System.FORCE_SHOW_NAVBAR,
-                    R.integer.def_force_show_navbar);
-
-            loadIntegerSetting(stmt, OuvrirSettings.System.STATUS_BAR_QUICK_QS_PULLDOWN,
-                    R.integer.def_qs_quick_pulldown);
-
-            loadIntegerSetting(stmt, OuvrirSettings.System.BATTERY_LIGHT_BRIGHTNESS_LEVEL,
-                    R.integer.def_battery_brightness_level);
-
-            loadIntegerSetting(stmt, OuvrirSettings.System.BATTERY_LIGHT_BRIGHTNESS_LEVEL_ZEN,
-                    R.integer.def_battery_brightness_level_zen);
-
-            loadIntegerSetting(stmt, OuvrirSettings.System.NOTIFICATION_LIGHT_BRIGHTNESS_LEVEL,
-                    R.integer.def_notification_brightness_level);
-
-            loadIntegerSetting(stmt, OuvrirSettings.System.NOTIFICATION_LIGHT_BRIGHTNESS_LEVEL_ZEN,
-                    R.integer.def_notification_brightness_level_zen);
-
-            loadBooleanSetting(stmt, OuvrirSettings.System.SYSTEM_PROFILES_ENABLED,
-                    R.bool.def_profiles_enabled);
-
-            loadBooleanSetting(stmt, OuvrirSettings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_ENABLE,
-                    R.bool.def_notification_pulse_custom_enable);
-
-            loadBooleanSetting(stmt, OuvrirSettings.System.SWAP_VOLUME_KEYS_ON_ROTATION,
-                    R.bool.def_swap_volume_keys_on_rotation);
-
-            loadIntegerSetting(stmt, OuvrirSettings.System.STATUS_BAR_BATTERY_STYLE,
-                    R.integer.def_battery_style);
-
-            loadIntegerSetting(stmt, OuvrirSettings.System.STATUS_BAR_CLOCK,
-                    R.integer.def_clock_position);
-
-            if (mContext.getResources().getBoolean(R.bool.def_notification_pulse_custom_enable)) {
-                loadStringSetting(stmt, OuvrirSettings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES,
-                        R.string.def_notification_pulse_custom_value);
+            for (int i = 0; i < DEFAULT_SETTINGS.length; i++) {
+                if (values[i] == null || !DEFAULT_SETTINGS[i].mTable.equals(tableName)) {
+                    continue;
+                }
+                if (stmt == null) {
+                    stmt = db.compileStatement(String.format(LOAD_DEFAULT_SQL_FORMAT, tableName));
+                }
+                loadSetting(stmt, DEFAULT_SETTINGS[i].mName, values[i]);
+                loaded++;
             }
         } finally {
             if (stmt != null) stmt.close();
         }
+        return loaded;
     }
 
-    private void loadGlobalSettings(SQLiteDatabase db) {
-        SQLiteStatement stmt = null;
-        try {
-            stmt = db.compileStatement("INSERT OR IGNORE INTO global(name,value)"
-                    + " VALUES(?,?);");
-            // Global
-            loadRestrictedNetworkingModeSetting();
-        } finally {
-            if (stmt != null) stmt.close();
+    /**
+     * Returns the values of {@link #DEFAULT_SETTINGS}, in the same order, or null for defaults
+     * that are disabled. The resources are read on every call, as overlays and the
+     * configuration may change before the next database is created.
+     */
+    private static String[] getDefaultValues(Context context) {
+        final Resources res = context.getResources();
+        final String[] values = new String[DEFAULT_SETTINGS.length];
+        for (int i = 0; i < DEFAULT_SETTINGS.length; i++) {
+            final DefaultSetting setting = DEFAULT_SETTINGS[i];
+            if (setting.mEnabledResId != 0 && !res.getBoolean(setting.mEnabledResId)) {
+                continue;
+            }
+            switch (setting.mType) {
+                case DEFAULT_TYPE_BOOLEAN:
+                    values[i] = res.getBoolean(setting.mResId) ? "1" : "0";
+                    break;
+                case DEFAULT_TYPE_INTEGER:
+                    values[i] = Integer.toString(res.getInteger(setting.mResId));
+                    break;
+                case DEFAULT_TYPE_STRING:
+                    values[i] = res.getString(setting.mResId);
+                    break;
+            }
         }
+        return values;
     }
 
     private void loadRestrictedNetworkingModeSetting() {
@@ -632,42 +821,7 @@ public class OuvrirDatabaseHelper extends SQLiteOpenHelper{
         loadSetting(stmt, name, value);
     }
 
-    /**
-     * Loads a string resource into a database table. If a conflict occurs, that value is not
-     * inserted into the database table.
-     * @param stmt The SQLLiteStatement (transaction) for this setting.
-     * @param name The name of the value to insert into the table.
-     * @param resId The name of the string resource.
-     */
-    private void loadStringSetting(SQLiteStatement stmt, String name, int resId) {
-        loadSetting(stmt, name, mContext.getResources().getString(resId));
-    }
-
-    /**
-     * Loads a boolean resource into a database table. If a conflict occurs, that value is not
-     * inserted into the database table.
-     * @param stmt The SQLLiteStatement (transaction) for this setting.
-     * @param name The name of the value to insert into the table.
-     * @param resId The name of the boolean resource.
-     */
-    private void loadBooleanSetting(SQLiteStatement stmt, String name, int resId) {
-        loadSetting(stmt, name,
-                mContext.getResources().getBoolean(resId) ? "1" : "0");
-    }
-
-    /**
-     * Loads an integer resource into a database table. If a conflict occurs, that value is not
-     * inserted into the database table.
-     * @param stmt The SQLLiteStatement (transaction) for this setting.
-     * @param name The name of the value to insert into the table.
-     * @param resId The name of the integer resource.
-     */
-    private void loadIntegerSetting(SQLiteStatement stmt, String name, int resId) {
-        loadSetting(stmt, name,
-                Integer.toString(mContext.getResources().getInteger(resId)));
-    }
-
-    private void loadSetting(SQLiteStatement stmt, String key, Object value) {
+    private static void loadSetting(SQLiteStatement stmt, String key, Object value) {
         stmt.bindString(1, key);
         stmt.bindString(2, value.toString());
         stmt.execute();
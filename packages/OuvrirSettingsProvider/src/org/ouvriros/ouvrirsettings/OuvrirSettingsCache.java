@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ouvriros.ouvrirsettings;
+
+import android.os.Bundle;
+import android.provider.Settings;
+import android.util.ArrayMap;
+import android.util.LruCache;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+
+/**
+ * Cache of the single value lookups served by {@link OuvrirSettingsProvider}. Values are kept
+ * per user and per table. Hits are returned in a new {@link Bundle} each time, as call() hands
+ * it to callers in the same process without a copy. Writes only invalidate entries, which are
+ * filled again by the next lookup, so that concurrent writers can't leave a stale value behind.
+ * Callers pick the names that are looked up, so each table only keeps the most recently used
+ * entries.
+ */
+final class OuvrirSettingsCache {
+    // Room for every setting of a table, with some left for lookups of names that aren't set
+    private static final int MAX_ENTRIES_PER_TABLE = 512;
+
+    // LruCache can't hold null, settings that aren't set are stored as this instance
+    private static final String NOT_SET = new String();
+
+    private final Object mLock = new Object();
+
+    // Keyed by the user id that owns the database, see OuvrirSettingsProvider#getUserIdForTable
+    @GuardedBy("mLock")
+    private final SparseArray<ArrayMap<String, LruCache<String, String>>> mUsers =
+            new SparseArray<ArrayMap<String, LruCache<String, String>>>();
+
+    // Bumped on every mutation, used to discard lookups that raced with a write
+    @GuardedBy("mLock")
+    private long mGeneration = 0;
+
+    @GuardedBy("mLock")
+    private long mHits = 0;
+    @GuardedBy("mLock")
+    private long mMisses = 0;
+
+    /**
+     * Returns the cached result for a key, or null if the key has not been looked up yet.
+     * A setting that does not exist is returned as a {@link Bundle} holding a null value.
+     */
+    Bundle get(int userId, String tableName, String name) {
+        final String value;
+        synchronized (mLock) {
+            final LruCache<String, String> table = getTableLocked(userId, tableName, false);
+            value = table != null ? table.get(name) : null;
+            if (value == null) {
+                mMisses++;
+                return null;
+            }
+            mHits++;
+        }
+        return Bundle.forPair(Settings.NameValueTable.VALUE, value == NOT_SET ? null : value);
+    }
+
+    /**
+     * Returns a token to pass to {@link #putIfUnchanged} once the backing store has been read.
+     */
+    long getGeneration() {
+        synchronized (mLock) {
+            return mGeneration;
+        }
+    }
+
+    /**
+     * Populates the cache with a value read from the database, unless a write happened since
+     * the given generation was obtained, in which case the value may already be stale.
+     */
+    void putIfUnchanged(int userId, String tableName, String name, String value,
+            long generation) {
+        synchronized (mLock) {
+            if (mGeneration == generation) {
+                getTableLocked(userId, tableName, true).put(name, value != null ? value : NOT_SET);
+            }
+        }
+    }
+
+    /**
+     * Forgets a single key after it was written to or deleted from the database.
+     */
+    void remove(int userId, String tableName, String name) {
+        synchronized (mLock) {
+            mGeneration++;
+            final LruCache<String, String> table = getTableLocked(userId, tableName, false);
+            if (table != null) {
+                table.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Forgets every key of a table, used when a write cannot be mapped to individual keys.
+     */
+    void invalidateTable(int userId, String tableName) {
+        synchronized (mLock) {
+            mGeneration++;
+            final LruCache<String, String> table = getTableLocked(userId, tableName, false);
+            if (table != null) {
+                table.evictAll();
+            }
+        }
+    }
+
+    /**
+     * Forgets everything cached for a user.
+     */
+    void invalidateUser(int userId) {
+        synchronized (mLock) {
+            mGeneration++;
+            mUsers.delete(userId);
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            final long total = mHits + mMisses;
+            pw.println("  Cache:");
+            pw.println("    hits=" + mHits + " misses=" + mMisses + " hitRate="
+                    + (total == 0 ? 0 : (mHits * 100 / total)) + "%");
+            pw.println("    generation=" + mGeneration);
+            for (int i = 0; i < mUsers.size(); i++) {
+                final ArrayMap<String, LruCache<String, String>> tables = mUsers.valueAt(i);
+                for (int j = 0; j < tables.size(); j++) {
+                    final LruCache<String, String> table = tables.valueAt(j);
+                    pw.println("    user " + mUsers.keyAt(i) + " " + tables.keyAt(j) + ": "
+                            + table.size() + " entries, " + table.evictionCount()
+                            + " evictions");
+                }
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private LruCache<String, String> getTableLocked(int userId, String tableName,
+            boolean create) {
+        ArrayMap<String, LruCache<String, String>> tables = mUsers.get(userId);
+        if (tables == null) {
+            if (!create) {
+                return null;
+            }
+            tables = new ArrayMap<String, LruCache<String, String>>(3);
+            mUsers.put(userId, tables);
+        }
+        LruCache<String, String> table = tables.get(tableName);
+        if (table == null && create) {
+            table = new LruCache<String, String>(MAX_ENTRIES_PER_TABLE);
+            tables.put(tableName, table);
+        }
+        return table;
+    }
+}
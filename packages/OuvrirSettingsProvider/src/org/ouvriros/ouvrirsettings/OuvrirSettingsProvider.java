@@ -36,16 +36,24 @@ import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.Settings;
 import android.text.TextUtils;
+import android.util.ArraySet;
+import android.util.Base64;
 import android.util.Log;
 import android.util.SparseArray;
 
 import ouvriros.providers.OuvrirSettings;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -64,10 +72,23 @@ public class OuvrirSettingsProvider extends ContentProvider {
     public static final String PREF_HAS_MIGRATED_OUVRIR_SETTINGS =
             "migrated_settings_to_ouvrir_17_0";
 
-    private static final Bundle NULL_SETTING = Bundle.forPair("value", null);
-
-    // Each defined user has their own settings
+    // Each defined user has their own settings. Synchronize on 'this' to access mDbHelpers and
+    // mUserLocks, but only briefly: databases are opened and migrated under the lock of their
+    // user, see getUserLock(). A user lock may be taken before 'this', never after.
     protected final SparseArray<OuvrirDatabaseHelper> mDbHelpers = new SparseArray<OuvrirDatabaseHelper>();
+    private final SparseArray<Object> mUserLocks = new SparseArray<Object>();
+
+    // Cache for the CALL_METHOD_GET_* fast path, invalidated by writes
+    private final OuvrirSettingsCache mCache = new OuvrirSettingsCache();
+
+    // Per-key generations that let clients invalidate their caches key by key
+    private final GenerationRegistry mGenerationRegistry = new GenerationRegistry();
+
+    // Dispatches content observer notifications, optionally coalescing bursts of writes
+    private ChangeNotifier mChangeNotifier;
+
+    // Recent changes, so notified clients can ask what changed
+    private ChangeJournal mChangeJournal;
 
     private static final int SYSTEM = 1;
     private static final int SECURE = 2;
@@ -80,6 +101,16 @@ public class OuvrirSettingsProvider extends ContentProvider {
     private static final String ITEM_MATCHER = "/*";
     private static final String NAME_SELECTION = Settings.NameValueTable.NAME + " = ?";
 
+    // Tables and columns of a snapshot, see SettingsSnapshot
+    private static final String[] SNAPSHOT_TABLES = new String[] {
+            OuvrirDatabaseHelper.OuvrirTableNames.TABLE_SYSTEM,
+            OuvrirDatabaseHelper.OuvrirTableNames.TABLE_SECURE,
+            OuvrirDatabaseHelper.OuvrirTableNames.TABLE_GLOBAL,
+    };
+    private static final String[] SNAPSHOT_PROJECTION = new String[] {
+            Settings.NameValueTable.NAME, Settings.NameValueTable.VALUE
+    };
+
     // Must match definitions in fw/b
     // packages/SettingsProvider/src/com/android/providers/settings/SettingsProvider.java
     public static final String RESULT_ROWS_DELETED  = "result_rows_deleted";
@@ -120,8 +151,19 @@ public class OuvrirSettingsProvider extends ContentProvider {
 
         mSharedPrefs = getContext().getSharedPreferences(TAG, Context.MODE_PRIVATE);
 
+        mChangeNotifier = new ChangeNotifier(getContext(),
+                getContext().getResources().getInteger(R.integer.config_notifyChangeDebounceMs));
+        mChangeJournal = new ChangeJournal(
+                getContext().getResources().getInteger(R.integer.config_changeJournalSize));
+
+        // User events may open databases, keep them off the main thread
+        final HandlerThread userThread = new HandlerThread(TAG,
+                Process.THREAD_PRIORITY_BACKGROUND);
+        userThread.start();
+
         IntentFilter userFilter = new IntentFilter();
         userFilter.addAction(Intent.ACTION_USER_REMOVED);
+        userFilter.addAction(Intent.ACTION_USER_STARTING);
         getContext().registerReceiver(new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
@@ -133,9 +175,11 @@ public class OuvrirSettingsProvider extends ContentProvider {
 
                 if (action.equals(Intent.ACTION_USER_REMOVED)) {
                     onUserRemoved(userId);
+                } else if (action.equals(Intent.ACTION_USER_STARTING)) {
+                    prewarmDatabase(userId);
                 }
             }
-        }, userFilter);
+        }, userFilter, null, new Handler(userThread.getLooper()));
 
         return true;
     }
@@ -172,16 +216,22 @@ public class OuvrirSettingsProvider extends ContentProvider {
      * @param userId The id of the user to run Ouvrir settings migration for.
      */
     private void migrateOuvrirSettingsForUser(int userId) {
-        synchronized (this) {
+        synchronized (getUserLock(userId)) {
             if (LOCAL_LOGV) Log.d(TAG, "Ouvrir settings will be migrated for user id: " + userId);
 
             // Rename database files (if needed)
-            OuvrirDatabaseHelper dbHelper = mDbHelpers.get(userId);
+            OuvrirDatabaseHelper dbHelper;
+            synchronized (this) {
+                dbHelper = mDbHelpers.get(userId);
+                mDbHelpers.delete(userId);
+            }
             if (dbHelper != null) {
                 dbHelper.close();
-                mDbHelpers.delete(userId);
             }
             OuvrirDatabaseHelper.migrateDbFiles(getContext(), userId);
+            mCache.invalidateUser(userId);
+            mGenerationRegistry.incrementAllGenerations(userId);
+            mChangeJournal.recordUser(userId);
             if (dbHelper != null) {
                 establishDbTracking(userId);
                 dbHelper = null;
@@ -286,11 +336,15 @@ public class OuvrirSettingsProvider extends ContentProvider {
      * @param userId The id of the user that is removed.
      */
     private void onUserRemoved(int userId) {
-        synchronized (this) {
+        synchronized (getUserLock(userId)) {
             // the db file itself will be deleted automatically, but we need to tear down
             // our helpers and other internal bookkeeping.
 
-            mDbHelpers.delete(userId);
+            synchronized (this) {
+                mDbHelpers.delete(userId);
+            }
+            mCache.invalidateUser(userId);
+            mGenerationRegistry.onUserRemoved(userId);
 
             if (LOCAL_LOGV) Log.d(TAG, "User " + userId + " is removed");
         }
@@ -326,14 +380,25 @@ public class OuvrirSettingsProvider extends ContentProvider {
 
             // Get methods
             case OuvrirSettings.CALL_METHOD_GET_SYSTEM:
-                return lookupSingleValue(callingUserId, OuvrirSettings.System.CONTENT_URI,
-                        request);
+                return callHelperGet(callingUserId, OuvrirSettings.System.CONTENT_URI,
+                        request, args);
             case OuvrirSettings.CALL_METHOD_GET_SECURE:
-                return lookupSingleValue(callingUserId, OuvrirSettings.Secure.CONTENT_URI,
-                        request);
+                return callHelperGet(callingUserId, OuvrirSettings.Secure.CONTENT_URI,
+                        request, args);
             case OuvrirSettings.CALL_METHOD_GET_GLOBAL:
-                return lookupSingleValue(callingUserId, OuvrirSettings.Global.CONTENT_URI,
-                        request);
+                return callHelperGet(callingUserId, OuvrirSettings.Global.CONTENT_URI,
+                        request, args);
+
+            // Batch get methods
+            case OuvrirSettings.CALL_METHOD_GET_BATCH_SYSTEM:
+                return callHelperGetBatch(callingUserId, OuvrirSettings.System.CONTENT_URI,
+                        args);
+            case OuvrirSettings.CALL_METHOD_GET_BATCH_SECURE:
+                return callHelperGetBatch(callingUserId, OuvrirSettings.Secure.CONTENT_URI,
+                        args);
+            case OuvrirSettings.CALL_METHOD_GET_BATCH_GLOBAL:
+                return callHelperGetBatch(callingUserId, OuvrirSettings.Global.CONTENT_URI,
+                        args);
 
             // Put methods
             case OuvrirSettings.CALL_METHOD_PUT_SYSTEM:
@@ -351,13 +416,39 @@ public class OuvrirSettingsProvider extends ContentProvider {
                 callHelperPut(callingUserId, OuvrirSettings.Global.CONTENT_URI, request, args);
                 return null;
 
+            // Batch put methods
+            case OuvrirSettings.CALL_METHOD_PUT_BATCH_SYSTEM:
+                enforceWritePermission(ouvriros.platform.Manifest.permission.WRITE_SETTINGS);
+                callHelperPutBatch(callingUserId, OuvrirSettings.System.CONTENT_URI, args);
+                return null;
+            case OuvrirSettings.CALL_METHOD_PUT_BATCH_SECURE:
+                enforceWritePermission(
+                        ouvriros.platform.Manifest.permission.WRITE_SECURE_SETTINGS);
+                callHelperPutBatch(callingUserId, OuvrirSettings.Secure.CONTENT_URI, args);
+                return null;
+            case OuvrirSettings.CALL_METHOD_PUT_BATCH_GLOBAL:
+                enforceWritePermission(
+                        ouvriros.platform.Manifest.permission.WRITE_SECURE_SETTINGS);
+                callHelperPutBatch(callingUserId, OuvrirSettings.Global.CONTENT_URI, args);
+                return null;
+
             // List methods
             case OuvrirSettings.CALL_METHOD_LIST_SYSTEM:
-                return callHelperList(callingUserId, OuvrirSettings.System.CONTENT_URI);
+                return callHelperList(callingUserId, OuvrirSettings.System.CONTENT_URI, args);
             case OuvrirSettings.CALL_METHOD_LIST_SECURE:
-                return callHelperList(callingUserId, OuvrirSettings.Secure.CONTENT_URI);
+                return callHelperList(callingUserId, OuvrirSettings.Secure.CONTENT_URI, args);
             case OuvrirSettings.CALL_METHOD_LIST_GLOBAL:
-                return callHelperList(callingUserId, OuvrirSettings.Global.CONTENT_URI);
+                return callHelperList(callingUserId, OuvrirSettings.Global.CONTENT_URI, args);
+
+            // Change journal
+            case OuvrirSettings.CALL_METHOD_GET_CHANGES:
+                return callHelperGetChanges(callingUserId, args);
+
+            // Snapshot methods
+            case OuvrirSettings.CALL_METHOD_EXPORT_SNAPSHOT:
+                return callHelperExportSnapshot(callingUserId, request, args);
+            case OuvrirSettings.CALL_METHOD_IMPORT_SNAPSHOT:
+                return callHelperImportSnapshot(callingUserId, args);
 
             // Delete methods
             case OuvrirSettings.CALL_METHOD_DELETE_SYSTEM:
@@ -388,6 +479,120 @@ public class OuvrirSettingsProvider extends ContentProvider {
         }
     }
 
+    // Helper for call() CALL_METHOD_GET_* methods
+    private Bundle callHelperGet(int callingUserId, Uri contentUri, String key, Bundle args) {
+        if (args == null || !args.containsKey(OuvrirSettings.CALL_METHOD_TRACK_GENERATION_KEY)) {
+            return lookupSingleValue(callingUserId, contentUri, key);
+        }
+
+        // The generation has to be read before the value, see GenerationRegistry
+        final String tableName = getTableNameFromUri(contentUri);
+        final Bundle ret = new Bundle();
+        mGenerationRegistry.addGenerationData(ret, getUserIdForTable(tableName, callingUserId),
+                tableName, key,
+                args.getBoolean(OuvrirSettings.CALL_METHOD_TRACK_GENERATION_KEY));
+
+        ret.putAll(lookupSingleValue(callingUserId, contentUri, key));
+        return ret;
+    }
+
+    // Helper for call() CALL_METHOD_GET_BATCH_* methods
+    private Bundle callHelperGetBatch(int callingUserId, Uri contentUri, Bundle args) {
+        final String[] names = (args == null)
+                ? null : args.getStringArray(OuvrirSettings.CALL_METHOD_NAMES_KEY);
+        if (names == null) {
+            throw new IllegalArgumentException("Batch get requires "
+                    + OuvrirSettings.CALL_METHOD_NAMES_KEY);
+        }
+        for (String name : names) {
+            if (name == null) {
+                throw new IllegalArgumentException("Setting name cannot be null");
+            }
+        }
+
+        // The generations have to be read before the values, see GenerationRegistry
+        final String tableName = getTableNameFromUri(contentUri);
+        final Bundle ret = new Bundle();
+        if (args.containsKey(OuvrirSettings.CALL_METHOD_TRACK_GENERATION_KEY)) {
+            mGenerationRegistry.addGenerationData(ret,
+                    getUserIdForTable(tableName, callingUserId), tableName, names,
+                    args.getBoolean(OuvrirSettings.CALL_METHOD_TRACK_GENERATION_KEY));
+        }
+
+        final String[] values = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            values[i] = lookupSingleValue(callingUserId, contentUri, names[i])
+                    .getString(Settings.NameValueTable.VALUE);
+        }
+        ret.putStringArray(OuvrirSettings.CALL_METHOD_VALUES_KEY, values);
+        return ret;
+    }
+
+    // Helper for call() CALL_METHOD_GET_CHANGES
+    private Bundle callHelperGetChanges(int callingUserId, Bundle args) {
+        final long journalId = (args == null)
+                ? 0 : args.getLong(OuvrirSettings.CALL_METHOD_JOURNAL_ID_KEY, 0);
+        final long sinceVersion = (args == null)
+                ? -1 : args.getLong(OuvrirSettings.CALL_METHOD_JOURNAL_VERSION_KEY, -1);
+        return mChangeJournal.getChangesSince(journalId, sinceVersion, callingUserId);
+    }
+
+    // Helper for call() CALL_METHOD_EXPORT_SNAPSHOT
+    private Bundle callHelperExportSnapshot(int callingUserId, String request, Bundle args) {
+        if (request != null && !isSnapshotTable(request)) {
+            throw new IllegalArgumentException("Invalid table: " + request);
+        }
+        final String[] tableNames = (request == null) ? SNAPSHOT_TABLES : new String[] { request };
+
+        final SettingsSnapshot.Writer writer = new SettingsSnapshot.Writer(tableNames.length);
+        for (String tableName : tableNames) {
+            final SQLiteDatabase db = getOrEstablishDatabase(
+                    getUserIdForTable(tableName, callingUserId)).getReadableDatabase();
+            final Cursor cursor = db.query(tableName, SNAPSHOT_PROJECTION, null, null, null,
+                    null, null);
+            try {
+                writer.beginTable(tableName, cursor.getCount());
+                while (cursor.moveToNext()) {
+                    writer.addRow(cursor.getString(0), cursor.getString(1));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        final byte[] snapshot = writer.finish();
+        final Bundle ret = new Bundle();
+        if (args != null && args.getBoolean(OuvrirSettings.CALL_METHOD_SNAPSHOT_BASE64_KEY)) {
+            ret.putString(OuvrirSettings.CALL_METHOD_SNAPSHOT_BASE64_KEY,
+                    Base64.encodeToString(snapshot, Base64.NO_WRAP));
+        } else {
+            ret.putByteArray(OuvrirSettings.CALL_METHOD_SNAPSHOT_KEY, snapshot);
+        }
+        return ret;
+    }
+
+    // Helper for call() CALL_METHOD_IMPORT_SNAPSHOT
+    private Bundle callHelperImportSnapshot(int callingUserId, Bundle args) {
+        byte[] snapshot = null;
+        if (args != null) {
+            snapshot = args.getByteArray(OuvrirSettings.CALL_METHOD_SNAPSHOT_KEY);
+            final String encoded = args.getString(OuvrirSettings.CALL_METHOD_SNAPSHOT_BASE64_KEY);
+            if (snapshot == null && encoded != null) {
+                snapshot = Base64.decode(encoded, Base64.NO_WRAP);
+            }
+        }
+        if (snapshot == null) {
+            throw new IllegalArgumentException("Snapshot import requires "
+                    + OuvrirSettings.CALL_METHOD_SNAPSHOT_KEY);
+        }
+
+        final int rows = importSnapshotForUser(callingUserId, SettingsSnapshot.read(snapshot),
+                args.getBoolean(OuvrirSettings.CALL_METHOD_SNAPSHOT_REPLACE_KEY));
+        final Bundle ret = new Bundle();
+        ret.putInt(OuvrirSettings.CALL_METHOD_SNAPSHOT_ROWS_KEY, rows);
+        return ret;
+    }
+
     // Helper for call() CALL_METHOD_DELETE_* methods
     private Bundle callHelperDelete(int callingUserId, Uri contentUri, String key) {
         final int rowsDeleted = deleteForUser(callingUserId, contentUri, NAME_SELECTION,
@@ -398,23 +603,103 @@ public class OuvrirSettingsProvider extends ContentProvider {
     }
 
     // Helper for call() CALL_METHOD_LIST_* methods
-    private Bundle callHelperList(int callingUserId, Uri contentUri) {
-        final ArrayList<String> lines = new ArrayList<String>();
+    private Bundle callHelperList(int callingUserId, Uri contentUri, Bundle args) {
+        final int limit = (args == null)
+                ? -1 : args.getInt(OuvrirSettings.CALL_METHOD_LIMIT_KEY, -1);
+        final int format = (args == null)
+                ? OuvrirSettings.CALL_METHOD_LIST_FORMAT_LINES
+                : args.getInt(OuvrirSettings.CALL_METHOD_LIST_FORMAT_KEY,
+                        OuvrirSettings.CALL_METHOD_LIST_FORMAT_LINES);
+        final Bundle ret = new Bundle();
+
+        // The generations have to be read before the values, see GenerationRegistry
+        int[] generations = null;
+        if (args != null && args.containsKey(OuvrirSettings.CALL_METHOD_TRACK_GENERATION_KEY)) {
+            final String tableName = getTableNameFromUri(contentUri);
+            generations = mGenerationRegistry.getGenerationSnapshot(ret,
+                    getUserIdForTable(tableName, callingUserId), tableName,
+                    args.getBoolean(OuvrirSettings.CALL_METHOD_TRACK_GENERATION_KEY));
+        }
+
+        int[] indices = null;
         final Cursor cursor = queryForUser(callingUserId, contentUri, null, null, null, null);
         try {
-            while (cursor != null && cursor.moveToNext()) {
-                lines.add(cursor.getString(1) + "=" + cursor.getString(2));
+            final int count = cursor != null ? cursor.getCount() : 0;
+            if (limit >= 0 && count > limit) {
+                // Too large for the caller, leave the list out
+                return ret;
+            }
+            if (generations != null) {
+                indices = new int[count];
+            }
+
+            ArrayList<String> lines = null;
+            String[] names = null;
+            String[] values = null;
+            StringBuilder packed = null;
+            switch (format) {
+                case OuvrirSettings.CALL_METHOD_LIST_FORMAT_ARRAYS:
+                    names = new String[count];
+                    values = new String[count];
+                    break;
+                case OuvrirSettings.CALL_METHOD_LIST_FORMAT_PACKED:
+                    packed = new StringBuilder().append(count).append(';');
+                    break;
+                default:
+                    lines = new ArrayList<String>(count);
+                    break;
+            }
+
+            for (int i = 0; cursor != null && cursor.moveToNext(); i++) {
+                final String name = cursor.getString(1);
+                final String value = cursor.getString(2);
+                if (indices != null) {
+                    indices[i] = GenerationRegistry.getBucketIndex(name);
+                }
+                if (names != null) {
+                    names[i] = name;
+                    values[i] = value;
+                } else if (packed != null) {
+                    appendPacked(packed, name);
+                    appendPacked(packed, value);
+                } else {
+                    lines.add(name + "=" + value);
+                }
+            }
+
+            if (names != null) {
+                ret.putStringArray(OuvrirSettings.CALL_METHOD_LIST_NAMES_KEY, names);
+                ret.putStringArray(OuvrirSettings.CALL_METHOD_LIST_VALUES_KEY, values);
+            } else if (packed != null) {
+                ret.putString(OuvrirSettings.CALL_METHOD_LIST_PACKED_KEY, packed.toString());
+            } else {
+                ret.putStringArrayList(RESULT_SETTINGS_LIST, lines);
             }
         } finally {
             if (cursor != null) {
                 cursor.close();
             }
         }
-        final Bundle ret = new Bundle();
-        ret.putStringArrayList(RESULT_SETTINGS_LIST, lines);
+        if (indices != null) {
+            final int[] rowGenerations = new int[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                rowGenerations[i] = generations[indices[i]];
+            }
+            ret.putIntArray(OuvrirSettings.CALL_METHOD_GENERATION_INDICES_KEY, indices);
+            ret.putIntArray(OuvrirSettings.CALL_METHOD_GENERATIONS_KEY, rowGenerations);
+        }
         return ret;
     }
 
+    // See OuvrirSettings#CALL_METHOD_LIST_PACKED_KEY
+    private static void appendPacked(StringBuilder packed, String s) {
+        if (s == null) {
+            packed.append("-1:");
+        } else {
+            packed.append(s.length()).append(':').append(s);
+        }
+    }
+
     // Helper for call() CALL_METHOD_PUT_* methods
     private void callHelperPut(int callingUserId, Uri contentUri, String key, Bundle args) {
         // New value is in the args bundle under the key named by
@@ -428,35 +713,49 @@ public class OuvrirSettingsProvider extends ContentProvider {
         insertForUser(callingUserId, contentUri, values);
     }
 
+    // Helper for call() CALL_METHOD_PUT_BATCH_* methods
+    private void callHelperPutBatch(int callingUserId, Uri contentUri, Bundle args) {
+        final String[] names = (args == null)
+                ? null : args.getStringArray(OuvrirSettings.CALL_METHOD_NAMES_KEY);
+        final String[] values = (args == null)
+                ? null : args.getStringArray(OuvrirSettings.CALL_METHOD_VALUES_KEY);
+        if (names == null || values == null || names.length != values.length) {
+            throw new IllegalArgumentException("Batch put requires "
+                    + OuvrirSettings.CALL_METHOD_NAMES_KEY + " and "
+                    + OuvrirSettings.CALL_METHOD_VALUES_KEY + " of the same length");
+        }
+
+        insertBatchForUser(callingUserId, contentUri, names, values);
+    }
+
     /**
      * Looks up a single value for a specific user, uri, and key.
      * @param userId The id of the user to perform the lookup for.
      * @param uri The uri for which table to perform the lookup in.
      * @param key The key to perform the lookup with.
-     * @return A single value stored in a {@link Bundle}.
+     * @return A single value stored in a {@link Bundle}, holding null if the setting is not set
+     *         or could not be read.
      */
     private Bundle lookupSingleValue(int userId, Uri uri, String key) {
-        Cursor cursor = null;
-        try {
-            cursor = queryForUser(userId, uri, new String[]{ Settings.NameValueTable.VALUE },
-                    Settings.NameValueTable.NAME + " = ?", new String[]{ key }, null);
+        final String tableName = getTableNameFromUri(uri);
+        final int tableUserId = getUserIdForTable(tableName, userId);
 
-            if (cursor != null && cursor.getCount() == 1) {
-                cursor.moveToFirst();
-                String value = cursor.getString(0);
-                return value == null ? NULL_SETTING : Bundle.forPair(Settings.NameValueTable.VALUE,
-                        value);
-            }
+        final Bundle cached = mCache.get(tableUserId, tableName, key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final long generation = mCache.getGeneration();
+        final String value;
+        try {
+            value = getOrEstablishDatabase(tableUserId).getValue(tableName, key);
         } catch (SQLiteException e) {
             Log.w(TAG, "settings lookup error", e);
-            return null;
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
+            return Bundle.forPair(Settings.NameValueTable.VALUE, null);
         }
 
-        return NULL_SETTING;
+        mCache.putIfUnchanged(tableUserId, tableName, key, value, generation);
+        return Bundle.forPair(Settings.NameValueTable.VALUE, value);
     }
 
     @Override
@@ -544,7 +843,8 @@ public class OuvrirSettingsProvider extends ContentProvider {
         String tableName = getTableNameFromUri(uri);
         checkWritePermissions(tableName);
 
-        OuvrirDatabaseHelper dbHelper = getOrEstablishDatabase(getUserIdForTable(tableName, userId));
+        final int tableUserId = getUserIdForTable(tableName, userId);
+        OuvrirDatabaseHelper dbHelper = getOrEstablishDatabase(tableUserId);
         SQLiteDatabase db = dbHelper.getWritableDatabase();
 
         db.beginTransaction();
@@ -554,9 +854,7 @@ public class OuvrirSettingsProvider extends ContentProvider {
                     continue;
                 }
 
-                long rowId = db.insert(tableName, null, value);
-
-                if (rowId >= 0) {
+                if (insertRow(dbHelper, tableName, value)) {
                     numRowsAffected++;
                 } else {
                     return 0;
@@ -568,6 +866,13 @@ public class OuvrirSettingsProvider extends ContentProvider {
             db.endTransaction();
         }
 
+        for (ContentValues value : values) {
+            if (value != null) {
+                onValueChanged(tableUserId, tableName,
+                        value.getAsString(Settings.NameValueTable.NAME));
+            }
+        }
+
         if (numRowsAffected > 0) {
             notifyChange(uri, tableName, userId);
             if (LOCAL_LOGV) Log.d(TAG, tableName + ": " + numRowsAffected + " row(s) inserted");
@@ -601,33 +906,192 @@ public class OuvrirSettingsProvider extends ContentProvider {
         String tableName = getTableNameFromUri(uri);
         checkWritePermissions(tableName);
 
-        OuvrirDatabaseHelper dbHelper = getOrEstablishDatabase(getUserIdForTable(tableName, userId));
+        final int tableUserId = getUserIdForTable(tableName, userId);
+        OuvrirDatabaseHelper dbHelper = getOrEstablishDatabase(tableUserId);
 
         // Validate value if inserting int System table
         final String name = values.getAsString(Settings.NameValueTable.NAME);
         final String value = values.getAsString(Settings.NameValueTable.VALUE);
-        if (OuvrirDatabaseHelper.OuvrirTableNames.TABLE_GLOBAL.equals(tableName)) {
-            validateGlobalSettingNameValue(name, value);
-        } else if (OuvrirDatabaseHelper.OuvrirTableNames.TABLE_SYSTEM.equals(tableName)) {
-            validateSystemSettingNameValue(name, value);
-        } else if (OuvrirDatabaseHelper.OuvrirTableNames.TABLE_SECURE.equals(tableName)) {
-            validateSecureSettingValue(name, value);
-        }
-
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        long rowId = db.insert(tableName, null, values);
+        validateSettingNameValue(tableName, name, value);
 
         Uri returnUri = null;
-        if (rowId > -1) {
+        if (insertRow(dbHelper, tableName, values)) {
+            onValueChanged(tableUserId, tableName, name);
             returnUri = Uri.withAppendedPath(uri, name);
             notifyChange(returnUri, tableName, userId);
-            if (LOCAL_LOGV) Log.d(TAG, "Inserted row id: " + rowId + " into tableName: " +
-                    tableName);
+            if (LOCAL_LOGV) Log.d(TAG, "Inserted " + name + " into tableName: " + tableName);
         }
 
         return returnUri;
     }
 
+    /**
+     * Writes a row, using the cached upsert statement for plain name/value pairs.
+     * @return Whether the row was written.
+     */
+    private boolean insertRow(OuvrirDatabaseHelper dbHelper, String tableName,
+            ContentValues values) {
+        final String name = values.getAsString(Settings.NameValueTable.NAME);
+        final int columns = values.containsKey(Settings.NameValueTable.VALUE) ? 2 : 1;
+        if (name != null && values.size() == columns) {
+            return dbHelper.putValue(tableName, name,
+                    values.getAsString(Settings.NameValueTable.VALUE));
+        }
+        return dbHelper.getWritableDatabase().insert(tableName, null, values) > -1;
+    }
+
+    /**
+     * Writes several settings for a specific user in a single transaction. Either all of them
+     * are written or none are, and observers are notified once for all of them.
+     * @param userId The user id to perform the insert for.
+     * @param uri The content:// URI of the table.
+     * @param names The names of the settings.
+     * @param values The values of the settings, in the same order as the names.
+     * @return Number of rows inserted.
+     */
+    private int insertBatchForUser(int userId, Uri uri, String[] names, String[] values) {
+        if (uri == null) {
+            throw new IllegalArgumentException("Uri cannot be null");
+        }
+
+        String tableName = getTableNameFromUri(uri);
+        checkWritePermissions(tableName);
+
+        // Validate everything up front so a bad value can't leave a partial batch behind
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == null) {
+                throw new IllegalArgumentException("Setting name cannot be null");
+            }
+            validateSettingNameValue(tableName, names[i], values[i]);
+        }
+
+        final int tableUserId = getUserIdForTable(tableName, userId);
+        OuvrirDatabaseHelper dbHelper = getOrEstablishDatabase(tableUserId);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < names.length; i++) {
+                if (!dbHelper.putValue(tableName, names[i], values[i])) {
+                    return 0;
+                }
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        final ArraySet<Uri> changedUris = new ArraySet<Uri>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            onValueChanged(tableUserId, tableName, names[i]);
+            changedUris.add(Uri.withAppendedPath(uri, names[i]));
+        }
+
+        if (names.length > 0) {
+            notifyChange(changedUris.toArray(new Uri[changedUris.size()]), tableName, userId);
+            if (LOCAL_LOGV) Log.d(TAG, tableName + ": " + names.length + " row(s) put");
+        }
+
+        return names.length;
+    }
+
+    /**
+     * Writes the tables of a snapshot for a specific user. Every row is validated before any is
+     * written, and the tables of a database are written in a single transaction. The global
+     * table lives in the system user's database, for other users it is committed on its own.
+     * @param userId The user id to perform the import for.
+     * @param tables The tables read from the snapshot.
+     * @param replace Whether to delete the rows of the tables that aren't in the snapshot.
+     * @return Number of rows written.
+     * @throws IllegalStateException If a row could not be written. The tables of databases
+     *         committed before stay imported and their observers have been notified.
+     */
+    private int importSnapshotForUser(int userId, SettingsSnapshot.Table[] tables,
+            boolean replace) {
+        final ArraySet<String> seen = new ArraySet<String>(tables.length);
+        final SparseArray<ArrayList<SettingsSnapshot.Table>> tablesByUser =
+                new SparseArray<ArrayList<SettingsSnapshot.Table>>();
+        for (SettingsSnapshot.Table table : tables) {
+            if (!isSnapshotTable(table.mName) || !seen.add(table.mName)) {
+                throw new IllegalArgumentException("Invalid table in snapshot: " + table.mName);
+            }
+            checkWritePermissions(table.mName);
+            for (int i = 0; i < table.mNames.length; i++) {
+                if (table.mNames[i] == null) {
+                    throw new IllegalArgumentException("Setting name cannot be null");
+                }
+                validateSettingNameValue(table.mName, table.mNames[i], table.mValues[i]);
+            }
+
+            final int tableUserId = getUserIdForTable(table.mName, userId);
+            ArrayList<SettingsSnapshot.Table> userTables = tablesByUser.get(tableUserId);
+            if (userTables == null) {
+                userTables = new ArrayList<SettingsSnapshot.Table>(tables.length);
+                tablesByUser.put(tableUserId, userTables);
+            }
+            userTables.add(table);
+        }
+
+        int rows = 0;
+        for (int u = 0; u < tablesByUser.size(); u++) {
+            final int tableUserId = tablesByUser.keyAt(u);
+            final ArrayList<SettingsSnapshot.Table> userTables = tablesByUser.valueAt(u);
+            final OuvrirDatabaseHelper dbHelper = getOrEstablishDatabase(tableUserId);
+            final SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+            db.beginTransaction();
+            try {
+                for (SettingsSnapshot.Table table : userTables) {
+                    if (replace) {
+                        db.delete(table.mName, null, null);
+                    }
+                    for (int i = 0; i < table.mNames.length; i++) {
+                        if (!dbHelper.putValue(table.mName, table.mNames[i], table.mValues[i])) {
+                            // Rolls back this user's tables, the ones committed before stay
+                            throw new IllegalStateException("Failed to import "
+                                    + table.mNames[i] + " into " + table.mName + " of user "
+                                    + tableUserId + " after " + rows + " row(s) of other users");
+                        }
+                    }
+                }
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            for (SettingsSnapshot.Table table : userTables) {
+                final Uri uri = mUriBuilder.build().buildUpon().appendPath(table.mName).build();
+                if (replace) {
+                    onTableChanged(tableUserId, table.mName);
+                    notifyChange(uri, table.mName, userId);
+                } else if (table.mNames.length > 0) {
+                    final ArraySet<Uri> changedUris = new ArraySet<Uri>(table.mNames.length);
+                    for (int i = 0; i < table.mNames.length; i++) {
+                        onValueChanged(tableUserId, table.mName, table.mNames[i]);
+                        changedUris.add(Uri.withAppendedPath(uri, table.mNames[i]));
+                    }
+                    notifyChange(changedUris.toArray(new Uri[changedUris.size()]), table.mName,
+                            userId);
+                }
+                rows += table.mNames.length;
+            }
+        }
+
+        if (LOCAL_LOGV) Log.d(TAG, "Imported " + rows + " row(s) for user " + userId);
+        return rows;
+    }
+
+    private static boolean isSnapshotTable(String tableName) {
+        for (String snapshotTable : SNAPSHOT_TABLES) {
+            if (snapshotTable.equals(tableName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         return deleteForUser(UserHandle.getCallingUserId(), uri, selection, selectionArgs);
@@ -647,13 +1111,23 @@ public class OuvrirSettingsProvider extends ContentProvider {
             String tableName = getTableNameFromUri(uri);
             checkWritePermissions(tableName);
 
-            OuvrirDatabaseHelper dbHelper = getOrEstablishDatabase(getUserIdForTable(tableName,
-                    callingUserId));
+            final int tableUserId = getUserIdForTable(tableName, callingUserId);
+            OuvrirDatabaseHelper dbHelper = getOrEstablishDatabase(tableUserId);
 
-            SQLiteDatabase db = dbHelper.getWritableDatabase();
-            numRowsAffected = db.delete(tableName, selection, selectionArgs);
+            if (NAME_SELECTION.equals(selection) && selectionArgs.length == 1
+                    && selectionArgs[0] != null) {
+                numRowsAffected = dbHelper.deleteValue(tableName, selectionArgs[0]);
+            } else {
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                numRowsAffected = db.delete(tableName, selection, selectionArgs);
+            }
 
             if (numRowsAffected > 0) {
+                if (NAME_SELECTION.equals(selection) && selectionArgs.length == 1) {
+                    onValueChanged(tableUserId, tableName, selectionArgs[0]);
+                } else {
+                    onTableChanged(tableUserId, tableName);
+                }
                 notifyChange(uri, tableName, callingUserId);
                 if (LOCAL_LOGV) Log.d(TAG, tableName + ": " + numRowsAffected + " row(s) deleted");
             }
@@ -683,22 +1157,18 @@ public class OuvrirSettingsProvider extends ContentProvider {
         // Validate value if updating System table
         final String name = values.getAsString(Settings.NameValueTable.NAME);
         final String value = values.getAsString(Settings.NameValueTable.VALUE);
-        if (OuvrirDatabaseHelper.OuvrirTableNames.TABLE_GLOBAL.equals(tableName)) {
-            validateGlobalSettingNameValue(name, value);
-        } else if (OuvrirDatabaseHelper.OuvrirTableNames.TABLE_SYSTEM.equals(tableName)) {
-            validateSystemSettingNameValue(name, value);
-        } else if (OuvrirDatabaseHelper.OuvrirTableNames.TABLE_SECURE.equals(tableName)) {
-            validateSecureSettingValue(name, value);
-        }
+        validateSettingNameValue(tableName, name, value);
 
         int callingUserId = UserHandle.getCallingUserId();
-        OuvrirDatabaseHelper dbHelper = getOrEstablishDatabase(getUserIdForTable(tableName,
-                callingUserId));
+        final int tableUserId = getUserIdForTable(tableName, callingUserId);
+        OuvrirDatabaseHelper dbHelper = getOrEstablishDatabase(tableUserId);
 
         SQLiteDatabase db = dbHelper.getWritableDatabase();
         int numRowsAffected = db.update(tableName, values, selection, selectionArgs);
 
         if (numRowsAffected > 0) {
+            // The selection is arbitrary, so we can't tell which keys were touched
+            onTableChanged(tableUserId, tableName);
             notifyChange(uri, tableName, callingUserId);
             if (LOCAL_LOGV) Log.d(TAG, tableName + ": " + numRowsAffected + " row(s) updated");
         }
@@ -706,6 +1176,25 @@ public class OuvrirSettingsProvider extends ContentProvider {
         return numRowsAffected;
     }
 
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        getContext().enforceCallingOrSelfPermission(android.Manifest.permission.DUMP, TAG);
+
+        pw.println("OuvrirSettingsProvider State:");
+        synchronized (this) {
+            pw.println("  Databases:");
+            for (int i = 0; i < mDbHelpers.size(); i++) {
+                final long createTime = mDbHelpers.valueAt(i).getCreateTimeMillis();
+                pw.println("    user " + mDbHelpers.keyAt(i) + ": "
+                        + (createTime < 0 ? "opened" : "created in " + createTime + " ms"));
+            }
+        }
+        mCache.dump(pw);
+        mGenerationRegistry.dump(pw);
+        mChangeNotifier.dump(pw);
+        mChangeJournal.dump(pw);
+    }
+
     // endregion Content Provider Methods
 
     /**
@@ -749,8 +1238,13 @@ public class OuvrirSettingsProvider extends ContentProvider {
     private void establishDbTracking(int userId) {
         OuvrirDatabaseHelper dbHelper;
 
-        synchronized (this) {
-            dbHelper = mDbHelpers.get(userId);
+        // Initialization of the db happens under the lock of its user only, so callers for
+        // other users are not held up by the disk I/O. Callers for the same user wait for it
+        // instead of racing to create the same database.
+        synchronized (getUserLock(userId)) {
+            synchronized (this) {
+                dbHelper = mDbHelpers.get(userId);
+            }
             if (LOCAL_LOGV) {
                 Log.i(TAG, "Checking ouvrir settings db helper for user " + userId);
             }
@@ -759,18 +1253,51 @@ public class OuvrirSettingsProvider extends ContentProvider {
                     Log.i(TAG, "Installing new ouvrir settings db helper for user " + userId);
                 }
                 dbHelper = new OuvrirDatabaseHelper(getContext(), userId);
-                mDbHelpers.append(userId, dbHelper);
+                dbHelper.getWritableDatabase();
+                // Only published once it is open
+                synchronized (this) {
+                    mDbHelpers.append(userId, dbHelper);
+                }
+                return;
             }
         }
 
-        // Initialization of the db *outside* the locks.  It's possible that racing
-        // threads might wind up here, the second having read the cache entries
-        // written by the first, but that's benign: the SQLite helper implementation
-        // manages concurrency itself, and it's important that we not run the db
-        // initialization with any of our own locks held, so we're fine.
         dbHelper.getWritableDatabase();
     }
 
+    /**
+     * Returns the lock that guards opening, migrating and removing the database of a user.
+     */
+    private Object getUserLock(int userId) {
+        synchronized (this) {
+            Object lock = mUserLocks.get(userId);
+            if (lock == null) {
+                lock = new Object();
+                mUserLocks.put(userId, lock);
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Opens the database of a starting user and compiles its lookup statements, so that the
+     * first read after the switch doesn't have to.
+     */
+    private void prewarmDatabase(int userId) {
+        final long startTime = SystemClock.elapsedRealtime();
+        try {
+            getOrEstablishDatabase(userId).warmUp();
+        } catch (SQLiteException e) {
+            // The first real access will try again and report it
+            Log.w(TAG, "Failed to prewarm settings db for user " + userId, e);
+            return;
+        }
+        if (LOCAL_LOGV) {
+            Log.d(TAG, "Prewarmed settings db for user " + userId + " in "
+                    + (SystemClock.elapsedRealtime() - startTime) + " ms");
+        }
+    }
+
     /**
      * Makes sure the caller has permission to write this data.
      * @param tableName supplied by the caller
@@ -864,6 +1391,28 @@ public class OuvrirSettingsProvider extends ContentProvider {
                 UserHandle.USER_SYSTEM : userId;
     }
 
+    /**
+     * Invalidates the provider cache and bumps the generation of a key after it was written to
+     * or deleted from the database. This must happen before observers are notified.
+     * The value is not cached here: writes of the same key aren't ordered with this call, so
+     * the next lookup reads it back from the database instead.
+     * @param userId The user id owning the table, see {@link #getUserIdForTable}.
+     */
+    private void onValueChanged(int userId, String tableName, String name) {
+        mCache.remove(userId, tableName, name);
+        mGenerationRegistry.incrementGeneration(userId, tableName, name);
+        mChangeJournal.recordKey(userId, tableName, name);
+    }
+
+    /**
+     * Same as {@link #onValueChanged} for writes that can't be mapped to individual keys.
+     */
+    private void onTableChanged(int userId, String tableName) {
+        mCache.invalidateTable(userId, tableName);
+        mGenerationRegistry.incrementAllGenerations(userId, tableName);
+        mChangeJournal.recordTable(userId, tableName);
+    }
+
     /**
      * Modify setting version for an updated table before notifying of change. The
      * {@link OuvrirSettings} class uses these to provide client-side caches.
@@ -871,6 +1420,17 @@ public class OuvrirSettingsProvider extends ContentProvider {
      * @param userId
      */
     private void notifyChange(Uri uri, String tableName, int userId) {
+        notifyChange(new Uri[] { uri }, tableName, userId);
+    }
+
+    /**
+     * Same as {@link #notifyChange(Uri, String, int)} for several uris of the same table, the
+     * version is only bumped once and observers get a single dispatch, see
+     * {@link ChangeNotifier}.
+     * @param uris to send notifications for
+     * @param userId
+     */
+    private void notifyChange(Uri[] uris, String tableName, int userId) {
         String property = null;
         final boolean isGlobal = tableName.equals(OuvrirDatabaseHelper.OuvrirTableNames.TABLE_GLOBAL);
         if (tableName.equals(OuvrirDatabaseHelper.OuvrirTableNames.TABLE_SYSTEM)) {
@@ -887,14 +1447,19 @@ public class OuvrirSettingsProvider extends ContentProvider {
             SystemProperties.set(property, Long.toString(version));
         }
 
+        // Observers may be notified later, but the version is in place before this returns
         final int notifyTarget = isGlobal ? UserHandle.USER_ALL : userId;
-        final long oldId = Binder.clearCallingIdentity();
-        try {
-            getContext().getContentResolver().notifyChange(uri, null, true, notifyTarget);
-        } finally {
-            Binder.restoreCallingIdentity(oldId);
+        mChangeNotifier.notifyChange(uris, tableName, notifyTarget);
+    }
+
+    private void validateSettingNameValue(String tableName, String name, String value) {
+        if (OuvrirDatabaseHelper.OuvrirTableNames.TABLE_GLOBAL.equals(tableName)) {
+            validateGlobalSettingNameValue(name, value);
+        } else if (OuvrirDatabaseHelper.OuvrirTableNames.TABLE_SYSTEM.equals(tableName)) {
+            validateSystemSettingNameValue(name, value);
+        } else if (OuvrirDatabaseHelper.OuvrirTableNames.TABLE_SECURE.equals(tableName)) {
+            validateSecureSettingValue(name, value);
         }
-        if (LOCAL_LOGV) Log.v(TAG, "notifying for " + notifyTarget + ": " + uri);
     }
 
     private void validateGlobalSettingNameValue(String name, String value) {
@@ -930,6 +1495,4 @@ public class OuvrirSettingsProvider extends ContentProvider {
                     + " for setting: " + name);
         }
     }
-
-    // TODO Add caching
 }
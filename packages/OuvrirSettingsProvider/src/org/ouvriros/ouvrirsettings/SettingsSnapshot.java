@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ouvriros.ouvrirsettings;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of one or more settings tables of a user, see
+ * {@link ouvriros.providers.OuvrirSettings#CALL_METHOD_EXPORT_SNAPSHOT}.
+ *
+ * <p>All numbers are big-endian. The snapshot starts with {@link #MAGIC}, the format version
+ * and the table count. Each table is its name, its row count and the rows, a row being its
+ * name and value. A string is written as its length in UTF-8 bytes and the bytes, a null as
+ * a length of -1. The CRC32 of everything before it ends the snapshot.
+ */
+final class SettingsSnapshot {
+    static final int MAGIC = 0x4f534e50; // "OSNP"
+
+    /** Version of the format written by {@link Writer}. */
+    static final int FORMAT_VERSION = 1;
+
+    // Magic, version, table count and checksum
+    private static final int MIN_LENGTH = 4 + 4 + 4 + 8;
+
+    /** A table read from a snapshot. */
+    static final class Table {
+        final String mName;
+        final String[] mNames;
+        final String[] mValues;
+
+        private Table(String name, int rows) {
+            mName = name;
+            mNames = new String[rows];
+            mValues = new String[rows];
+        }
+    }
+
+    private SettingsSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot table by table, rows are added after {@link #beginTable}.
+     */
+    static final class Writer {
+        private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream(4096);
+        private final DataOutputStream mOut = new DataOutputStream(mBytes);
+        private int mRowsLeft = 0;
+
+        Writer(int tableCount) {
+            try {
+                mOut.writeInt(MAGIC);
+                mOut.writeInt(FORMAT_VERSION);
+                mOut.writeInt(tableCount);
+            } catch (IOException e) {
+                // Can't happen writing to memory
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void beginTable(String tableName, int rows) {
+            if (mRowsLeft != 0) {
+                throw new IllegalStateException(mRowsLeft + " rows missing in previous table");
+            }
+            writeString(tableName);
+            writeInt(rows);
+            mRowsLeft = rows;
+        }
+
+        void addRow(String name, String value) {
+            if (mRowsLeft-- <= 0) {
+                throw new IllegalStateException("More rows than announced");
+            }
+            writeString(name);
+            writeString(value);
+        }
+
+        byte[] finish() {
+            if (mRowsLeft != 0) {
+                throw new IllegalStateException(mRowsLeft + " rows missing in last table");
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(mBytes.toByteArray());
+            try {
+                mOut.writeLong(crc.getValue());
+                mOut.flush();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return mBytes.toByteArray();
+        }
+
+        private void writeInt(int i) {
+            try {
+                mOut.writeInt(i);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void writeString(String s) {
+            try {
+                if (s == null) {
+                    mOut.writeInt(-1);
+                } else {
+                    final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                    mOut.writeInt(bytes.length);
+                    mOut.write(bytes);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads a whole snapshot, checking its format and checksum before anything is returned.
+     * @throws IllegalArgumentException if the snapshot is malformed or of an unknown version.
+     */
+    static Table[] read(byte[] data) {
+        if (data == null || data.length < MIN_LENGTH) {
+            throw new IllegalArgumentException("Snapshot too short");
+        }
+        final int length = data.length - 8;
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+
+        final DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(data, 0, data.length));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a settings snapshot");
+            }
+            final int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported snapshot version " + version);
+            }
+            in.skipBytes(length - 8);
+            if (in.readLong() != crc.getValue()) {
+                throw new IllegalArgumentException("Snapshot checksum mismatch");
+            }
+
+            final DataInputStream body = new DataInputStream(
+                    new ByteArrayInputStream(data, 8, length - 8));
+            final int tableCount = body.readInt();
+            // Each table takes at least 8 bytes, don't let a bad count allocate much
+            if (tableCount < 0 || tableCount > body.available() / 8) {
+                throw new IllegalArgumentException("Bad table count " + tableCount);
+            }
+            final Table[] tables = new Table[tableCount];
+            for (int i = 0; i < tableCount; i++) {
+                final String tableName = readString(body);
+                final int rows = body.readInt();
+                if (tableName == null || rows < 0 || rows > body.available() / 8) {
+                    throw new IllegalArgumentException("Bad table header " + tableName);
+                }
+                final Table table = new Table(tableName, rows);
+                for (int j = 0; j < rows; j++) {
+                    table.mNames[j] = readString(body);
+                    table.mValues[j] = readString(body);
+                }
+                tables[i] = table;
+            }
+            if (body.available() != 0) {
+                throw new IllegalArgumentException("Trailing bytes in snapshot");
+            }
+            return tables;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated snapshot", e);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -22,6 +22,7 @@ import android.content.Context;
 import android.content.pm.UserInfo;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.Settings;
@@ -29,10 +30,13 @@ import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.MediumTest;
 import android.test.suitebuilder.annotation.SmallTest;
 import android.text.TextUtils;
+import android.util.Base64;
 
 import ouvriros.providers.OuvrirSettings;
 
+import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
  public class OuvrirSettingsProviderTest extends AndroidTestCase {
@@ -246,6 +250,227 @@ import java.util.Map;
          }
      }
 
+     @MediumTest
+     public void testCallGetReflectsWrites() {
+         testCallGetReflectsWritesForUri(OuvrirSettings.Secure.CONTENT_URI,
+                 OuvrirSettings.CALL_METHOD_GET_SECURE);
+         testCallGetReflectsWritesForUri(OuvrirSettings.Global.CONTENT_URI,
+                 OuvrirSettings.CALL_METHOD_GET_GLOBAL);
+     }
+
+     private void testCallGetReflectsWritesForUri(Uri uri, String getMethod) {
+         String key = "cachedKey";
+         String value1 = "value1";
+         String value2 = "value2";
+
+         // an unknown key is served (and cached) as null
+         assertNull(callGet(uri, getMethod, key));
+
+         // insert must replace the negative entry
+         ContentValues contentValue = new ContentValues();
+         contentValue.put(Settings.NameValueTable.NAME, key);
+         contentValue.put(Settings.NameValueTable.VALUE, value1);
+         mContentResolver.insert(uri, contentValue);
+         assertEquals(value1, callGet(uri, getMethod, key));
+
+         // update with an arbitrary selection must not leave a stale value behind
+         contentValue.clear();
+         contentValue.put(Settings.NameValueTable.VALUE, value2);
+         int rowsAffected = mContentResolver.update(uri, contentValue,
+                 Settings.NameValueTable.NAME + " = ?", new String[]{ key });
+         assertEquals(1, rowsAffected);
+         assertEquals(value2, callGet(uri, getMethod, key));
+
+         // delete
+         rowsAffected = mContentResolver.delete(uri, Settings.NameValueTable.NAME + " = ?",
+                 new String[]{ key });
+         assertEquals(1, rowsAffected);
+         assertNull(callGet(uri, getMethod, key));
+     }
+
+     @MediumTest
+     public void testCallListFormats() {
+         Uri uri = OuvrirSettings.Secure.CONTENT_URI;
+         String key = "listedKey";
+         String value = "a=b,c";
+
+         ContentValues contentValue = new ContentValues();
+         contentValue.put(Settings.NameValueTable.NAME, key);
+         contentValue.put(Settings.NameValueTable.VALUE, value);
+         mContentResolver.insert(uri, contentValue);
+
+         try {
+             // arrays keep values containing '=' intact
+             Bundle args = new Bundle();
+             args.putInt(OuvrirSettings.CALL_METHOD_LIST_FORMAT_KEY,
+                     OuvrirSettings.CALL_METHOD_LIST_FORMAT_ARRAYS);
+             Bundle result = mContentResolver.call(uri, OuvrirSettings.CALL_METHOD_LIST_SECURE,
+                     null, args);
+             assertNotNull(result);
+             assertNull(result.getStringArrayList(OuvrirSettings.CALL_METHOD_LIST_RESULT_KEY));
+             String[] names = result.getStringArray(OuvrirSettings.CALL_METHOD_LIST_NAMES_KEY);
+             String[] values = result.getStringArray(OuvrirSettings.CALL_METHOD_LIST_VALUES_KEY);
+             assertEquals(names.length, values.length);
+             int index = Arrays.asList(names).indexOf(key);
+             assertTrue(index >= 0);
+             assertEquals(value, values[index]);
+
+             // the packed string holds the same row
+             args.putInt(OuvrirSettings.CALL_METHOD_LIST_FORMAT_KEY,
+                     OuvrirSettings.CALL_METHOD_LIST_FORMAT_PACKED);
+             result = mContentResolver.call(uri, OuvrirSettings.CALL_METHOD_LIST_SECURE,
+                     null, args);
+             String packed = result.getString(OuvrirSettings.CALL_METHOD_LIST_PACKED_KEY);
+             assertTrue(packed.startsWith(names.length + ";"));
+             assertTrue(packed.contains(key.length() + ":" + key + value.length() + ":" + value));
+
+             // the default format is unchanged
+             result = mContentResolver.call(uri, OuvrirSettings.CALL_METHOD_LIST_SECURE,
+                     null, null);
+             assertTrue(result.getStringArrayList(OuvrirSettings.CALL_METHOD_LIST_RESULT_KEY)
+                     .contains(key + "=" + value));
+         } finally {
+             mContentResolver.delete(uri, Settings.NameValueTable.NAME + " = ?",
+                     new String[]{ key });
+         }
+     }
+
+     @MediumTest
+     public void testCallPutBatch() {
+         testCallPutBatchForUri(OuvrirSettings.Secure.CONTENT_URI,
+                 OuvrirSettings.CALL_METHOD_PUT_BATCH_SECURE, OuvrirSettings.CALL_METHOD_GET_SECURE);
+         testCallPutBatchForUri(OuvrirSettings.Global.CONTENT_URI,
+                 OuvrirSettings.CALL_METHOD_PUT_BATCH_GLOBAL, OuvrirSettings.CALL_METHOD_GET_GLOBAL);
+     }
+
+     private void testCallPutBatchForUri(Uri uri, String putBatchMethod, String getMethod) {
+         String[] keys = sMap.keySet().toArray(new String[sMap.size()]);
+         String[] values = sMap.values().toArray(new String[sMap.size()]);
+
+         Bundle args = new Bundle();
+         args.putStringArray(OuvrirSettings.CALL_METHOD_NAMES_KEY, keys);
+         args.putStringArray(OuvrirSettings.CALL_METHOD_VALUES_KEY, values);
+         try {
+             mContentResolver.call(uri, putBatchMethod, null, args);
+             for (int i = 0; i < keys.length; i++) {
+                 assertEquals(values[i], callGet(uri, getMethod, keys[i]));
+             }
+
+             // mismatched arrays are rejected
+             args.putStringArray(OuvrirSettings.CALL_METHOD_VALUES_KEY, new String[0]);
+             try {
+                 mContentResolver.call(uri, putBatchMethod, null, args);
+                 fail("Expected IllegalArgumentException");
+             } catch (IllegalArgumentException e) {
+                 // expected
+             }
+         } finally {
+             for (String key : keys) {
+                 mContentResolver.delete(uri, Settings.NameValueTable.NAME + " = ?",
+                         new String[]{ key });
+             }
+         }
+     }
+
+     @SmallTest
+     public void testCallGetChanges() {
+         Uri uri = OuvrirSettings.Secure.CONTENT_URI;
+         String key = sMap.keySet().iterator().next();
+
+         // Without a version, the caller is told to resync and gets the current one
+         Bundle result = mContentResolver.call(uri, OuvrirSettings.CALL_METHOD_GET_CHANGES,
+                 null, null);
+         assertNotNull(result);
+         assertTrue(result.getBoolean(OuvrirSettings.CALL_METHOD_RESYNC_KEY));
+         long journalId = result.getLong(OuvrirSettings.CALL_METHOD_JOURNAL_ID_KEY);
+         long version = result.getLong(OuvrirSettings.CALL_METHOD_JOURNAL_VERSION_KEY);
+
+         try {
+             OuvrirSettings.Secure.putString(mContentResolver, key, sMap.get(key));
+
+             Bundle args = new Bundle();
+             args.putLong(OuvrirSettings.CALL_METHOD_JOURNAL_ID_KEY, journalId);
+             args.putLong(OuvrirSettings.CALL_METHOD_JOURNAL_VERSION_KEY, version);
+             result = mContentResolver.call(uri, OuvrirSettings.CALL_METHOD_GET_CHANGES,
+                     null, args);
+             assertNotNull(result);
+             assertFalse(result.getBoolean(OuvrirSettings.CALL_METHOD_RESYNC_KEY));
+             assertTrue(result.getLong(OuvrirSettings.CALL_METHOD_JOURNAL_VERSION_KEY) > version);
+             List<String> names = Arrays.asList(
+                     result.getStringArray(OuvrirSettings.CALL_METHOD_CHANGED_NAMES_KEY));
+             assertTrue(names.contains(key));
+
+             // A version of another journal can't be trusted
+             args.putLong(OuvrirSettings.CALL_METHOD_JOURNAL_ID_KEY, journalId + 1);
+             result = mContentResolver.call(uri, OuvrirSettings.CALL_METHOD_GET_CHANGES,
+                     null, args);
+             assertTrue(result.getBoolean(OuvrirSettings.CALL_METHOD_RESYNC_KEY));
+         } finally {
+             mContentResolver.delete(uri, Settings.NameValueTable.NAME + " = ?",
+                     new String[]{ key });
+         }
+     }
+
+     @MediumTest
+     public void testCallExportImportSnapshot() {
+         Uri uri = OuvrirSettings.Secure.CONTENT_URI;
+         String[] keys = sMap.keySet().toArray(new String[sMap.size()]);
+         String[] values = sMap.values().toArray(new String[sMap.size()]);
+
+         Bundle args = new Bundle();
+         args.putStringArray(OuvrirSettings.CALL_METHOD_NAMES_KEY, keys);
+         args.putStringArray(OuvrirSettings.CALL_METHOD_VALUES_KEY, values);
+         try {
+             mContentResolver.call(uri, OuvrirSettings.CALL_METHOD_PUT_BATCH_SECURE, null, args);
+
+             Bundle result = mContentResolver.call(uri,
+                     OuvrirSettings.CALL_METHOD_EXPORT_SNAPSHOT, "secure", null);
+             assertNotNull(result);
+             byte[] snapshot = result.getByteArray(OuvrirSettings.CALL_METHOD_SNAPSHOT_KEY);
+             assertNotNull(snapshot);
+
+             for (String key : keys) {
+                 mContentResolver.delete(uri, Settings.NameValueTable.NAME + " = ?",
+                         new String[]{ key });
+             }
+
+             // The Base64 form restores the same rows
+             args = new Bundle();
+             args.putString(OuvrirSettings.CALL_METHOD_SNAPSHOT_BASE64_KEY,
+                     Base64.encodeToString(snapshot, Base64.NO_WRAP));
+             result = mContentResolver.call(uri, OuvrirSettings.CALL_METHOD_IMPORT_SNAPSHOT,
+                     null, args);
+             assertNotNull(result);
+             assertTrue(result.getInt(OuvrirSettings.CALL_METHOD_SNAPSHOT_ROWS_KEY) >= keys.length);
+             for (int i = 0; i < keys.length; i++) {
+                 assertEquals(values[i],
+                         callGet(uri, OuvrirSettings.CALL_METHOD_GET_SECURE, keys[i]));
+             }
+
+             // A damaged snapshot is rejected as a whole
+             snapshot[snapshot.length / 2] ^= 0x01;
+             args = new Bundle();
+             args.putByteArray(OuvrirSettings.CALL_METHOD_SNAPSHOT_KEY, snapshot);
+             try {
+                 mContentResolver.call(uri, OuvrirSettings.CALL_METHOD_IMPORT_SNAPSHOT, null, args);
+                 fail("Expected IllegalArgumentException");
+             } catch (IllegalArgumentException e) {
+                 // expected
+             }
+         } finally {
+             for (String key : keys) {
+                 mContentResolver.delete(uri, Settings.NameValueTable.NAME + " = ?",
+                         new String[]{ key });
+             }
+         }
+     }
+
+     private String callGet(Uri uri, String method, String key) {
+         Bundle result = mContentResolver.call(uri, method, key, null);
+         assertNotNull(result);
+         return result.getString(Settings.NameValueTable.VALUE);
+     }
+
      private void assertExpectedKeyValuePair(Cursor cursor, String expectedKey,
             String expectedValue) {
          cursor.moveToNext();
@@ -114,6 +114,22 @@ public class OuvrirSettingsSystemTests extends AndroidTestCase {
         assertEquals(expectedStringValue, actualValue);
     }
 
+    @SmallTest
+    public void testStringsForUser() {
+        final String expectedStringValue = "5";
+        OuvrirSettings.System.putString(mContentResolver,
+                OuvrirSettings.System.__MAGICAL_TEST_PASSING_ENABLER, expectedStringValue);
+
+        String[] actualValues = OuvrirSettings.System.getStringsForUser(mContentResolver,
+                new String[] {
+                    OuvrirSettings.System.__MAGICAL_TEST_PASSING_ENABLER,
+                    UNREALISTIC_SETTING
+                }, mContentResolver.getUserId());
+        assertEquals(2, actualValues.length);
+        assertEquals(expectedStringValue, actualValues[0]);
+        assertNull(actualValues[1]);
+    }
+
     @SmallTest
     public void testGetUri() {
         final Uri expectedUri = Uri.withAppendedPath(OuvrirSettings.System.CONTENT_URI,
@@ -33,16 +33,22 @@ import android.util.AndroidException;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
+import android.util.LruCache;
+import android.util.MemoryIntArray;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.util.ArrayUtils;
 
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import ouvriros.trust.TrustInterface;
@@ -114,6 +120,21 @@ public final class OuvrirSettings {
      */
     public static final String CALL_METHOD_GET_GLOBAL = "GET_global";
 
+    /**
+     * @hide - Private call() method to read several keys from the 'system' table at once
+     */
+    public static final String CALL_METHOD_GET_BATCH_SYSTEM = "GET_BATCH_system";
+
+    /**
+     * @hide - Private call() method to read several keys from the 'secure' table at once
+     */
+    public static final String CALL_METHOD_GET_BATCH_SECURE = "GET_BATCH_secure";
+
+    /**
+     * @hide - Private call() method to read several keys from the 'global' table at once
+     */
+    public static final String CALL_METHOD_GET_BATCH_GLOBAL = "GET_BATCH_global";
+
     /**
      * @hide - Private call() method to write to 'system' table
      */
@@ -129,6 +150,24 @@ public final class OuvrirSettings {
      */
     public static final String CALL_METHOD_PUT_GLOBAL= "PUT_global";
 
+    /**
+     * @hide - Private call() method to write several keys to the 'system' table in a single
+     * transaction
+     */
+    public static final String CALL_METHOD_PUT_BATCH_SYSTEM = "PUT_BATCH_system";
+
+    /**
+     * @hide - Private call() method to write several keys to the 'secure' table in a single
+     * transaction
+     */
+    public static final String CALL_METHOD_PUT_BATCH_SECURE = "PUT_BATCH_secure";
+
+    /**
+     * @hide - Private call() method to write several keys to the 'global' table in a single
+     * transaction
+     */
+    public static final String CALL_METHOD_PUT_BATCH_GLOBAL = "PUT_BATCH_global";
+
     /**
      * @hide - Private call() method on OuvrirSettingsProvider to migrate Ouvrir settings
      */
@@ -169,6 +208,179 @@ public final class OuvrirSettings {
      */
     public static final String CALL_METHOD_DELETE_GLOBAL = "DELETE_global";
 
+    /**
+     * @hide - Private call() method returning the keys of the calling user that changed since
+     * a version of the provider's change journal, see {@link #CALL_METHOD_JOURNAL_VERSION_KEY}
+     */
+    public static final String CALL_METHOD_GET_CHANGES = "GET_CHANGES";
+
+    /**
+     * @hide - Private call() method exporting the table named by the request argument, or all
+     * tables if there is none, as a binary snapshot under {@link #CALL_METHOD_SNAPSHOT_KEY}
+     */
+    public static final String CALL_METHOD_EXPORT_SNAPSHOT = "EXPORT_SNAPSHOT";
+
+    /**
+     * @hide - Private call() method writing a snapshot made by
+     * {@link #CALL_METHOD_EXPORT_SNAPSHOT}. Every row is validated before any is written, and
+     * the rows of a database are written in a single transaction. Throws
+     * IllegalStateException if a row can't be written, databases committed before stay
+     * imported.
+     */
+    public static final String CALL_METHOD_IMPORT_SNAPSHOT = "IMPORT_SNAPSHOT";
+
+    /**
+     * @hide - Argument extra to the CALL_METHOD_GET_* methods asking for the generation of the
+     * requested key. If set to true, the shared memory array holding the generations is
+     * returned under the same key.
+     */
+    public static final String CALL_METHOD_TRACK_GENERATION_KEY = "_track_generation";
+
+    /**
+     * @hide - Result extra holding the index of a key's generation in the generation array
+     */
+    public static final String CALL_METHOD_GENERATION_INDEX_KEY = "_generation_index";
+
+    /**
+     * @hide - Result extra holding the generation of a key at the time it was read
+     */
+    public static final String CALL_METHOD_GENERATION_KEY = "_generation";
+
+    /**
+     * @hide - Argument extra to the CALL_METHOD_GET_BATCH_* and CALL_METHOD_PUT_BATCH_* methods
+     * holding the keys
+     */
+    public static final String CALL_METHOD_NAMES_KEY = "_names";
+
+    /**
+     * @hide - Result extra of the CALL_METHOD_GET_BATCH_* methods, and argument extra to the
+     * CALL_METHOD_PUT_BATCH_* methods, holding the values in the same order as the keys
+     */
+    public static final String CALL_METHOD_VALUES_KEY = "_values";
+
+    /**
+     * @hide - Batch counterpart of {@link #CALL_METHOD_GENERATION_INDEX_KEY}, in the same order
+     * as the requested keys
+     */
+    public static final String CALL_METHOD_GENERATION_INDICES_KEY = "_generation_indices";
+
+    /**
+     * @hide - Batch counterpart of {@link #CALL_METHOD_GENERATION_KEY}, in the same order as the
+     * requested keys
+     */
+    public static final String CALL_METHOD_GENERATIONS_KEY = "_generations";
+
+    /**
+     * @hide - Optional argument extra to the CALL_METHOD_LIST_* methods. If the table holds more
+     * rows than this, no list is returned.
+     */
+    public static final String CALL_METHOD_LIMIT_KEY = "_limit";
+
+    /**
+     * @hide - Result extra of the CALL_METHOD_LIST_* methods holding the "name=value" rows
+     */
+    public static final String CALL_METHOD_LIST_RESULT_KEY = "result_settings_list";
+
+    /**
+     * @hide - Optional argument extra to the CALL_METHOD_LIST_* methods selecting the result
+     * format, one of the CALL_METHOD_LIST_FORMAT_* values
+     */
+    public static final String CALL_METHOD_LIST_FORMAT_KEY = "_list_format";
+
+    /**
+     * @hide - "name=value" rows under {@link #CALL_METHOD_LIST_RESULT_KEY}, the default
+     */
+    public static final int CALL_METHOD_LIST_FORMAT_LINES = 0;
+
+    /**
+     * @hide - Parallel arrays under {@link #CALL_METHOD_LIST_NAMES_KEY} and
+     * {@link #CALL_METHOD_LIST_VALUES_KEY}
+     */
+    public static final int CALL_METHOD_LIST_FORMAT_ARRAYS = 1;
+
+    /**
+     * @hide - A single string under {@link #CALL_METHOD_LIST_PACKED_KEY}
+     */
+    public static final int CALL_METHOD_LIST_FORMAT_PACKED = 2;
+
+    /**
+     * @hide - Result extra of the CALL_METHOD_LIST_* methods holding the names of the rows
+     */
+    public static final String CALL_METHOD_LIST_NAMES_KEY = "_list_names";
+
+    /**
+     * @hide - Result extra of the CALL_METHOD_LIST_* methods holding the values of the rows, in
+     * the same order as {@link #CALL_METHOD_LIST_NAMES_KEY}
+     */
+    public static final String CALL_METHOD_LIST_VALUES_KEY = "_list_values";
+
+    /**
+     * @hide - Result extra of the CALL_METHOD_LIST_* methods holding the rows as one string, for
+     * tools that only see the printed result. The row count is followed by ';', then each name
+     * and value is written as its length, ':' and its characters. A null is written as "-1:".
+     * For example, 2;3:foo1:14:bar_-1: holds foo=1 and bar_=null.
+     */
+    public static final String CALL_METHOD_LIST_PACKED_KEY = "_list_packed";
+
+    /**
+     * @hide - Argument and result extra of {@link #CALL_METHOD_GET_CHANGES} identifying the
+     * change journal. Versions are only comparable within the same journal, a new one is
+     * started whenever the provider starts.
+     */
+    public static final String CALL_METHOD_JOURNAL_ID_KEY = "_journal_id";
+
+    /**
+     * @hide - Argument extra of {@link #CALL_METHOD_GET_CHANGES} holding the journal version
+     * the caller is up to date with. The result holds the current version under the same key,
+     * to pass in the next time. A caller without a version should resync and then use this.
+     */
+    public static final String CALL_METHOD_JOURNAL_VERSION_KEY = "_journal_version";
+
+    /**
+     * @hide - Result extra of {@link #CALL_METHOD_GET_CHANGES}, true if the changes since the
+     * given version are no longer known, or the journal is a different one. The caller has to
+     * read all the settings it cares about again.
+     */
+    public static final String CALL_METHOD_RESYNC_KEY = "_resync";
+
+    /**
+     * @hide - Result extra of {@link #CALL_METHOD_GET_CHANGES} holding the tables of the
+     * changes, oldest first. A null table means every table of the user changed.
+     */
+    public static final String CALL_METHOD_CHANGED_TABLES_KEY = "_changed_tables";
+
+    /**
+     * @hide - Result extra of {@link #CALL_METHOD_GET_CHANGES} holding the names of the
+     * changed keys, in the same order as {@link #CALL_METHOD_CHANGED_TABLES_KEY}. A null name
+     * means the whole table changed. A key may show up more than once.
+     */
+    public static final String CALL_METHOD_CHANGED_NAMES_KEY = "_changed_names";
+
+    /**
+     * @hide - Result extra of {@link #CALL_METHOD_EXPORT_SNAPSHOT}, and argument extra of
+     * {@link #CALL_METHOD_IMPORT_SNAPSHOT}, holding the snapshot as a byte array
+     */
+    public static final String CALL_METHOD_SNAPSHOT_KEY = "_snapshot";
+
+    /**
+     * @hide - Same as {@link #CALL_METHOD_SNAPSHOT_KEY} with the snapshot as a Base64 string,
+     * for tools that only see the printed result or can only pass strings. Set to true in the
+     * arguments of {@link #CALL_METHOD_EXPORT_SNAPSHOT} to get the snapshot in this form.
+     */
+    public static final String CALL_METHOD_SNAPSHOT_BASE64_KEY = "_snapshot_base64";
+
+    /**
+     * @hide - Optional argument extra of {@link #CALL_METHOD_IMPORT_SNAPSHOT}. If true, the rows
+     * of the snapshot's tables that aren't in the snapshot are deleted.
+     */
+    public static final String CALL_METHOD_SNAPSHOT_REPLACE_KEY = "_snapshot_replace";
+
+    /**
+     * @hide - Result extra of {@link #CALL_METHOD_IMPORT_SNAPSHOT} holding the number of rows
+     * written
+     */
+    public static final String CALL_METHOD_SNAPSHOT_ROWS_KEY = "_snapshot_rows";
+
     // endregion
 
     private static final class ContentProviderHolder {
@@ -203,21 +415,61 @@ public final class OuvrirSettings {
                 new String[] { Settings.NameValueTable.VALUE };
         private static final String NAME_EQ_PLACEHOLDER = "name=?";
 
-        // Must synchronize on 'this' to access mValues and mValuesVersion.
-        private final HashMap<String, String> mValues = new HashMap<String, String>();
-        private long mValuesVersion = 0;
+        // Cache hits are served without locking: readers only see mValues, mValuesVersion and
+        // mGenerationArray through the map and the volatile fields. Writers must still
+        // synchronize on 'this', and clear the map before publishing a new version.
+        private final ConcurrentHashMap<String, CachedValue> mValues =
+                new ConcurrentHashMap<String, CachedValue>();
+        private volatile long mValuesVersion = 0;
+
+        // Per-key generations published by the provider. Once the provider has handed this
+        // out, entries are validated against it and the version system property is ignored.
+        private volatile MemoryIntArray mGenerationArray;
 
         // The method we'll call (or null, to not use) on the provider
         // for the fast path of retrieving settings.
         private final String mCallGetCommand;
+        private final String mCallGetBatchCommand;
         private final String mCallSetCommand;
+        private final String mCallSetBatchCommand;
+        private final String mCallListCommand;
+
+        // Tables with at most this many rows are loaded in full on the first miss after the
+        // cache was emptied, rather than one key at a time. Zero disables prefetching.
+        private final int mPrefetchThreshold;
+
+        // Caches of other users' settings, read by system services on behalf of the current
+        // user. These are only validated by the version system property. At most
+        // MAX_OTHER_USERS users are kept, the least recently used one is dropped first.
+        // Pseudo users like USER_CURRENT aren't cached, the provider resolves them to a
+        // different user after a user switch.
+        private static final int MAX_OTHER_USERS = 4;
+        private static final int MAX_OTHER_USER_ENTRIES = 128;
+        @GuardedBy("mOtherUsers")
+        private final SparseArray<OtherUserValues> mOtherUsers =
+                new SparseArray<OtherUserValues>();
+        @GuardedBy("mOtherUsers")
+        private long mOtherUsersClock = 0;
+
+        // Must synchronize on 'this' to access the prefetch state and counters.
+        private boolean mPrefetchPending = true;
+        private long mPrefetchCalls = 0;
+        private long mPrefetchedEntries = 0;
+        // Counted on the lock-free read path
+        private final AtomicLong mPrefetchedHits = new AtomicLong();
 
         public NameValueCache(String versionSystemProperty, Uri uri,
-                String getCommand, String setCommand, ContentProviderHolder providerHolder) {
+                String getCommand, String getBatchCommand, String setCommand,
+                String setBatchCommand, String listCommand, int prefetchThreshold,
+                ContentProviderHolder providerHolder) {
             mVersionSystemProperty = versionSystemProperty;
             mUri = uri;
             mCallGetCommand = getCommand;
+            mCallGetBatchCommand = getBatchCommand;
             mCallSetCommand = setCommand;
+            mCallSetBatchCommand = setBatchCommand;
+            mCallListCommand = listCommand;
+            mPrefetchThreshold = prefetchThreshold;
             mProviderHolder = providerHolder;
         }
 
@@ -245,6 +497,40 @@ public final class OuvrirSettings {
             return true;
         }
 
+        /**
+         * Puts several string name/value pairs into the content provider for the specified user.
+         * They are written in a single transaction, and observers are notified once.
+         * @param cr The content resolver to use.
+         * @param names The names of the keys to put into the content provider.
+         * @param values The values to put into the content provider, in the same order.
+         * @param userId The user id to use for the content provider.
+         * @return Whether the put was successful.
+         */
+        public boolean putStringsForUser(ContentResolver cr, String[] names, String[] values,
+                final int userId) {
+            if (mCallSetBatchCommand == null) {
+                for (int i = 0; i < names.length; i++) {
+                    if (!putStringForUser(cr, names[i], values[i], userId)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            try {
+                Bundle arg = new Bundle();
+                arg.putStringArray(CALL_METHOD_NAMES_KEY, names);
+                arg.putStringArray(CALL_METHOD_VALUES_KEY, values);
+                arg.putInt(CALL_METHOD_USER_KEY, userId);
+                IContentProvider cp = mProviderHolder.getProvider(cr);
+                cp.call(cr.getAttributionSource(),
+                        mProviderHolder.mUri.getAuthority(), mCallSetBatchCommand, null, arg);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Can't set " + names.length + " keys in " + mUri, e);
+                return false;
+            }
+            return true;
+        }
+
         /**
          * Gets a string value with the specified name from the name/value cache if possible. If
          * not, it will use the content resolver and perform a query.
@@ -255,28 +541,59 @@ public final class OuvrirSettings {
          * @return The string value of the specified key.
          */
         public String getStringForUser(ContentResolver cr, String name, final int userId) {
+            return getValueForUser(cr, name, userId).mValue;
+        }
+
+        /**
+         * Like {@link #getStringForUser}, but returns the cache entry, which also holds the
+         * parsed forms of the value. On cache hits this is the cached entry itself, so
+         * the parsing is done once per value.
+         * @return The entry of the specified key, never null.
+         */
+        CachedValue getValueForUser(ContentResolver cr, String name, final int userId) {
             final boolean isSelf = (userId == UserHandle.myUserId());
+            boolean needsGenerationArray = false;
             if (isSelf) {
                 if (LOCAL_LOGV) Log.d(TAG, "get setting for self");
-                long newValuesVersion = SystemProperties.getLong(mVersionSystemProperty, 0);
 
                 // Our own user's settings data uses a client-side cache
+                final CachedValue hit = getCached(name);
+                if (hit != null) {
+                    return hit;  // Value could be null, that's OK -- negative caching
+                }
+
+                boolean prefetch;
                 synchronized (NameValueCache.this) {
-                    if (mValuesVersion != newValuesVersion) {
-                        if (LOCAL_LOGV || false) {
-                            Log.v(TAG, "invalidate [" + mUri.getLastPathSegment() + "]: current "
-                                    + newValuesVersion + " != cached " + mValuesVersion);
-                        }
+                    checkVersionLocked();
+                    final CachedValue cached = getCurrent(name);
+                    if (cached != null) {
+                        return cached;  // Value could be null, that's OK -- negative caching
+                    }
+                    needsGenerationArray = (mGenerationArray == null);
+                    prefetch = shouldPrefetchLocked();
+                }
 
-                        mValues.clear();
-                        mValuesVersion = newValuesVersion;
-                    } else if (mValues.containsKey(name)) {
-                        return mValues.get(name);  // Could be null, that's OK -- negative caching
+                if (prefetch && prefetch(cr, needsGenerationArray)) {
+                    synchronized (NameValueCache.this) {
+                        final CachedValue cached = getCurrent(name);
+                        if (cached != null) {
+                            return cached;
+                        }
+                        needsGenerationArray = (mGenerationArray == null);
                     }
                 }
-            } else {
+            }
+
+            // Read before the fetch, so a value that changes meanwhile isn't cached
+            final long otherUserVersion = isSelf
+                    ? 0 : SystemProperties.getLong(mVersionSystemProperty, 0);
+            if (!isSelf) {
+                final CachedValue cached = getOtherUserCached(userId, name, otherUserVersion);
+                if (cached != null) {
+                    return cached;
+                }
                 if (LOCAL_LOGV) Log.v(TAG, "get setting for user " + userId
-                        + " by user " + UserHandle.myUserId() + " so skipping cache");
+                        + " by user " + UserHandle.myUserId() + " not in cache");
             }
 
             IContentProvider cp = mProviderHolder.getProvider(cr);
@@ -287,26 +604,26 @@ public final class OuvrirSettings {
             // interface.
             if (mCallGetCommand != null) {
                 try {
-                    Bundle args = null;
-                    if (!isSelf) {
-                        args = new Bundle();
+                    Bundle args = new Bundle();
+                    if (isSelf) {
+                        args.putBoolean(CALL_METHOD_TRACK_GENERATION_KEY, needsGenerationArray);
+                    } else {
                         args.putInt(CALL_METHOD_USER_KEY, userId);
                     }
                     Bundle b = cp.call(cr.getAttributionSource(),
                             mProviderHolder.mUri.getAuthority(), mCallGetCommand, name, args);
                     if (b != null) {
-                        String value = b.getPairValue();
-                        // Don't update our cache for reads of other users' data
+                        String value = b.getString(Settings.NameValueTable.VALUE);
+                        // Other users' data is only validated by the version property
                         if (isSelf) {
                             synchronized (NameValueCache.this) {
-                                mValues.put(name, value);
+                                adoptGenerationArrayLocked(b);
+                                return putLocked(name, value,
+                                        b.getInt(CALL_METHOD_GENERATION_INDEX_KEY, -1),
+                                        b.getInt(CALL_METHOD_GENERATION_KEY, 0));
                             }
-                        } else {
-                            if (LOCAL_LOGV) Log.i(TAG, "call-query of user " + userId
-                                    + " by " + UserHandle.myUserId()
-                                    + " so not updating cache");
                         }
-                        return value;
+                        return putOtherUser(userId, name, value, otherUserVersion);
                     }
                     // If the response Bundle is null, we fall through
                     // to the query interface below.
@@ -324,25 +641,581 @@ public final class OuvrirSettings {
                         SELECT_VALUE_PROJECTION, queryArgs, null);
                 if (c == null) {
                     Log.w(TAG, "Can't get key " + name + " from " + mUri);
-                    return null;
+                    return CachedValue.MISSING;
                 }
 
                 String value = c.moveToNext() ? c.getString(0) : null;
-                synchronized (NameValueCache.this) {
-                    mValues.put(name, value);
+                final CachedValue entry;
+                if (isSelf) {
+                    synchronized (NameValueCache.this) {
+                        entry = putLocked(name, value, -1, 0);
+                    }
+                } else {
+                    entry = putOtherUser(userId, name, value, otherUserVersion);
                 }
                 if (LOCAL_LOGV) {
                     Log.v(TAG, "cache miss [" + mUri.getLastPathSegment() + "]: " +
                             name + " = " + (value == null ? "(null)" : value));
                 }
-                return value;
+                return entry;
             } catch (RemoteException e) {
                 Log.w(TAG, "Can't get key " + name + " from " + mUri, e);
-                return null;  // Return null, but don't cache it.
+                return CachedValue.MISSING;  // Return null, but don't cache it.
             } finally {
                 if (c != null) c.close();
             }
         }
+
+        /**
+         * Gets several string values at once. Values that are not in the name/value cache are
+         * fetched from the content provider with a single call.
+         * @param cr Content resolver to use for the values that are not cached.
+         * @param names The names of the keys to search for.
+         * @param userId The user id of the cache to look in.
+         * @return The string values of the specified keys, in the same order as the names.
+         */
+        public String[] getStringsForUser(ContentResolver cr, String[] names, final int userId) {
+            final String[] values = new String[names.length];
+            final boolean isSelf = (userId == UserHandle.myUserId());
+
+            // Indices into names of the keys that have to be fetched
+            int[] missing = new int[names.length];
+            int missingCount = 0;
+            boolean needsGenerationArray = false;
+            if (isSelf) {
+                for (int i = 0; i < names.length; i++) {
+                    final CachedValue cached = getCached(names[i]);
+                    if (cached != null) {
+                        values[i] = cached.mValue;
+                    } else {
+                        missing[missingCount++] = i;
+                    }
+                }
+                if (missingCount == 0) {
+                    return values;
+                }
+
+                boolean prefetch;
+                synchronized (NameValueCache.this) {
+                    checkVersionLocked();
+                    needsGenerationArray = (mGenerationArray == null);
+                    prefetch = shouldPrefetchLocked();
+                }
+                if (prefetch) {
+                    prefetch(cr, needsGenerationArray);
+                }
+
+                synchronized (NameValueCache.this) {
+                    checkVersionLocked();
+                    final int candidates = missingCount;
+                    missingCount = 0;
+                    for (int i = 0; i < candidates; i++) {
+                        final CachedValue cached = getCurrent(names[missing[i]]);
+                        if (cached != null) {
+                            values[missing[i]] = cached.mValue;
+                        } else {
+                            missing[missingCount++] = missing[i];
+                        }
+                    }
+                    needsGenerationArray = (mGenerationArray == null);
+                }
+            }
+
+            final long otherUserVersion = isSelf
+                    ? 0 : SystemProperties.getLong(mVersionSystemProperty, 0);
+            if (!isSelf) {
+                for (int i = 0; i < names.length; i++) {
+                    final CachedValue cached =
+                            getOtherUserCached(userId, names[i], otherUserVersion);
+                    if (cached != null) {
+                        values[i] = cached.mValue;
+                    } else {
+                        missing[missingCount++] = i;
+                    }
+                }
+            }
+
+            if (missingCount == 0) {
+                return values;
+            }
+
+            final String[] missingNames = new String[missingCount];
+            for (int i = 0; i < missingCount; i++) {
+                missingNames[i] = names[missing[i]];
+            }
+
+            Bundle b = null;
+            if (mCallGetBatchCommand != null) {
+                try {
+                    Bundle args = new Bundle();
+                    args.putStringArray(CALL_METHOD_NAMES_KEY, missingNames);
+                    if (isSelf) {
+                        args.putBoolean(CALL_METHOD_TRACK_GENERATION_KEY, needsGenerationArray);
+                    } else {
+                        args.putInt(CALL_METHOD_USER_KEY, userId);
+                    }
+                    IContentProvider cp = mProviderHolder.getProvider(cr);
+                    b = cp.call(cr.getAttributionSource(),
+                            mProviderHolder.mUri.getAuthority(), mCallGetBatchCommand, null,
+                            args);
+                } catch (RemoteException e) {
+                    // Not supported by the remote side?  Fall back to single lookups.
+                }
+            }
+
+            final String[] fetched = b != null ? b.getStringArray(CALL_METHOD_VALUES_KEY) : null;
+            if (fetched == null || fetched.length != missingCount) {
+                for (int i = 0; i < missingCount; i++) {
+                    values[missing[i]] = getStringForUser(cr, missingNames[i], userId);
+                }
+                return values;
+            }
+
+            for (int i = 0; i < missingCount; i++) {
+                values[missing[i]] = fetched[i];
+            }
+            if (!isSelf) {
+                for (int i = 0; i < missingCount; i++) {
+                    putOtherUser(userId, missingNames[i], fetched[i], otherUserVersion);
+                }
+            } else {
+                final int[] indices = b.getIntArray(CALL_METHOD_GENERATION_INDICES_KEY);
+                final int[] generations = b.getIntArray(CALL_METHOD_GENERATIONS_KEY);
+                final boolean hasGenerations = indices != null && generations != null
+                        && indices.length == missingCount && generations.length == missingCount;
+                synchronized (NameValueCache.this) {
+                    adoptGenerationArrayLocked(b);
+                    for (int i = 0; i < missingCount; i++) {
+                        putLocked(missingNames[i], fetched[i],
+                                hasGenerations ? indices[i] : -1,
+                                hasGenerations ? generations[i] : 0);
+                    }
+                }
+            }
+            if (LOCAL_LOGV) {
+                Log.v(TAG, "batch fetched " + missingCount + " of " + names.length + " keys from "
+                        + mUri.getLastPathSegment());
+            }
+            return values;
+        }
+
+        /**
+         * Loads the whole table into the cache with a single call to the provider, as long as
+         * it is not larger than the prefetch threshold.
+         * @return Whether the cache was filled.
+         */
+        private boolean prefetch(ContentResolver cr, boolean needsGenerationArray) {
+            final long version = SystemProperties.getLong(mVersionSystemProperty, 0);
+            final Bundle b;
+            try {
+                Bundle args = new Bundle();
+                args.putInt(CALL_METHOD_LIMIT_KEY, mPrefetchThreshold);
+                args.putInt(CALL_METHOD_LIST_FORMAT_KEY, CALL_METHOD_LIST_FORMAT_ARRAYS);
+                args.putBoolean(CALL_METHOD_TRACK_GENERATION_KEY, needsGenerationArray);
+                IContentProvider cp = mProviderHolder.getProvider(cr);
+                b = cp.call(cr.getAttributionSource(),
+                        mProviderHolder.mUri.getAuthority(), mCallListCommand, null, args);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Can't prefetch " + mUri, e);
+                return false;
+            }
+
+            String[] names = b != null ? b.getStringArray(CALL_METHOD_LIST_NAMES_KEY) : null;
+            String[] values = b != null ? b.getStringArray(CALL_METHOD_LIST_VALUES_KEY) : null;
+            if (names == null && b != null) {
+                // The provider doesn't know the array format, split the "name=value" rows
+                final ArrayList<String> rows = b.getStringArrayList(CALL_METHOD_LIST_RESULT_KEY);
+                if (rows != null) {
+                    names = new String[rows.size()];
+                    values = new String[rows.size()];
+                    for (int i = 0; i < rows.size(); i++) {
+                        final String row = rows.get(i);
+                        final int separator = row.indexOf('=');
+                        names[i] = separator < 0 ? row : row.substring(0, separator);
+                        final String value = separator < 0 ? null : row.substring(separator + 1);
+                        values[i] = "null".equals(value) ? null : value;
+                    }
+                }
+            }
+            if (names == null || values == null || names.length != values.length) {
+                if (LOCAL_LOGV) Log.v(TAG, "not prefetching " + mUri + ", table too large");
+                return false;
+            }
+            final int[] indices = b.getIntArray(CALL_METHOD_GENERATION_INDICES_KEY);
+            final int[] generations = b.getIntArray(CALL_METHOD_GENERATIONS_KEY);
+            final boolean hasGenerations = indices != null && generations != null
+                    && indices.length == names.length && generations.length == names.length;
+
+            synchronized (NameValueCache.this) {
+                adoptGenerationArrayLocked(b);
+                if (mGenerationArray == null
+                        && version != SystemProperties.getLong(mVersionSystemProperty, 0)) {
+                    // The table changed while we were reading it
+                    return false;
+                }
+                mPrefetchCalls++;
+                for (int i = 0; i < names.length; i++) {
+                    putLocked(names[i], values[i],
+                            hasGenerations ? indices[i] : -1,
+                            hasGenerations ? generations[i] : 0);
+                    mValues.get(names[i]).mPrefetched = true;
+                    mPrefetchedEntries++;
+                }
+            }
+            if (LOCAL_LOGV) Log.v(TAG, "prefetched " + names.length + " keys from " + mUri);
+            return true;
+        }
+
+        /**
+         * Returns whether a miss should load the whole table, and if so, marks the prefetch
+         * as done until the cache is emptied again.
+         * Must be called with 'this' held.
+         */
+        private boolean shouldPrefetchLocked() {
+            if (!mPrefetchPending || mPrefetchThreshold <= 0 || mCallListCommand == null) {
+                return false;
+            }
+            mPrefetchPending = false;
+            return true;
+        }
+
+        /**
+         * Drops the cache if the version system property changed. Once the provider handed
+         * out a generation array, entries are validated individually instead.
+         * Must be called with 'this' held.
+         */
+        private void checkVersionLocked() {
+            if (mGenerationArray != null) {
+                return;
+            }
+            long newValuesVersion = SystemProperties.getLong(mVersionSystemProperty, 0);
+            if (mValuesVersion != newValuesVersion) {
+                if (LOCAL_LOGV || false) {
+                    Log.v(TAG, "invalidate [" + mUri.getLastPathSegment() + "]: current "
+                            + newValuesVersion + " != cached " + mValuesVersion);
+                }
+
+                // Lock-free readers that see the new version must not see the old entries
+                mValues.clear();
+                mValuesVersion = newValuesVersion;
+                mPrefetchPending = true;
+            }
+        }
+
+        void dump(PrintWriter pw) {
+            synchronized (NameValueCache.this) {
+                // The call that triggered each prefetch would have been made anyway
+                final long saved = Math.max(0, mPrefetchedHits.get() - mPrefetchCalls);
+                pw.println("  " + mUri.getLastPathSegment() + ": entries=" + mValues.size()
+                        + " tracked=" + (mGenerationArray != null)
+                        + " prefetchThreshold=" + mPrefetchThreshold
+                        + " prefetches=" + mPrefetchCalls
+                        + " prefetchedEntries=" + mPrefetchedEntries
+                        + " binderCallsSaved=" + saved);
+            }
+            synchronized (mOtherUsers) {
+                for (int i = 0; i < mOtherUsers.size(); i++) {
+                    final OtherUserValues values = mOtherUsers.valueAt(i);
+                    pw.println("    user " + mOtherUsers.keyAt(i) + ": entries=" + values.size()
+                            + " hits=" + values.hitCount() + " misses=" + values.missCount()
+                            + " evictions=" + values.evictionCount());
+                }
+            }
+        }
+
+        /**
+         * Returns the cached entry for a key of another user, or null on a miss.
+         * @param version The current value of the version system property.
+         */
+        private CachedValue getOtherUserCached(int userId, String name, long version) {
+            if (userId < 0) {
+                return null;
+            }
+            synchronized (mOtherUsers) {
+                final OtherUserValues values = mOtherUsers.get(userId);
+                if (values == null) {
+                    return null;
+                }
+                values.mLastUsed = ++mOtherUsersClock;
+                if (values.mVersion != version) {
+                    values.evictAll();
+                    values.mVersion = version;
+                    return null;
+                }
+                return values.get(name);
+            }
+        }
+
+        /**
+         * Caches a value of another user, unless the table changed since it was fetched or the
+         * user is a pseudo user.
+         * @param version The value of the version system property before the fetch.
+         * @return The new cache entry.
+         */
+        private CachedValue putOtherUser(int userId, String name, String value, long version) {
+            final CachedValue cached = new CachedValue(value, -1, 0);
+            if (userId < 0 || version != SystemProperties.getLong(mVersionSystemProperty, 0)) {
+                return cached;
+            }
+            synchronized (mOtherUsers) {
+                OtherUserValues values = mOtherUsers.get(userId);
+                if (values == null) {
+                    if (mOtherUsers.size() >= MAX_OTHER_USERS) {
+                        int eldest = 0;
+                        for (int i = 1; i < mOtherUsers.size(); i++) {
+                            if (mOtherUsers.valueAt(i).mLastUsed
+                                    < mOtherUsers.valueAt(eldest).mLastUsed) {
+                                eldest = i;
+                            }
+                        }
+                        mOtherUsers.removeAt(eldest);
+                    }
+                    values = new OtherUserValues();
+                    values.mVersion = version;
+                    mOtherUsers.put(userId, values);
+                } else if (values.mVersion != version) {
+                    values.evictAll();
+                    values.mVersion = version;
+                }
+                values.mLastUsed = ++mOtherUsersClock;
+                values.put(name, cached);
+            }
+            return cached;
+        }
+
+        /**
+         * Returns the cached entry for a key if it is still current, or null on a miss or if
+         * the cache has to be dropped first. Doesn't lock or allocate, so hits never block.
+         */
+        private CachedValue getCached(String name) {
+            if (mGenerationArray == null
+                    && mValuesVersion != SystemProperties.getLong(mVersionSystemProperty, 0)) {
+                // Leave the clearing to checkVersionLocked
+                return null;
+            }
+            return getCurrent(name);
+        }
+
+        /**
+         * Returns the cached entry for a key if it is still current according to the
+         * generation array, or null on a miss. The version system property has to be checked
+         * by the caller.
+         */
+        private CachedValue getCurrent(String name) {
+            final CachedValue cached = mValues.get(name);
+            if (cached == null) {
+                return null;
+            }
+            final MemoryIntArray generationArray = mGenerationArray;
+            if (generationArray != null && !isCurrent(generationArray, cached)) {
+                return null;
+            }
+            if (cached.mPrefetched) {
+                // First use of a prefetched entry, this would have been a binder call. Racing
+                // readers may both count it, which is fine for a statistic.
+                cached.mPrefetched = false;
+                mPrefetchedHits.incrementAndGet();
+            }
+            return cached;
+        }
+
+        /**
+         * Takes ownership of the generation array in a call() result, if there is one.
+         * Must be called with 'this' held.
+         */
+        private void adoptGenerationArrayLocked(Bundle b) {
+            final MemoryIntArray array = b.getParcelable(CALL_METHOD_TRACK_GENERATION_KEY);
+            if (array != null) {
+                if (mGenerationArray == null) {
+                    mGenerationArray = array;
+                } else {
+                    closeQuietly(array);
+                }
+            }
+        }
+
+        /**
+         * Caches a value along with the generation the provider returned for it.
+         * Must be called with 'this' held.
+         * @param generationIndex Index into the generation array, or -1 if there is none.
+         * @return The new cache entry.
+         */
+        private CachedValue putLocked(String name, String value, int generationIndex,
+                int generation) {
+            final CachedValue cached = new CachedValue(value,
+                    mGenerationArray != null ? generationIndex : -1, generation);
+            mValues.put(name, cached);
+            return cached;
+        }
+
+        /**
+         * Returns whether a cached value is still current according to the generation array.
+         */
+        private boolean isCurrent(MemoryIntArray generationArray, CachedValue cached) {
+            if (cached.mGenerationIndex < 0) {
+                return false;
+            }
+            try {
+                return generationArray.get(cached.mGenerationIndex) == cached.mGeneration;
+            } catch (IOException e) {
+                Log.w(TAG, "Error reading generation for " + mUri + ", dropping cache", e);
+                dropGenerationArray(generationArray);
+                return false;
+            }
+        }
+
+        private void dropGenerationArray(MemoryIntArray generationArray) {
+            synchronized (NameValueCache.this) {
+                if (mGenerationArray != generationArray) {
+                    // Another reader got here first
+                    return;
+                }
+                closeQuietly(generationArray);
+                mGenerationArray = null;
+                mValues.clear();
+                // Fall back to the version property from now on
+                mValuesVersion = -1;
+                mPrefetchPending = true;
+            }
+        }
+
+        private static void closeQuietly(MemoryIntArray array) {
+            try {
+                array.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+
+        private static final class OtherUserValues extends LruCache<String, CachedValue> {
+            // The version system property the entries were read at
+            long mVersion;
+            // When the user was last read or written, to pick the user to drop
+            long mLastUsed;
+
+            OtherUserValues() {
+                super(MAX_OTHER_USER_ENTRIES);
+            }
+        }
+
+        static final class CachedValue {
+            // Returned when the provider couldn't be reached, never cached
+            static final CachedValue MISSING = new CachedValue(null, -1, 0);
+
+            private static final int INT_PARSED = 1 << 0;
+            private static final int INT_VALID = 1 << 1;
+            private static final int LONG_PARSED = 1 << 2;
+            private static final int LONG_VALID = 1 << 3;
+            private static final int FLOAT_PARSED = 1 << 4;
+            private static final int FLOAT_VALID = 1 << 5;
+
+            final String mValue;
+            // Index into the generation array, or -1 if only tracked by the version property
+            final int mGenerationIndex;
+            final int mGeneration;
+            // Whether the entry was loaded by a prefetch and has not been read since
+            volatile boolean mPrefetched;
+
+            // Which parsed forms of mValue have been computed, and whether they are valid. The
+            // parsed fields are written before the flags are published. Racing readers may
+            // drop each other's flags, which only means a value gets parsed again.
+            private volatile int mParsed;
+            private int mInt;
+            private long mLong;
+            private float mFloat;
+
+            CachedValue(String value, int generationIndex, int generation) {
+                mValue = value;
+                mGenerationIndex = generationIndex;
+                mGeneration = generation;
+            }
+
+            /** Returns whether the value is a valid integer, see {@link #getInt}. */
+            boolean hasInt() {
+                int parsed = mParsed;
+                if ((parsed & INT_PARSED) == 0) {
+                    int flags = INT_PARSED;
+                    if (mValue != null) {
+                        try {
+                            mInt = Integer.parseInt(mValue);
+                            flags |= INT_VALID;
+                        } catch (NumberFormatException e) {
+                            // Remembered as invalid
+                        }
+                    }
+                    parsed = publish(flags);
+                }
+                return (parsed & INT_VALID) != 0;
+            }
+
+            /** Returns the value as an integer, only valid if {@link #hasInt} returned true. */
+            int getInt() {
+                return mInt;
+            }
+
+            /** Returns whether the value is a valid long, see {@link #getLong}. */
+            boolean hasLong() {
+                int parsed = mParsed;
+                if ((parsed & LONG_PARSED) == 0) {
+                    int flags = LONG_PARSED;
+                    if (mValue != null) {
+                        try {
+                            mLong = Long.parseLong(mValue);
+                            flags |= LONG_VALID;
+                        } catch (NumberFormatException e) {
+                            // Remembered as invalid
+                        }
+                    }
+                    parsed = publish(flags);
+                }
+                return (parsed & LONG_VALID) != 0;
+            }
+
+            /** Returns the value as a long, only valid if {@link #hasLong} returned true. */
+            long getLong() {
+                return mLong;
+            }
+
+            /** Returns whether the value is a valid float, see {@link #getFloat}. */
+            boolean hasFloat() {
+                int parsed = mParsed;
+                if ((parsed & FLOAT_PARSED) == 0) {
+                    int flags = FLOAT_PARSED;
+                    if (mValue != null) {
+                        try {
+                            mFloat = Float.parseFloat(mValue);
+                            flags |= FLOAT_VALID;
+                        } catch (NumberFormatException e) {
+                            // Remembered as invalid
+                        }
+                    }
+                    parsed = publish(flags);
+                }
+                return (parsed & FLOAT_VALID) != 0;
+            }
+
+            /** Returns the value as a float, only valid if {@link #hasFloat} returned true. */
+            float getFloat() {
+                return mFloat;
+            }
+
+            private int publish(int flags) {
+                final int parsed = mParsed | flags;
+                mParsed = parsed;
+                return parsed;
+            }
+        }
+    }
+
+    /**
+     * Dumps the state of the client-side caches of this process.
+     * @hide
+     */
+    public static void dumpCaches(PrintWriter pw) {
+        pw.println("OuvrirSettings caches:");
+        System.sNameValueCache.dump(pw);
+        Secure.sNameValueCache.dump(pw);
+        Global.sNameValueCache.dump(pw);
     }
 
     // region Validators
@@ -355,16 +1228,8 @@ public final class OuvrirSettings {
     private static final Validator sBooleanValidator =
             new DiscreteValueValidator(new String[] {"0", "1"});
 
-    private static final Validator sNonNegativeIntegerValidator = new Validator() {
-        @Override
-        public boolean validate(String value) {
-            try {
-                return Integer.parseInt(value) >= 0;
-            } catch (NumberFormatException e) {
-                return false;
-            }
-        }
-    };
+    private static final Validator sNonNegativeIntegerValidator =
+            new InclusiveIntegerRangeValidator(0, Integer.MAX_VALUE);
 
     private static final Validator sUriValidator = new Validator() {
         @Override
@@ -395,16 +1260,19 @@ public final class OuvrirSettings {
         }
     };
 
+    // The validators below run on every settings write, so they avoid allocating: values are
+    // scanned in place instead of being split, parsed through exceptions or boxed.
+
     private static final class DiscreteValueValidator implements Validator {
-        private final String[] mValues;
+        private final StringHashSet mValues;
 
         public DiscreteValueValidator(String[] values) {
-            mValues = values;
+            mValues = new StringHashSet(values);
         }
 
         @Override
         public boolean validate(String value) {
-            return ArrayUtils.contains(mValues, value);
+            return value != null && mValues.contains(value, 0, value.length());
         }
     }
 
@@ -419,12 +1287,36 @@ public final class OuvrirSettings {
 
         @Override
         public boolean validate(String value) {
-            try {
-                final int intValue = Integer.parseInt(value);
-                return intValue >= mMin && intValue <= mMax;
-            } catch (NumberFormatException e) {
+            // Accepts what Integer.parseInt() accepts, without throwing for what it doesn't
+            if (value == null || value.isEmpty()) {
                 return false;
             }
+            final int length = value.length();
+            final char first = value.charAt(0);
+            final boolean negative = first == '-';
+            int i = (negative || first == '+') ? 1 : 0;
+            if (i == length) {
+                return false;
+            }
+            // Accumulated as a negative number, which has the larger range
+            long result = 0;
+            for (; i < length; i++) {
+                final int digit = Character.digit(value.charAt(i), 10);
+                if (digit < 0) {
+                    return false;
+                }
+                result = result * 10 - digit;
+                if (result < Integer.MIN_VALUE) {
+                    return false;
+                }
+            }
+            if (!negative) {
+                result = -result;
+                if (result > Integer.MAX_VALUE) {
+                    return false;
+                }
+            }
+            return result >= mMin && result <= mMax;
         }
     }
 
@@ -439,48 +1331,162 @@ public final class OuvrirSettings {
 
         @Override
         public boolean validate(String value) {
-            try {
-                final float floatValue = Float.parseFloat(value);
-                return floatValue >= mMin && floatValue <= mMax;
-            } catch (NumberFormatException e) {
+            if (value == null) {
+                return false;
+            }
+            if (!isDecimal(value)) {
+                if (value.indexOf('x') < 0 && value.indexOf('X') < 0
+                        && value.indexOf('N') < 0 && value.indexOf('I') < 0) {
+                    return false;
+                }
+                // Hexadecimal, NaN or Infinity, leave them to the real parser
+                try {
+                    final float floatValue = Float.parseFloat(value);
+                    return floatValue >= mMin && floatValue <= mMax;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            final float floatValue = Float.parseFloat(value);
+            return floatValue >= mMin && floatValue <= mMax;
+        }
+
+        /**
+         * Returns whether a value is a decimal number as accepted by Float.parseFloat(), with
+         * optional sign, exponent, type suffix and surrounding whitespace.
+         */
+        private static boolean isDecimal(String value) {
+            int end = value.length();
+            while (end > 0 && value.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            int i = 0;
+            while (i < end && value.charAt(i) <= ' ') {
+                i++;
+            }
+            if (i < end && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+                i++;
+            }
+            int digits = 0;
+            boolean point = false;
+            for (; i < end; i++) {
+                final char c = value.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    digits++;
+                } else if (c == '.' && !point) {
+                    point = true;
+                } else {
+                    break;
+                }
+            }
+            if (digits == 0) {
                 return false;
             }
+            if (i < end && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+                i++;
+                if (i < end && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+                    i++;
+                }
+                final int exponentStart = i;
+                while (i < end && value.charAt(i) >= '0' && value.charAt(i) <= '9') {
+                    i++;
+                }
+                if (i == exponentStart) {
+                    return false;
+                }
+            }
+            if (i == end - 1) {
+                final char suffix = value.charAt(i);
+                if (suffix == 'f' || suffix == 'F' || suffix == 'd' || suffix == 'D') {
+                    i++;
+                }
+            }
+            return i == end;
         }
     }
 
     private static final class DelimitedListValidator implements Validator {
-        private final ArraySet<String> mValidValueSet;
+        private final StringHashSet mValidValueSet;
         private final String mDelimiter;
         private final boolean mAllowEmptyList;
 
         public DelimitedListValidator(String[] validValues, String delimiter,
                                       boolean allowEmptyList) {
-            mValidValueSet = new ArraySet<String>(Arrays.asList(validValues));
+            mValidValueSet = new StringHashSet(validValues);
             mDelimiter = delimiter;
             mAllowEmptyList = allowEmptyList;
         }
 
         @Override
         public boolean validate(String value) {
-            ArraySet<String> values = new ArraySet<String>();
-            if (!TextUtils.isEmpty(value)) {
-                final String[] array = TextUtils.split(value, Pattern.quote(mDelimiter));
-                for (String item : array) {
-                    if (TextUtils.isEmpty(item)) {
-                        continue;
+            // Empty items are skipped, the list is valid if all others are valid values
+            boolean empty = true;
+            if (value != null) {
+                final int length = value.length();
+                int start = 0;
+                while (start <= length) {
+                    int end = value.indexOf(mDelimiter, start);
+                    if (end < 0) {
+                        end = length;
                     }
-                    values.add(item);
+                    if (end > start) {
+                        if (!mValidValueSet.contains(value, start, end)) {
+                            return false;
+                        }
+                        empty = false;
+                    }
+                    start = end + mDelimiter.length();
                 }
             }
-            if (values.size() > 0) {
-                values.removeAll(mValidValueSet);
-                // values.size() will be non-zero if it contains any values not in
-                // mValidValueSet
-                return values.size() == 0;
-            } else if (mAllowEmptyList) {
-                return true;
+            return !empty || mAllowEmptyList;
+        }
+    }
+
+    /**
+     * Immutable set of strings that can be looked up by a range of a larger string, so
+     * callers don't have to cut it out first. Strings are kept sorted by hash code.
+     */
+    private static final class StringHashSet {
+        private final int[] mHashes;
+        private final String[] mValues;
+
+        StringHashSet(String[] values) {
+            final String[] sorted = values.clone();
+            Arrays.sort(sorted, (a, b) -> Integer.compare(a.hashCode(), b.hashCode()));
+            mValues = sorted;
+            mHashes = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                mHashes[i] = sorted[i].hashCode();
             }
+        }
 
+        boolean contains(String s, int start, int end) {
+            // Same as String.hashCode() of the range, which is cached for whole strings
+            int hash;
+            if (start == 0 && end == s.length()) {
+                hash = s.hashCode();
+            } else {
+                hash = 0;
+                for (int i = start; i < end; i++) {
+                    hash = 31 * hash + s.charAt(i);
+                }
+            }
+            int index = Arrays.binarySearch(mHashes, hash);
+            if (index < 0) {
+                return false;
+            }
+            // binarySearch may land anywhere in a run of equal hashes
+            while (index > 0 && mHashes[index - 1] == hash) {
+                index--;
+            }
+            final int length = end - start;
+            for (; index < mHashes.length && mHashes[index] == hash; index++) {
+                final String candidate = mValues[index];
+                if (candidate.length() == length
+                        && candidate.regionMatches(0, s, start, length)) {
+                    return true;
+                }
+            }
             return false;
         }
     }
@@ -497,11 +1503,18 @@ public final class OuvrirSettings {
         private static final ContentProviderHolder sProviderHolder =
                 new ContentProviderHolder(CONTENT_URI);
 
+        // Most processes read a good part of the system table, so load it in one go
+        private static final int PREFETCH_THRESHOLD = 256;
+
         private static final NameValueCache sNameValueCache = new NameValueCache(
                 SYS_PROP_OUVRIR_SETTING_VERSION,
                 CONTENT_URI,
                 CALL_METHOD_GET_SYSTEM,
+                CALL_METHOD_GET_BATCH_SYSTEM,
                 CALL_METHOD_PUT_SYSTEM,
+                CALL_METHOD_PUT_BATCH_SYSTEM,
+                CALL_METHOD_LIST_SYSTEM,
+                PREFETCH_THRESHOLD,
                 sProviderHolder);
 
         /** @hide */
@@ -585,12 +1598,36 @@ public final class OuvrirSettings {
         /** @hide */
         public static String getStringForUser(ContentResolver resolver, String name,
                 int userId) {
+            return getValueForUser(resolver, name, userId).mValue;
+        }
+
+        private static NameValueCache.CachedValue getValueForUser(ContentResolver resolver,
+                String name, int userId) {
             if (MOVED_TO_SECURE.contains(name)) {
                 Log.w(TAG, "Setting " + name + " has moved from OuvrirSettings.System"
                         + " to OuvrirSettings.Secure, value is unchanged.");
-                return OuvrirSettings.Secure.getStringForUser(resolver, name, userId);
+                return OuvrirSettings.Secure.getValueForUser(resolver, name, userId);
             }
-            return sNameValueCache.getStringForUser(resolver, name, userId);
+            return sNameValueCache.getValueForUser(resolver, name, userId);
+        }
+
+        /**
+         * Look up several names in the database with a single call to the provider.
+         * @param resolver to access the database with
+         * @param names to look up in the table
+         * @param userId to look up the names for
+         * @return the corresponding values in the same order as names, null for names not present
+         * @hide
+         */
+        public static String[] getStringsForUser(ContentResolver resolver, String[] names,
+                int userId) {
+            final String[] values = sNameValueCache.getStringsForUser(resolver, names, userId);
+            for (int i = 0; i < names.length; i++) {
+                if (MOVED_TO_SECURE.contains(names[i])) {
+                    values[i] = getStringForUser(resolver, names[i], userId);
+                }
+            }
+            return values;
         }
 
         /**
@@ -615,6 +1652,27 @@ public final class OuvrirSettings {
             return sNameValueCache.putStringForUser(resolver, name, value, userId);
         }
 
+        /**
+         * Store several name/value pairs into the database in a single transaction.
+         * @param resolver to access the database with
+         * @param names to store
+         * @param values to associate with the names, in the same order
+         * @param userId to store the values for
+         * @return true if the values were set, false on database errors
+         * @hide
+         */
+        public static boolean putStringsForUser(ContentResolver resolver, String[] names,
+                String[] values, int userId) {
+            for (String name : names) {
+                if (MOVED_TO_SECURE.contains(name)) {
+                    Log.w(TAG, "Setting " + name + " has moved from OuvrirSettings.System"
+                            + " to OuvrirSettings.Secure, values are unchanged.");
+                    return false;
+                }
+            }
+            return sNameValueCache.putStringsForUser(resolver, names, values, userId);
+        }
+
         /**
          * Convenience function for retrieving a single settings value
          * as an integer.  Note that internally setting values are always
@@ -635,12 +1693,8 @@ public final class OuvrirSettings {
 
         /** @hide */
         public static int getIntForUser(ContentResolver cr, String name, int def, int userId) {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return v != null ? Integer.parseInt(v) : def;
-            } catch (NumberFormatException e) {
-                return def;
-            }
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            return v.hasInt() ? v.getInt() : def;
         }
 
         /**
@@ -669,12 +1723,11 @@ public final class OuvrirSettings {
         /** @hide */
         public static int getIntForUser(ContentResolver cr, String name, int userId)
                 throws OuvrirSettingNotFoundException {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return Integer.parseInt(v);
-            } catch (NumberFormatException e) {
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            if (!v.hasInt()) {
                 throw new OuvrirSettingNotFoundException(name);
             }
+            return v.getInt();
         }
 
         /**
@@ -721,14 +1774,8 @@ public final class OuvrirSettings {
         /** @hide */
         public static long getLongForUser(ContentResolver cr, String name, long def,
                 int userId) {
-            String valString = getStringForUser(cr, name, userId);
-            long value;
-            try {
-                value = valString != null ? Long.parseLong(valString) : def;
-            } catch (NumberFormatException e) {
-                value = def;
-            }
-            return value;
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            return v.hasLong() ? v.getLong() : def;
         }
 
         /**
@@ -756,12 +1803,11 @@ public final class OuvrirSettings {
         /** @hide */
         public static long getLongForUser(ContentResolver cr, String name, int userId)
                 throws OuvrirSettingNotFoundException {
-            String valString = getStringForUser(cr, name, userId);
-            try {
-                return Long.parseLong(valString);
-            } catch (NumberFormatException e) {
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            if (!v.hasLong()) {
                 throw new OuvrirSettingNotFoundException(name);
             }
+            return v.getLong();
         }
 
         /**
@@ -808,12 +1854,8 @@ public final class OuvrirSettings {
         /** @hide */
         public static float getFloatForUser(ContentResolver cr, String name, float def,
                 int userId) {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return v != null ? Float.parseFloat(v) : def;
-            } catch (NumberFormatException e) {
-                return def;
-            }
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            return v.hasFloat() ? v.getFloat() : def;
         }
 
         /**
@@ -842,15 +1884,11 @@ public final class OuvrirSettings {
         /** @hide */
         public static float getFloatForUser(ContentResolver cr, String name, int userId)
                 throws OuvrirSettingNotFoundException {
-            String v = getStringForUser(cr, name, userId);
-            if (v == null) {
-                throw new OuvrirSettingNotFoundException(name);
-            }
-            try {
-                return Float.parseFloat(v);
-            } catch (NumberFormatException e) {
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            if (!v.hasFloat()) {
                 throw new OuvrirSettingNotFoundException(name);
             }
+            return v.getFloat();
         }
 
         /**
@@ -2333,7 +3371,11 @@ public final class OuvrirSettings {
                 SYS_PROP_OUVRIR_SETTING_VERSION,
                 CONTENT_URI,
                 CALL_METHOD_GET_SECURE,
+                CALL_METHOD_GET_BATCH_SECURE,
                 CALL_METHOD_PUT_SECURE,
+                CALL_METHOD_PUT_BATCH_SECURE,
+                CALL_METHOD_LIST_SECURE,
+                0 /* prefetchThreshold */,
                 sProviderHolder);
 
         /** @hide */
@@ -2417,12 +3459,36 @@ public final class OuvrirSettings {
         /** @hide */
         public static String getStringForUser(ContentResolver resolver, String name,
                 int userId) {
+            return getValueForUser(resolver, name, userId).mValue;
+        }
+
+        private static NameValueCache.CachedValue getValueForUser(ContentResolver resolver,
+                String name, int userId) {
             if (MOVED_TO_GLOBAL.contains(name)) {
                 Log.w(TAG, "Setting " + name + " has moved from OuvrirSettings.Secure"
                         + " to OuvrirSettings.Global, value is unchanged.");
-                return OuvrirSettings.Global.getStringForUser(resolver, name, userId);
+                return OuvrirSettings.Global.getValueForUser(resolver, name, userId);
             }
-            return sNameValueCache.getStringForUser(resolver, name, userId);
+            return sNameValueCache.getValueForUser(resolver, name, userId);
+        }
+
+        /**
+         * Look up several names in the database with a single call to the provider.
+         * @param resolver to access the database with
+         * @param names to look up in the table
+         * @param userId to look up the names for
+         * @return the corresponding values in the same order as names, null for names not present
+         * @hide
+         */
+        public static String[] getStringsForUser(ContentResolver resolver, String[] names,
+                int userId) {
+            final String[] values = sNameValueCache.getStringsForUser(resolver, names, userId);
+            for (int i = 0; i < names.length; i++) {
+                if (MOVED_TO_GLOBAL.contains(names[i])) {
+                    values[i] = getStringForUser(resolver, names[i], userId);
+                }
+            }
+            return values;
         }
 
         /**
@@ -2447,6 +3513,27 @@ public final class OuvrirSettings {
             return sNameValueCache.putStringForUser(resolver, name, value, userId);
         }
 
+        /**
+         * Store several name/value pairs into the database in a single transaction.
+         * @param resolver to access the database with
+         * @param names to store
+         * @param values to associate with the names, in the same order
+         * @param userId to store the values for
+         * @return true if the values were set, false on database errors
+         * @hide
+         */
+        public static boolean putStringsForUser(ContentResolver resolver, String[] names,
+                String[] values, int userId) {
+            for (String name : names) {
+                if (MOVED_TO_GLOBAL.contains(name)) {
+                    Log.w(TAG, "Setting " + name + " has moved from OuvrirSettings.Secure"
+                            + " to OuvrirSettings.Global, values are unchanged.");
+                    return false;
+                }
+            }
+            return sNameValueCache.putStringsForUser(resolver, names, values, userId);
+        }
+
         /**
          * Convenience function for retrieving a single settings value
          * as an integer.  Note that internally setting values are always
@@ -2467,12 +3554,8 @@ public final class OuvrirSettings {
 
         /** @hide */
         public static int getIntForUser(ContentResolver cr, String name, int def, int userId) {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return v != null ? Integer.parseInt(v) : def;
-            } catch (NumberFormatException e) {
-                return def;
-            }
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            return v.hasInt() ? v.getInt() : def;
         }
 
         /**
@@ -2501,12 +3584,11 @@ public final class OuvrirSettings {
         /** @hide */
         public static int getIntForUser(ContentResolver cr, String name, int userId)
                 throws OuvrirSettingNotFoundException {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return Integer.parseInt(v);
-            } catch (NumberFormatException e) {
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            if (!v.hasInt()) {
                 throw new OuvrirSettingNotFoundException(name);
             }
+            return v.getInt();
         }
 
         /**
@@ -2553,14 +3635,8 @@ public final class OuvrirSettings {
         /** @hide */
         public static long getLongForUser(ContentResolver cr, String name, long def,
                 int userId) {
-            String valString = getStringForUser(cr, name, userId);
-            long value;
-            try {
-                value = valString != null ? Long.parseLong(valString) : def;
-            } catch (NumberFormatException e) {
-                value = def;
-            }
-            return value;
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            return v.hasLong() ? v.getLong() : def;
         }
 
         /**
@@ -2588,12 +3664,11 @@ public final class OuvrirSettings {
         /** @hide */
         public static long getLongForUser(ContentResolver cr, String name, int userId)
                 throws OuvrirSettingNotFoundException {
-            String valString = getStringForUser(cr, name, userId);
-            try {
-                return Long.parseLong(valString);
-            } catch (NumberFormatException e) {
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            if (!v.hasLong()) {
                 throw new OuvrirSettingNotFoundException(name);
             }
+            return v.getLong();
         }
 
         /**
@@ -2640,12 +3715,8 @@ public final class OuvrirSettings {
         /** @hide */
         public static float getFloatForUser(ContentResolver cr, String name, float def,
                 int userId) {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return v != null ? Float.parseFloat(v) : def;
-            } catch (NumberFormatException e) {
-                return def;
-            }
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            return v.hasFloat() ? v.getFloat() : def;
         }
 
         /**
@@ -2674,15 +3745,11 @@ public final class OuvrirSettings {
         /** @hide */
         public static float getFloatForUser(ContentResolver cr, String name, int userId)
                 throws OuvrirSettingNotFoundException {
-            String v = getStringForUser(cr, name, userId);
-            if (v == null) {
-                throw new OuvrirSettingNotFoundException(name);
-            }
-            try {
-                return Float.parseFloat(v);
-            } catch (NumberFormatException e) {
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            if (!v.hasFloat()) {
                 throw new OuvrirSettingNotFoundException(name);
             }
+            return v.getFloat();
         }
 
         /**
@@ -3065,7 +4132,11 @@ public final class OuvrirSettings {
                 SYS_PROP_OUVRIR_SETTING_VERSION,
                 CONTENT_URI,
                 CALL_METHOD_GET_GLOBAL,
+                CALL_METHOD_GET_BATCH_GLOBAL,
                 CALL_METHOD_PUT_GLOBAL,
+                CALL_METHOD_PUT_BATCH_GLOBAL,
+                CALL_METHOD_LIST_GLOBAL,
+                0 /* prefetchThreshold */,
                 sProviderHolder);
 
         // region Methods
@@ -3144,7 +4215,25 @@ public final class OuvrirSettings {
         /** @hide */
         public static String getStringForUser(ContentResolver resolver, String name,
                 int userId) {
-            return sNameValueCache.getStringForUser(resolver, name, userId);
+            return getValueForUser(resolver, name, userId).mValue;
+        }
+
+        private static NameValueCache.CachedValue getValueForUser(ContentResolver resolver,
+                String name, int userId) {
+            return sNameValueCache.getValueForUser(resolver, name, userId);
+        }
+
+        /**
+         * Look up several names in the database with a single call to the provider.
+         * @param resolver to access the database with
+         * @param names to look up in the table
+         * @param userId to look up the names for
+         * @return the corresponding values in the same order as names, null for names not present
+         * @hide
+         */
+        public static String[] getStringsForUser(ContentResolver resolver, String[] names,
+                int userId) {
+            return sNameValueCache.getStringsForUser(resolver, names, userId);
         }
 
         /**
@@ -3164,6 +4253,20 @@ public final class OuvrirSettings {
             return sNameValueCache.putStringForUser(resolver, name, value, userId);
         }
 
+        /**
+         * Store several name/value pairs into the database in a single transaction.
+         * @param resolver to access the database with
+         * @param names to store
+         * @param values to associate with the names, in the same order
+         * @param userId to store the values for
+         * @return true if the values were set, false on database errors
+         * @hide
+         */
+        public static boolean putStringsForUser(ContentResolver resolver, String[] names,
+                String[] values, int userId) {
+            return sNameValueCache.putStringsForUser(resolver, names, values, userId);
+        }
+
         /**
          * Convenience function for retrieving a single settings value
          * as an integer.  Note that internally setting values are always
@@ -3184,12 +4287,8 @@ public final class OuvrirSettings {
 
         /** @hide */
         public static int getIntForUser(ContentResolver cr, String name, int def, int userId) {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return v != null ? Integer.parseInt(v) : def;
-            } catch (NumberFormatException e) {
-                return def;
-            }
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            return v.hasInt() ? v.getInt() : def;
         }
 
         /**
@@ -3218,12 +4317,11 @@ public final class OuvrirSettings {
         /** @hide */
         public static int getIntForUser(ContentResolver cr, String name, int userId)
                 throws OuvrirSettingNotFoundException {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return Integer.parseInt(v);
-            } catch (NumberFormatException e) {
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            if (!v.hasInt()) {
                 throw new OuvrirSettingNotFoundException(name);
             }
+            return v.getInt();
         }
 
         /**
@@ -3270,14 +4368,8 @@ public final class OuvrirSettings {
         /** @hide */
         public static long getLongForUser(ContentResolver cr, String name, long def,
                 int userId) {
-            String valString = getStringForUser(cr, name, userId);
-            long value;
-            try {
-                value = valString != null ? Long.parseLong(valString) : def;
-            } catch (NumberFormatException e) {
-                value = def;
-            }
-            return value;
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            return v.hasLong() ? v.getLong() : def;
         }
 
         /**
@@ -3305,12 +4397,11 @@ public final class OuvrirSettings {
         /** @hide */
         public static long getLongForUser(ContentResolver cr, String name, int userId)
                 throws OuvrirSettingNotFoundException {
-            String valString = getStringForUser(cr, name, userId);
-            try {
-                return Long.parseLong(valString);
-            } catch (NumberFormatException e) {
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            if (!v.hasLong()) {
                 throw new OuvrirSettingNotFoundException(name);
             }
+            return v.getLong();
         }
 
         /**
@@ -3357,12 +4448,8 @@ public final class OuvrirSettings {
         /** @hide */
         public static float getFloatForUser(ContentResolver cr, String name, float def,
                 int userId) {
-            String v = getStringForUser(cr, name, userId);
-            try {
-                return v != null ? Float.parseFloat(v) : def;
-            } catch (NumberFormatException e) {
-                return def;
-            }
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            return v.hasFloat() ? v.getFloat() : def;
         }
 
         /**
@@ -3391,15 +4478,11 @@ public final class OuvrirSettings {
         /** @hide */
         public static float getFloatForUser(ContentResolver cr, String name, int userId)
                 throws OuvrirSettingNotFoundException {
-            String v = getStringForUser(cr, name, userId);
-            if (v == null) {
-                throw new OuvrirSettingNotFoundException(name);
-            }
-            try {
-                return Float.parseFloat(v);
-            } catch (NumberFormatException e) {
+            final NameValueCache.CachedValue v = getValueForUser(cr, name, userId);
+            if (!v.hasFloat()) {
                 throw new OuvrirSettingNotFoundException(name);
             }
+            return v.getFloat();
         }
 
         /**
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ouvriros.util;
+
+import android.util.MathUtils;
+
+/**
+ * Lookup table for color temperature conversions, sampled once over a range
+ * of temperatures at a fixed step in Kelvin. Values in between two samples
+ * are linearly interpolated, and lookups don't allocate.
+ *
+ * RGB values are sampled from {@link ColorUtils#temperatureToRGB(int)}, which
+ * is itself linear over 100K segments, so any step dividing 100 reproduces it.
+ * Color balance values are sampled from a power curve as returned by
+ * org.ouvriros.internal.util.MathUtils.powerCurve(), lerped over the balance
+ * range.
+ *
+ * @hide
+ */
+public final class ColorTemperatureTable {
+
+    private final int mMinTemperature;
+    private final int mMaxTemperature;
+    private final int mStep;
+
+    // three floats per sample
+    private final float[] mRGB;
+    // one float per sample, or null without a balance curve
+    private final float[] mBalance;
+
+    /**
+     * Create a table of RGB values only.
+     */
+    public ColorTemperatureTable(int minTemperature, int maxTemperature, int step) {
+        this(minTemperature, maxTemperature, step, null, 0, 0);
+    }
+
+    /**
+     * @param minTemperature lowest temperature in the table
+     * @param maxTemperature highest temperature in the table
+     * @param step distance between two samples in Kelvin
+     * @param balanceCurve power curve mapping temperatures to 0 -> 1, or null
+     * @param minBalance color balance at 0 on the curve
+     * @param maxBalance color balance at 1 on the curve
+     */
+    public ColorTemperatureTable(int minTemperature, int maxTemperature, int step,
+            double[] balanceCurve, int minBalance, int maxBalance) {
+        if (step <= 0 || maxTemperature < minTemperature) {
+            throw new IllegalArgumentException("Invalid temperature table " +
+                    minTemperature + "-" + maxTemperature + " step " + step);
+        }
+        mMinTemperature = minTemperature;
+        mMaxTemperature = maxTemperature;
+        mStep = step;
+
+        // the last sample is the upper bound, even if the step doesn't divide the range
+        final int samples = (maxTemperature - minTemperature + step - 1) / step + 1;
+        mRGB = new float[samples * 3];
+        mBalance = balanceCurve != null ? new float[samples] : null;
+
+        for (int i = 0; i < samples; i++) {
+            final int temperature = sampleTemperature(i);
+            final float[] rgb = ColorUtils.temperatureToRGB(temperature);
+            mRGB[i * 3] = rgb[0];
+            mRGB[i * 3 + 1] = rgb[1];
+            mRGB[i * 3 + 2] = rgb[2];
+
+            if (mBalance != null) {
+                final double z = Math.log((temperature - balanceCurve[0]) / balanceCurve[1]) /
+                        balanceCurve[2];
+                mBalance[i] = MathUtils.lerp((float) minBalance, (float) maxBalance, (float) z);
+            }
+        }
+    }
+
+    /**
+     * Look up the RGB values for a temperature, constrained to the range of
+     * the table.
+     *
+     * @param temperature in Kelvin
+     * @param out array of at least three floats receiving rgb values 0->1
+     */
+    public void getRGB(int temperature, float[] out) {
+        final int i = indexOf(temperature);
+        final float a = fractionOf(temperature, i);
+        final int j = Math.min(i + 1, getSampleCount() - 1) * 3;
+        out[0] = MathUtils.lerp(mRGB[i * 3], mRGB[j], a);
+        out[1] = MathUtils.lerp(mRGB[i * 3 + 1], mRGB[j + 1], a);
+        out[2] = MathUtils.lerp(mRGB[i * 3 + 2], mRGB[j + 2], a);
+    }
+
+    /**
+     * Look up the color balance for a temperature, constrained to the range
+     * of the table.
+     *
+     * @param temperature in Kelvin
+     * @return color balance, rounded to the nearest step
+     */
+    public int getBalance(int temperature) {
+        if (mBalance == null) {
+            throw new IllegalStateException("No color balance curve");
+        }
+        final int i = indexOf(temperature);
+        final int j = Math.min(i + 1, mBalance.length - 1);
+        return Math.round(MathUtils.lerp(mBalance[i], mBalance[j],
+                fractionOf(temperature, i)));
+    }
+
+    public boolean hasBalance() {
+        return mBalance != null;
+    }
+
+    public int getMinTemperature() {
+        return mMinTemperature;
+    }
+
+    public int getMaxTemperature() {
+        return mMaxTemperature;
+    }
+
+    public int getStep() {
+        return mStep;
+    }
+
+    public int getSampleCount() {
+        return mRGB.length / 3;
+    }
+
+    @Override
+    public String toString() {
+        return "ColorTemperatureTable[" + mMinTemperature + "-" + mMaxTemperature +
+                "K step=" + mStep + " samples=" + getSampleCount() +
+                " balance=" + hasBalance() + "]";
+    }
+
+    private int sampleTemperature(int i) {
+        return Math.min(mMinTemperature + i * mStep, mMaxTemperature);
+    }
+
+    private int indexOf(int temperature) {
+        if (temperature <= mMinTemperature) {
+            return 0;
+        }
+        return Math.min((temperature - mMinTemperature) / mStep, getSampleCount() - 1);
+    }
+
+    private float fractionOf(int temperature, int i) {
+        final int lower = sampleTemperature(i);
+        final int upper = sampleTemperature(i + 1);
+        if (upper == lower) {
+            return 0.0f;
+        }
+        return MathUtils.constrain((float) (temperature - lower) / (upper - lower),
+                0.0f, 1.0f);
+    }
+}
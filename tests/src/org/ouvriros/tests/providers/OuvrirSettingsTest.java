@@ -16,13 +16,18 @@
 
 package org.ouvriros.tests.providers;
 
+import android.app.ActivityManager;
 import android.content.ContentResolver;
+import android.content.pm.UserInfo;
 import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.os.UserHandle;
+import android.os.UserManager;
 import android.provider.Settings;
 import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
 import android.test.suitebuilder.annotation.MediumTest;
 import ouvriros.providers.OuvrirSettings;
 
@@ -30,6 +35,8 @@ public class OuvrirSettingsTest extends AndroidTestCase{
     private ContentResolver mContentResolver;
     private OuvrirSettingsTestObserver mTestObserver;
 
+    private static final long USER_SWITCH_TIMEOUT_MS = 30000;
+
     private static boolean sIsOnChangedCalled = false;
     private static Uri sExpectedUriChange = null;
 
@@ -159,6 +166,51 @@ public class OuvrirSettingsTest extends AndroidTestCase{
         }
     }
 
+    @LargeTest
+    public void testGetCurrentUserStringAcrossUserSwitch() throws Exception {
+        final String key = OuvrirSettings.System.__MAGICAL_TEST_PASSING_ENABLER;
+        final UserManager userManager = getContext().getSystemService(UserManager.class);
+        final int previousUserId = ActivityManager.getCurrentUser();
+        final UserInfo user = userManager.createUser("OuvrirSettingsTest", 0);
+        assertNotNull(user);
+        try {
+            assertTrue(OuvrirSettings.System.putStringForUser(mContentResolver, key, "1",
+                    previousUserId));
+            assertTrue(OuvrirSettings.System.putStringForUser(mContentResolver, key, "0",
+                    user.id));
+
+            assertEquals("1", OuvrirSettings.System.getStringForUser(mContentResolver, key,
+                    UserHandle.USER_CURRENT));
+
+            // Nothing is written from here on, USER_CURRENT must still follow the switch
+            switchUser(user.id);
+            assertEquals("0", OuvrirSettings.System.getStringForUser(mContentResolver, key,
+                    UserHandle.USER_CURRENT));
+
+            switchUser(previousUserId);
+            assertEquals("1", OuvrirSettings.System.getStringForUser(mContentResolver, key,
+                    UserHandle.USER_CURRENT));
+        } finally {
+            if (ActivityManager.getCurrentUser() != previousUserId) {
+                switchUser(previousUserId);
+            }
+            mContentResolver.delete(OuvrirSettings.System.CONTENT_URI,
+                    Settings.NameValueTable.NAME + " = ?", new String[]{ key });
+            userManager.removeUser(user.id);
+        }
+    }
+
+    private static void switchUser(int userId) throws Exception {
+        assertTrue(ActivityManager.getService().switchUser(userId));
+        final long deadline = SystemClock.uptimeMillis() + USER_SWITCH_TIMEOUT_MS;
+        while (ActivityManager.getCurrentUser() != userId) {
+            if (SystemClock.uptimeMillis() > deadline) {
+                fail("Timed out switching to user " + userId);
+            }
+            SystemClock.sleep(100);
+        }
+    }
+
     private class OuvrirSettingsTestObserver extends ContentObserver {
 
         public OuvrirSettingsTestObserver(Handler handler) {
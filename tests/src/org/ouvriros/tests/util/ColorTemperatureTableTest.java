@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2026, The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ouvriros.tests.util;
+
+import android.test.AndroidTestCase;
+import android.util.MathUtils;
+
+import ouvriros.util.ColorTemperatureTable;
+import ouvriros.util.ColorUtils;
+
+public class ColorTemperatureTableTest extends AndroidTestCase {
+    private static final int MIN_TEMPERATURE = 1000;
+    private static final int MAX_TEMPERATURE = 10000;
+    private static final int DAY_TEMPERATURE = 6500;
+    private static final int MIN_BALANCE = -100;
+    private static final int MAX_BALANCE = 100;
+
+    public void testRGBMatchesColorUtils() {
+        // ColorUtils is linear over 100K, steps dividing it reproduce it
+        for (int step : new int[] { 25, 50, 100 }) {
+            ColorTemperatureTable table =
+                    new ColorTemperatureTable(MIN_TEMPERATURE, MAX_TEMPERATURE, step);
+            float[] rgb = new float[3];
+            for (int k = MIN_TEMPERATURE; k <= MAX_TEMPERATURE; k++) {
+                table.getRGB(k, rgb);
+                assertRGB(ColorUtils.temperatureToRGB(k), rgb, 1e-6f);
+            }
+        }
+    }
+
+    public void testRGBCoarseStep() {
+        ColorTemperatureTable table =
+                new ColorTemperatureTable(MIN_TEMPERATURE, MAX_TEMPERATURE, 500);
+        float[] rgb = new float[3];
+        for (int k = MIN_TEMPERATURE; k <= MAX_TEMPERATURE; k++) {
+            table.getRGB(k, rgb);
+            // exact on the samples, chords of the blackbody curve in between
+            assertRGB(ColorUtils.temperatureToRGB(k), rgb, k % 500 == 0 ? 1e-6f : 0.075f);
+        }
+    }
+
+    public void testUnevenRange() {
+        ColorTemperatureTable table = new ColorTemperatureTable(1200, 9950, 300);
+        float[] rgb = new float[3];
+        assertEquals(1200, table.getMinTemperature());
+        assertEquals(9950, table.getMaxTemperature());
+        // the upper bound is a sample of its own
+        table.getRGB(9950, rgb);
+        assertRGB(ColorUtils.temperatureToRGB(9950), rgb, 1e-6f);
+        table.getRGB(9900, rgb);
+        assertRGB(ColorUtils.temperatureToRGB(9900), rgb, 1e-6f);
+    }
+
+    public void testRGBOutOfRange() {
+        ColorTemperatureTable table =
+                new ColorTemperatureTable(MIN_TEMPERATURE, MAX_TEMPERATURE, 100);
+        float[] rgb = new float[3];
+        table.getRGB(500, rgb);
+        assertRGB(ColorUtils.temperatureToRGB(MIN_TEMPERATURE), rgb, 1e-6f);
+        table.getRGB(15000, rgb);
+        assertRGB(ColorUtils.temperatureToRGB(MAX_TEMPERATURE), rgb, 1e-6f);
+    }
+
+    public void testBalanceMatchesPowerCurve() {
+        double[] curve = powerCurve(MIN_TEMPERATURE, DAY_TEMPERATURE, MAX_TEMPERATURE);
+        for (int step : new int[] { 50, 100, 500 }) {
+            ColorTemperatureTable table = new ColorTemperatureTable(MIN_TEMPERATURE,
+                    MAX_TEMPERATURE, step, curve, MIN_BALANCE, MAX_BALANCE);
+            assertTrue(table.hasBalance());
+            for (int k = MIN_TEMPERATURE; k <= MAX_TEMPERATURE; k++) {
+                int expected = analyticBalance(curve, k);
+                int balance = table.getBalance(k);
+                assertTrue("balance at " + k + "K step " + step + ": " + balance +
+                        " expected " + expected, Math.abs(expected - balance) <= 1);
+            }
+        }
+    }
+
+    public void testBalanceEndpoints() {
+        double[] curve = powerCurve(MIN_TEMPERATURE, DAY_TEMPERATURE, MAX_TEMPERATURE);
+        ColorTemperatureTable table = new ColorTemperatureTable(MIN_TEMPERATURE,
+                MAX_TEMPERATURE, 100, curve, MIN_BALANCE, MAX_BALANCE);
+        assertEquals(MIN_BALANCE, table.getBalance(MIN_TEMPERATURE));
+        assertEquals(0, table.getBalance(DAY_TEMPERATURE));
+        assertEquals(MAX_BALANCE, table.getBalance(MAX_TEMPERATURE));
+        assertEquals(MIN_BALANCE, table.getBalance(0));
+    }
+
+    public void testNoBalanceCurve() {
+        ColorTemperatureTable table =
+                new ColorTemperatureTable(MIN_TEMPERATURE, MAX_TEMPERATURE, 100);
+        assertFalse(table.hasBalance());
+        try {
+            table.getBalance(DAY_TEMPERATURE);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testInvalidStep() {
+        try {
+            new ColorTemperatureTable(MIN_TEMPERATURE, MAX_TEMPERATURE, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertRGB(float[] expected, float[] actual, float tolerance) {
+        assertEquals(expected[0], actual[0], tolerance);
+        assertEquals(expected[1], actual[1], tolerance);
+        assertEquals(expected[2], actual[2], tolerance);
+    }
+
+    // Same as org.ouvriros.internal.util.MathUtils, which the sdk doesn't include
+    private static double[] powerCurve(double lower, double mid, double upper) {
+        final double[] curve = new double[3];
+        curve[0] = ((lower * upper) - (mid * mid)) / (lower - (2 * mid) + upper);
+        curve[1] = Math.pow((mid - lower), 2) / (lower - (2 * mid) + upper);
+        curve[2] = 2 * Math.log((upper - mid) / (mid - lower));
+        return curve;
+    }
+
+    private static int analyticBalance(double[] curve, int temperature) {
+        double z = Math.log((temperature - curve[0]) / curve[1]) / curve[2];
+        return Math.round(MathUtils.lerp((float) MIN_BALANCE, (float) MAX_BALANCE, (float) z));
+    }
+}